@@ -0,0 +1,151 @@
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+
+// Account name -> long map with open addressing (linear probing) over plain
+// arrays, so storing a balance never allocates a boxed value. Not thread-safe;
+// BalanceJournal guards it. Slot indexes stay valid until the next put of a
+// new key or remove, which lets a caller look a slot up once and update it.
+public class AccountBalanceMap {
+    private static final int MIN_CAPACITY = 16;
+
+    private String[] keys;
+    private long[] values;
+    private int size;
+    private int mask;
+
+    public AccountBalanceMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public AccountBalanceMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        // Keep the load factor at or below 1/2
+        while (capacity < expectedSize * 2) capacity <<= 1;
+        keys = new String[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Slot of the key, or -1 if absent
+    private int indexOf(String key) {
+        String[] k = keys;
+        int m = k.length - 1;
+        int i = hash(key) & m;
+        for (int probes = 0; probes <= m; probes++) {
+            String existing = k[i];
+            if (existing == null) return -1;
+            if (existing.equals(key)) return i;
+            i = (i + 1) & m;
+        }
+        return -1;
+    }
+
+    public boolean containsKey(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    public long get(String key, long defaultValue) {
+        int i = indexOf(key);
+        return i >= 0 ? values[i] : defaultValue;
+    }
+
+    public void put(String key, long value) {
+        int i = hash(key) & mask;
+        while (keys[i] != null) {
+            if (keys[i].equals(key)) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+    }
+
+    // Grows the table ahead of adding about this many keys
+    public void ensureCapacity(int expectedSize) {
+        int capacity = keys.length;
+        while (capacity < expectedSize * 2) capacity <<= 1;
+        if (capacity > keys.length) resize(capacity);
+    }
+
+    public boolean remove(String key) {
+        int i = indexOf(key);
+        if (i < 0) return false;
+        // Backward-shift deletion keeps every probe chain unbroken without tombstones
+        int gap = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            String k = keys[j];
+            if (k == null) break;
+            int home = hash(k) & mask;
+            // Move k into the gap unless its home slot lies cyclically in (gap, j]
+            boolean homeBetween = gap <= j ? (gap < home && home <= j) : (gap < home || home <= j);
+            if (!homeBetween) {
+                keys[gap] = k;
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = null;
+        values[gap] = 0;
+        size--;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    public void forEach(ObjLongConsumer<String> action) {
+        String[] k = keys;
+        long[] v = values;
+        for (int i = 0; i < k.length; i++) {
+            if (k[i] != null) action.accept(k[i], v[i]);
+        }
+    }
+
+    public AccountBalanceMap copy() {
+        AccountBalanceMap copy = new AccountBalanceMap(MIN_CAPACITY);
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.size = size;
+        copy.mask = mask;
+        return copy;
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        long[] oldValues = values;
+        String[] newKeys = new String[capacity];
+        long[] newValues = new long[capacity];
+        int newMask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            String k = oldKeys[i];
+            if (k == null) continue;
+            int j = hash(k) & newMask;
+            while (newKeys[j] != null) j = (j + 1) & newMask;
+            newKeys[j] = k;
+            newValues[j] = oldValues[i];
+        }
+        // Publish the filled arrays only; readers holding the old ones see a complete table
+        values = newValues;
+        keys = newKeys;
+        mask = newMask;
+    }
+}
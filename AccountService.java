@@ -0,0 +1,436 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Headless account operations shared by the GUI and any other front end.
+// Amounts and balances are long centavos (see Money).
+// Every balance change runs under the lock of its account's stripe, and a
+// transfer takes both stripes in index order, so any number of threads can
+// move money at once without lost updates or deadlocks.
+// Other processes (another terminal, the batch processor) may move money in
+// the same files, so each change also locks the accounts' records in
+// Depositor.dat and catches up with the balance journal before reading.
+// Balances and log lines live in the account's shard (see Shards), so a
+// change touches only that shard's files; a transfer between two shards
+// writes one log commit in each.
+public class AccountService implements Accounts {
+    private static final int STRIPES = 64;
+
+    private static final Metrics.Timer LOGIN = Metrics.timer("login");
+    private static final Metrics.Timer LOAD_DEPOSITORS = Metrics.timer("loadDepositors");
+    private static final Metrics.Timer UPDATE_BALANCE = Metrics.timer("updateBalance");
+    private static final Metrics.Timer RECORD_TRANSACTION = Metrics.timer("recordTransaction");
+    private static final Metrics.Timer RECORD_TRANSFER = Metrics.timer("recordTransfer");
+    // Time spent waiting for the log writer to make an entry durable
+    private static final Metrics.Timer LOG_COMMIT = Metrics.timer("logCommitWait");
+
+    // Outcome of a money movement
+    public enum Result {
+        OK, INVALID_AMOUNT, INSUFFICIENT_FUNDS, NO_SUCH_ACCOUNT, ACCOUNT_DISABLED, SAME_ACCOUNT, STORAGE_ERROR,
+        // The balance changed, but its log line may not have reached disk;
+        // repeating the operation would apply it twice
+        NOT_CONFIRMED,
+        // Only from BankClient: the server no longer knows the session
+        SESSION_EXPIRED
+    }
+
+    // Outcome of a login
+    public enum Login {
+        OK, INVALID_CREDENTIALS, ACCOUNT_DISABLED,
+        // Only from BankClient: too many wrong PINs, wait before trying again
+        TOO_MANY_ATTEMPTS
+    }
+
+    private DepositorStore depositors;
+    private final Shards shards;
+
+    // Name -> record index in the depositor store. PIN and status are read
+    // from the (memory-mapped) record itself, so Admin changes show up at once;
+    // store notifications keep the map itself current (see recordChanged).
+    private final Map<String, Integer> records = new ConcurrentHashMap<>();
+    private final DepositorStore.Listener storeListener = this::recordChanged;
+    // Told the name of each account whose record changed
+    private final List<Consumer<String>> changeListeners = new CopyOnWriteArrayList<>();
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    // Cleared for bulk runs; see setWaitForLog
+    private volatile boolean waitForLog = true;
+
+    // Uses the shared Depositor.dat store, opened by loadCredentials, and
+    // the shards laid out in the working directory
+    public AccountService() throws IOException {
+        this(null, Shards.open());
+    }
+
+    // One shard made of the given stores
+    public AccountService(DepositorStore depositors, BalanceJournal balances, TransactionLog transactionLog) {
+        this(depositors, Shards.of(balances, transactionLog));
+    }
+
+    public AccountService(DepositorStore depositors, Shards shards) {
+        this.depositors = depositors;
+        this.shards = shards;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    // Maps every live account name to its record in Depositor.dat
+    public void loadCredentials() throws IOException {
+        long start = LOAD_DEPOSITORS.start();
+        if (depositors == null) {
+            depositors = DepositorStore.shared();
+        }
+        depositors.removeListener(storeListener);
+        depositors.addListener(storeListener);
+        records.clear();
+        int count = depositors.size();
+        for (int i = 0; i < count; i++) {
+            if (!depositors.isDeleted(i)) {
+                records.put(depositors.name(i), i);
+            }
+        }
+        LOAD_DEPOSITORS.stop(start);
+    }
+
+    // Loads every shard's balances from its checkpoint and journal (accounts
+    // with no balance yet read as 0, so nothing is written at startup)
+    public void loadBalances() throws IOException {
+        shards.loadBalances();
+    }
+
+    public Shards shards() {
+        return shards;
+    }
+
+    // Applies one added or changed record, from this process or another
+    private void recordChanged(int index) {
+        String user = depositors.name(index);
+        if (depositors.isDeleted(index)) {
+            if (records.remove(user, index)) {
+                removeBalance(user);
+            }
+        } else {
+            records.merge(user, index, Math::max);
+        }
+        for (Consumer<String> listener : changeListeners) {
+            listener.accept(user);
+        }
+    }
+
+    // Drops a deleted account's balance so compaction does not carry it forward
+    private void removeBalance(String user) {
+        ReentrantLock lock = lockFor(user);
+        lock.lock();
+        try {
+            shards.balances(user).remove(user);
+        } catch (IOException e) {
+            // Ignore error for now
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Folds the balance journals into new checkpoints (a Compactor step)
+    public void compactBalances(Compactor compactor) throws IOException, InterruptedException {
+        shards.compactBalances(compactor);
+    }
+
+    // When false, money movements return once their log lines are queued
+    // instead of waiting for them to reach disk. The caller must close the
+    // shards at the end, which writes and syncs everything queued.
+    public void setWaitForLog(boolean wait) {
+        waitForLog = wait;
+    }
+
+    // Called (on a store thread) with the name of each account that was
+    // registered, enabled, disabled or deleted
+    @Override
+    public void addChangeListener(Consumer<String> listener) {
+        changeListeners.add(listener);
+    }
+
+    @Override
+    public void removeChangeListener(Consumer<String> listener) {
+        changeListeners.remove(listener);
+    }
+
+    // Re-resolves the user's record through the store index. Not needed for
+    // logins, since change notifications keep the records current.
+    public void reloadUserStatus(String user) {
+        int index = depositors.indexOf(user);
+        if (index >= 0) {
+            records.put(user, index);
+        } else {
+            records.remove(user);
+        }
+    }
+
+    // Record index of a live account, or -1
+    private int record(String user) {
+        Integer index = records.get(user);
+        if (index == null || depositors.isDeleted(index)) return -1;
+        return index;
+    }
+
+    // The login screen's checks: PIN first, then whether the account is enabled
+    @Override
+    public Login login(String user, String pin) {
+        long start = LOGIN.start();
+        Login result;
+        if (!checkPin(user, pin)) {
+            result = Login.INVALID_CREDENTIALS;
+        } else {
+            result = isDisabled(user) ? Login.ACCOUNT_DISABLED : Login.OK;
+        }
+        LOGIN.stop(start);
+        return result;
+    }
+
+    public boolean checkPin(String user, String pin) {
+        int index = record(user);
+        return index >= 0 && depositors.pinMatches(index, pin);
+    }
+
+    @Override
+    public boolean exists(String user) {
+        return record(user) >= 0;
+    }
+
+    @Override
+    public boolean isDisabled(String user) {
+        int index = record(user);
+        return index >= 0 && depositors.status(index) == DepositorStore.DISABLED;
+    }
+
+    // Includes changes other processes made to the balance since the last call
+    @Override
+    public long getBalance(String user) {
+        BalanceJournal balances = shards.balances(user);
+        try {
+            balances.refresh();
+        } catch (IOException e) {
+            // Ignore error for now
+        }
+        return balances.get(user);
+    }
+
+    @Override
+    public Result deposit(String user, long amount) {
+        if (!isValidAmount(amount)) return Result.INVALID_AMOUNT;
+        if (!exists(user)) return Result.NO_SUCH_ACCOUNT;
+        CompletableFuture<Void> logged;
+        ReentrantLock lock = lockFor(user);
+        lock.lock();
+        DepositorStore.RecordLock records = null;
+        try {
+            records = lockRecords(user);
+            if (!exists(user)) return Result.NO_SUCH_ACCOUNT;
+            if (isDisabled(user)) return Result.ACCOUNT_DISABLED;
+            long balance = shards.balances(user).get(user);
+            if (balance > Long.MAX_VALUE - amount) return Result.INVALID_AMOUNT;
+            balance += amount;
+            updateBalance(user, balance);
+            logged = recordTransaction(user, "Deposit", amount, balance);
+        } catch (IOException e) {
+            return Result.STORAGE_ERROR;
+        } finally {
+            if (records != null) records.close();
+            lock.unlock();
+        }
+        return awaitLogged(logged);
+    }
+
+    @Override
+    public Result withdraw(String user, long amount) {
+        if (!isValidAmount(amount)) return Result.INVALID_AMOUNT;
+        if (!exists(user)) return Result.NO_SUCH_ACCOUNT;
+        CompletableFuture<Void> logged;
+        ReentrantLock lock = lockFor(user);
+        lock.lock();
+        DepositorStore.RecordLock records = null;
+        try {
+            records = lockRecords(user);
+            if (!exists(user)) return Result.NO_SUCH_ACCOUNT;
+            if (isDisabled(user)) return Result.ACCOUNT_DISABLED;
+            long balance = shards.balances(user).get(user);
+            if (amount > balance) return Result.INSUFFICIENT_FUNDS;
+            balance -= amount;
+            updateBalance(user, balance);
+            logged = recordTransaction(user, "Withdraw", amount, balance);
+        } catch (IOException e) {
+            return Result.STORAGE_ERROR;
+        } finally {
+            if (records != null) records.close();
+            lock.unlock();
+        }
+        return awaitLogged(logged);
+    }
+
+    @Override
+    public Result transfer(String sender, String recipient, long amount) {
+        if (sender.equalsIgnoreCase(recipient)) return Result.SAME_ACCOUNT;
+        if (!exists(sender) || !exists(recipient)) return Result.NO_SUCH_ACCOUNT;
+        if (!isValidAmount(amount)) return Result.INVALID_AMOUNT;
+
+        // Always lock the lower stripe first so two opposite transfers cannot deadlock
+        int a = stripe(sender);
+        int b = stripe(recipient);
+        ReentrantLock first = locks[Math.min(a, b)];
+        ReentrantLock second = locks[Math.max(a, b)];
+        CompletableFuture<Void> logged;
+        first.lock();
+        if (second != first) second.lock();
+        DepositorStore.RecordLock records = null;
+        try {
+            records = lockRecords(sender, recipient);
+            if (!exists(sender) || !exists(recipient)) return Result.NO_SUCH_ACCOUNT;
+            if (isDisabled(sender) || isDisabled(recipient)) return Result.ACCOUNT_DISABLED;
+            long senderBalance = shards.balances(sender).get(sender);
+            if (amount > senderBalance) return Result.INSUFFICIENT_FUNDS;
+            long recipientBalance = shards.balances(recipient).get(recipient);
+            if (recipientBalance > Long.MAX_VALUE - amount) return Result.INVALID_AMOUNT;
+            senderBalance -= amount;
+            recipientBalance += amount;
+
+            updateBalance(sender, senderBalance);
+            try {
+                updateBalance(recipient, recipientBalance);
+            } catch (IOException e) {
+                // Put the sender's money back; if even that fails, Reconcile
+                // shows the sender's journal ahead of the log
+                try {
+                    updateBalance(sender, senderBalance + amount);
+                } catch (IOException again) {
+                    e.addSuppressed(again);
+                }
+                throw e;
+            }
+            logged = recordTransfer(sender, recipient, amount, senderBalance, recipientBalance);
+        } catch (IOException e) {
+            return Result.STORAGE_ERROR;
+        } finally {
+            if (records != null) records.close();
+            if (second != first) second.unlock();
+            first.unlock();
+        }
+        return awaitLogged(logged);
+    }
+
+    @Override
+    public TransactionLog.Statement statement(String user, long fromMillis, long toMillis, int skip, int limit) throws IOException {
+        return shards.log(user).statement(user, fromMillis, toMillis, skip, limit);
+    }
+
+    // Waits for the log writer outside the account locks, so other threads
+    // can queue their own entries into the same group commit meanwhile.
+    // NOT_CONFIRMED if the commit failed: the balance has changed, so the
+    // caller must neither be told the transaction is safely recorded nor
+    // asked to try again.
+    private Result awaitLogged(CompletableFuture<Void> logged) {
+        if (!waitForLog) return Result.OK;
+        long start = LOG_COMMIT.start();
+        try {
+            logged.join();
+            return Result.OK;
+        } catch (CompletionException e) {
+            return Result.NOT_CONFIRMED;
+        } finally {
+            LOG_COMMIT.stop(start);
+        }
+    }
+
+    // Locks the accounts' records against other processes (record order, so
+    // two opposite transfers cannot deadlock), then reads the balance records
+    // those processes appended to the accounts' shards. Callers hold the
+    // stripe locks already.
+    private DepositorStore.RecordLock lockRecords(String... users) throws IOException {
+        int[] indexes = new int[users.length];
+        int count = 0;
+        for (String user : users) {
+            // A missing account locks nothing; the caller's exists() check fails
+            int index = record(user);
+            if (index >= 0) indexes[count++] = index;
+        }
+        DepositorStore.RecordLock lock = depositors.lockRecords(Arrays.copyOf(indexes, count));
+        try {
+            for (String user : users) {
+                shards.balances(user).refresh();
+            }
+        } catch (IOException e) {
+            lock.close();
+            throw e;
+        }
+        return lock;
+    }
+
+    private static boolean isValidAmount(long amount) {
+        return amount > 0;
+    }
+
+    private int stripe(String user) {
+        int h = user.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    private ReentrantLock lockFor(String user) {
+        return locks[stripe(user)];
+    }
+
+    // Updates the balance in the map and appends it to the balance journal.
+    // If the journal write fails the map keeps the old balance and the
+    // caller reports STORAGE_ERROR without logging the transaction.
+    private void updateBalance(String user, long newBalance) throws IOException {
+        long start = UPDATE_BALANCE.start();
+        try {
+            shards.balances(user).put(user, newBalance);
+        } finally {
+            UPDATE_BALANCE.stop(start);
+        }
+    }
+
+    // Queues the transaction for the log writer (queued under the account lock,
+    // so each account's entries keep their order)
+    private CompletableFuture<Void> recordTransaction(String user, String type, long amount, long balance) {
+        long start = RECORD_TRANSACTION.start();
+        CompletableFuture<Void> logged = shards.log(user).append(user, logLine(user, type, amount, balance, null, LogEntry.now()));
+        RECORD_TRANSACTION.stop(start);
+        return logged;
+    }
+
+    // Queues both legs of a transfer as one commit, or one leg to each log
+    // when the accounts are in different shards (done when both are)
+    private CompletableFuture<Void> recordTransfer(String sender, String recipient, long amount, long senderBalance, long recipientBalance) {
+        long start = RECORD_TRANSFER.start();
+        long now = LogEntry.now();
+        String out = logLine(sender, "Transfer Out", amount, senderBalance, "To: " + recipient, now);
+        String in = logLine(recipient, "Transfer In", amount, recipientBalance, "From: " + sender, now);
+        CompletableFuture<Void> logged;
+        TransactionLog senderLog = shards.log(sender);
+        TransactionLog recipientLog = shards.log(recipient);
+        if (senderLog == recipientLog) {
+            logged = senderLog.append(new String[]{sender, recipient}, new String[]{out, in});
+        } else {
+            logged = CompletableFuture.allOf(senderLog.append(sender, out), recipientLog.append(recipient, in));
+        }
+        RECORD_TRANSFER.stop(start);
+        return logged;
+    }
+
+    // user,type,amount,balance[,counterparty],timestamp (epoch millis)
+    private static String logLine(String user, String type, long amount, long balance, String counterparty, long timestamp) {
+        StringBuilder sb = new StringBuilder(96);
+        sb.append(user).append(',').append(type).append(',');
+        Money.appendTo(sb, amount);
+        sb.append(',');
+        Money.appendTo(sb, balance);
+        sb.append(',');
+        if (counterparty != null) sb.append(counterparty).append(',');
+        return sb.append(timestamp).toString();
+    }
+}
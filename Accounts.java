@@ -0,0 +1,34 @@
+import java.io.IOException;
+import java.util.function.Consumer;
+
+// What the login screen and AccountGUI need from the bank: AccountService
+// in-process, or BankClient talking to a BankServer. Amounts and balances
+// are long centavos (see Money).
+public interface Accounts {
+    AccountService.Login login(String user, String pin);
+
+    // Ends the user's session (nothing to do in-process)
+    default void logout(String user) {
+    }
+
+    boolean exists(String user);
+
+    boolean isDisabled(String user);
+
+    long getBalance(String user);
+
+    AccountService.Result deposit(String user, long amount);
+
+    AccountService.Result withdraw(String user, long amount);
+
+    AccountService.Result transfer(String sender, String recipient, long amount);
+
+    // One page of the user's lines stamped in [fromMillis, toMillis)
+    TransactionLog.Statement statement(String user, long fromMillis, long toMillis, int skip, int limit) throws IOException;
+
+    // Called with the name of each account that was registered, enabled,
+    // disabled or deleted (never called by a remote client)
+    void addChangeListener(Consumer<String> listener);
+
+    void removeChangeListener(Consumer<String> listener);
+}
@@ -1,50 +1,63 @@
 import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.List;
-import java.util.regex.Pattern;
-import javax.swing.table.DefaultTableModel;
-import javax.swing.table.TableRowSorter;
+import java.util.concurrent.CompletionException;
 
 public class Admin extends JFrame implements ActionListener {
+    private static final int SEARCH_DELAY_MS = 150;
+    private static final Metrics.Timer MONITOR_PAGE = Metrics.timer("monitorPage");
+
     private JTable depositorTable;
     private JScrollPane scrollPane;
     private JButton enableButton, disableButton, deleteButton, refreshButton, monitorButton;
     private JTextField searchField;
     private JLabel searchLabel;
-    private List<String[]> depositors;
-    private String[] columnNames = {"Name", "ID", "Gender", "Age", "PIN", "Status"};
-    private DefaultTableModel model;
-    private TableRowSorter<DefaultTableModel> sorter;
+    private DepositorStore store;
+    // Rows are read from Depositor.dat on demand, a page at a time
+    private DepositorTableModel model;
+    // Balances and transaction logs, split by account (see Shards); the
+    // monitor window reads the account's log index
+    private Shards shards;
+    // Rewrites the logs without deleted accounts (and with epoch
+    // timestamps), in the background
+    private Compactor compactor = new Compactor();
+    private JButton compactButton;
+    // Counters and timers of this process, in their own tab
+    private MetricsPanel metricsPanel = new MetricsPanel();
+    // Covers status changes and deletes while they write, off the EDT
+    private Background.Busy busy;
+    // Month-end statements for every account (see StatementExport)
+    private JButton exportButton;
+    private JProgressBar exportBar = new JProgressBar(0, 100);
+    private Background.Busy exportBusy;
+    private volatile StatementExport export;
 
     public Admin() {
         setTitle("Admin - List of Depositors");
-        setSize(900, 500);
+        setSize(1150, 500);
         setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         setLocationRelativeTo(null);
 
-        // Load depositors from Depositor.txt
-        depositors = loadDepositors();
+        // Open depositors from Depositor.dat
+        store = openStore();
+        model = new DepositorTableModel(store);
+        shards = openShards();
 
-        // Convert list to 2D array for JTable
-        String[][] tableData = depositors.toArray(new String[0][]);
-
-        model = new DefaultTableModel(tableData, columnNames) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false; // Table not editable
-            }
-        };
+        if (shards != null) {
+            // Every shard's log at once; also converts old Date.toString() stamps, once
+            compactor.add("transaction log", shards::compactLogs);
+            compactor.start();
+        }
 
         depositorTable = new JTable(model);
         depositorTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 
-        // TableRowSorter for filtering
-        sorter = new TableRowSorter<>(model);
-        depositorTable.setRowSorter(sorter);
-
         scrollPane = new JScrollPane(depositorTable);
 
         enableButton = new JButton("Enable Account");
@@ -52,12 +65,21 @@ public class Admin extends JFrame implements ActionListener {
         deleteButton = new JButton("Delete Account");
         refreshButton = new JButton("Refresh");
         monitorButton = new JButton("Monitor");
+        compactButton = new JButton("Pause Compaction");
+        exportButton = new JButton("Export Statements");
 
         enableButton.addActionListener(this);
         disableButton.addActionListener(this);
         deleteButton.addActionListener(this);
         refreshButton.addActionListener(this);
         monitorButton.addActionListener(this);
+        compactButton.addActionListener(this);
+        exportButton.addActionListener(this);
+        busy = new Background.Busy(this, enableButton, disableButton, deleteButton, refreshButton);
+        exportBusy = new Background.Busy(this, exportButton).withProgress(exportBar, () -> {
+            StatementExport running = export;
+            return running != null ? running.progress() : -1;
+        });
 
         JPanel buttonPanel = new JPanel();
         buttonPanel.add(enableButton);
@@ -65,180 +87,205 @@ public class Admin extends JFrame implements ActionListener {
         buttonPanel.add(deleteButton);
         buttonPanel.add(refreshButton);
         buttonPanel.add(monitorButton);
+        buttonPanel.add(compactButton);
+        buttonPanel.add(exportButton);
+        buttonPanel.add(exportBar);
 
         // Search bar
-        searchLabel = new JLabel("Search Name: ");
+        searchLabel = new JLabel("Search Name or ID: ");
         searchField = new JTextField(18);
         JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         searchPanel.add(searchLabel);
         searchPanel.add(searchField);
 
-        // Search as you type
+        // Search as you type, once typing pauses
+        javax.swing.Timer searchTimer = new javax.swing.Timer(SEARCH_DELAY_MS, e -> model.setNameFilter(searchField.getText().trim()));
+        searchTimer.setRepeats(false);
         searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
-            public void insertUpdate(javax.swing.event.DocumentEvent e) { filter(); }
-            public void removeUpdate(javax.swing.event.DocumentEvent e) { filter(); }
-            public void changedUpdate(javax.swing.event.DocumentEvent e) { filter(); }
-            private void filter() {
-                String text = searchField.getText().trim();
-                if (text.length() == 0) {
-                    sorter.setRowFilter(null);
-                } else {
-                    sorter.setRowFilter(RowFilter.regexFilter("(?i)^" + Pattern.quote(text), 0));
-                }
-            }
+            public void insertUpdate(javax.swing.event.DocumentEvent e) { searchTimer.restart(); }
+            public void removeUpdate(javax.swing.event.DocumentEvent e) { searchTimer.restart(); }
+            public void changedUpdate(javax.swing.event.DocumentEvent e) { searchTimer.restart(); }
         });
 
         // Layout
+        JPanel depositorPanel = new JPanel(new BorderLayout());
+        depositorPanel.add(searchPanel, BorderLayout.NORTH);
+        depositorPanel.add(scrollPane, BorderLayout.CENTER);
+        depositorPanel.add(buttonPanel, BorderLayout.SOUTH);
+
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Depositors", depositorPanel);
+        tabs.addTab("Metrics", metricsPanel);
         setLayout(new BorderLayout());
-        add(searchPanel, BorderLayout.NORTH);
-        add(scrollPane, BorderLayout.CENTER);
-        add(buttonPanel, BorderLayout.SOUTH);
-    }
+        add(tabs, BorderLayout.CENTER);
 
-    private List<String[]> loadDepositors() {
-        List<String[]> data = new ArrayList<>();
-        File file = new File("Depositor.txt");
-        if (!file.exists()) {
-            return data;
-        }
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] row = new String[6];
-                String[] parts = line.split(",");
-                for (String part : parts) {
-                    part = part.trim();
-                    if (part.startsWith("Name:")) {
-                        row[0] = part.substring(5).trim();
-                    } else if (part.startsWith("ID:")) {
-                        row[1] = part.substring(3).trim();
-                    } else if (part.startsWith("Gender:")) {
-                        row[2] = part.substring(7).trim();
-                    } else if (part.startsWith("Age:")) {
-                        row[3] = part.substring(4).trim();
-                    } else if (part.startsWith("PIN:")) {
-                        row[4] = part.substring(4).trim();
-                    } else if (part.startsWith("Status:")) {
-                        row[5] = part.substring(7).trim();
-                    }
-                }
-                if (row[5] == null || row[5].isEmpty()) {
-                    row[5] = "Enabled";
-                }
-                data.add(row);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                model.close();
+                compactor.stop();
+                if (shards != null) shards.close();
+                metricsPanel.close();
             }
+        });
+    }
+
+    private DepositorStore openStore() {
+        try {
+            return DepositorStore.shared();
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error reading Depositor.txt: " + e.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+            JOptionPane.showMessageDialog(this, "Error reading Depositor.dat: " + e.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+            return null;
         }
-        return data;
     }
 
-    // Save depositors with status back to Depositor.txt
-    private void saveDepositors(List<String[]> depositors) {
-        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter("Depositor.txt")))) {
-            for (String[] row : depositors) {
-                out.printf("Name: %s, ID: %s, Gender: %s, Age: %s, PIN: %s, Status: %s%n",
-                        row[0], row[1], row[2], row[3], row[4], row[5]);
-            }
+    private Shards openShards() {
+        try {
+            return Shards.open();
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error saving Depositor.txt: " + e.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+            JOptionPane.showMessageDialog(this, "Error reading " + Shards.PROPERTIES + ": " + e.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+            return null;
         }
     }
 
-    private void deleteFromBalance(String name) {
-        File file = new File("Balance.txt");
-        if (!file.exists()) return;
-        List<String> lines = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while((line = br.readLine()) != null) {
-                if (!line.trim().startsWith("Name: " + name + ",")) {
-                    lines.add(line);
-                }
+    // The shards, or the reason they could not be opened
+    private Shards shards() throws IOException {
+        if (shards == null) throw new IOException(Shards.PROPERTIES + " could not be read");
+        return shards;
+    }
+
+    // Writes the new status byte of one record in place (off the EDT), unless
+    // another terminal changed the record since it was read at version. A
+    // delete also drops the account's balance and tombstones its history.
+    // Then updates the row and tells the user.
+    private void saveStatus(int modelRow, byte status, long version, String done) {
+        int record = model.recordAt(modelRow);
+        String name = store.name(record);
+        Background.run(busy, () -> {
+            // A delete needs the shards for the balance and history
+            if (status == DepositorStore.DELETED) shards();
+            if (!store.setStatus(record, status, version)) return false;
+            if (status == DepositorStore.DELETED) {
+                deleteFromBalance(name);
+                deleteFromTransactionLog(name);
             }
+            return true;
+        }, (saved, failure) -> {
+            if (failure != null) {
+                JOptionPane.showMessageDialog(this, "Error saving Depositor.dat: " + failure.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if (!saved) {
+                JOptionPane.showMessageDialog(this, "This account was changed by another terminal. The list has been refreshed; please try again.", "Account Changed", JOptionPane.WARNING_MESSAGE);
+                model.refresh();
+                return;
+            }
+            if (modelRow >= model.getRowCount() || model.recordAt(modelRow) != record) {
+                // The search changed the rows meanwhile
+                model.refresh();
+            } else if (status == DepositorStore.DELETED) {
+                model.removeRow(modelRow);
+            } else {
+                model.rowChanged(modelRow);
+            }
+            JOptionPane.showMessageDialog(this, done);
+        });
+    }
+
+    // Appends a delete record to the balance journal instead of rewriting Balance.txt
+    private void deleteFromBalance(String name) {
+        BalanceJournal journal = shards.openBalances(name);
+        try {
+            journal.remove(name);
         } catch (IOException e) { /* ignore */ }
-        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
-            for (String line : lines) out.println(line);
-        } catch (IOException e) { /* ignore */ }
+        journal.close();
     }
 
+    // Tombstones the account's history; the compactor removes the lines later
     private void deleteFromTransactionLog(String name) {
-        File file = new File("TransactionLog.txt");
-        if (!file.exists()) return;
-        List<String> lines = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while((line = br.readLine()) != null) {
-                if (!line.trim().startsWith(name + ",")) {
-                    lines.add(line);
-                }
+        try {
+            shards.log(name).delete(name).join();
+        } catch (CompletionException e) { /* ignore */ }
+    }
+
+    // Writes every account's statement into a folder the user picks
+    private void exportStatements() {
+        JFileChooser chooser = new JFileChooser(new File("."));
+        chooser.setDialogTitle("Export Statements To");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File dir = chooser.getSelectedFile();
+        Background.run(exportBusy, () -> {
+            StatementExport job = new StatementExport(shards(), dir, Runtime.getRuntime().availableProcessors());
+            export = job;
+            job.run();
+            return job;
+        }, (job, failure) -> {
+            export = null;
+            if (failure != null) {
+                JOptionPane.showMessageDialog(this, "Error exporting statements: " + failure.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+                return;
             }
-        } catch (IOException e) { /* ignore */ }
-        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
-            for (String line : lines) out.println(line);
-        } catch (IOException e) { /* ignore */ }
+            JOptionPane.showMessageDialog(this, "Wrote " + job.accounts() + " statements (" + job.rows() + " transactions) to " + dir.getPath() + ".");
+        });
     }
 
     private void showMonitor(String name) {
         new MonitorWindow(name).setVisible(true);
     }
 
-    // Monitor window for transaction/history remains the same
+    // What one monitor window read returns
+    private static final class MonitorPage {
+        final TransactionLog.Statement statement;
+        // Null unless the totals were read too
+        final TransactionLog.Summary summary;
+
+        MonitorPage(TransactionLog.Statement statement, TransactionLog.Summary summary) {
+            this.statement = statement;
+            this.summary = summary;
+        }
+    }
+
+    // Monitor window: the account's totals, kept by the log index, over its
+    // statement a page at a time, optionally limited to a date range
     class MonitorWindow extends JFrame {
+        private static final int PAGE_SIZE = 100;
+
+        private final String user;
+        private final DefaultTableModel rows;
+        private final JLabel summaryLabel = new JLabel();
+        private final JLabel pageLabel = new JLabel();
+        private final JTextField fromField = new JTextField(10);
+        private final JTextField toField = new JTextField(10);
+        private final JButton applyButton = new JButton("Apply");
+        private final JButton prevButton = new JButton("< Prev");
+        private final JButton nextButton = new JButton("Next >");
+        // Runs while a page is read; shows the index build on a first open
+        private final JProgressBar progressBar = new JProgressBar(0, 100);
+        private final Background.Busy busy = new Background.Busy(this, applyButton, prevButton, nextButton)
+                .withProgress(progressBar, () -> shards != null ? shards.log(MonitorWindow.this.user).indexingProgress() : -1);
+        // Epoch millis, from inclusive and to exclusive
+        private long from = Long.MIN_VALUE;
+        private long to = Long.MAX_VALUE;
+        private int page;
+
         public MonitorWindow(String user) {
+            this.user = user;
             setTitle(user + " - Monitoring Window");
-            setSize(1000, 400);
+            setSize(1000, 450);
             setLocationRelativeTo(null);
 
-            String status = null;
-            for (String[] row : depositors) {
-                if (row[0].equals(user)) {
-                    status = row[5];
-                    break;
-                }
-            }
-            if (status == null) status = "Enabled";
-
-            String[] columnNames = { "No.", "Type", "Amount (₱)", "Total Deposited (₱)", "Total Withdrawn (₱)", "Balance (₱)", "Timestamp" };
-            List<Object[]> rowData = new ArrayList<>();
-
-            double totalDeposited = 0.0;
-            double totalWithdrawn = 0.0;
-            int count = 1;
-
-            try (BufferedReader br = new BufferedReader(new FileReader("TransactionLog.txt"))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] parts = line.split(",", 5);
-                    if (parts.length < 5) continue;
-                    if (!parts[0].trim().equals(user)) continue;
-                    String type = parts[1].trim();
-                    double amount = Double.parseDouble(parts[2].trim());
-                    double balance = Double.parseDouble(parts[3].trim());
-                    String timestamp = parts[4].trim();
-
-                    if (type.equals("Deposit")) {
-                        totalDeposited += amount;
-                    } else if (type.equals("Withdraw")) {
-                        totalWithdrawn += amount;
-                    }
-
-                    rowData.add(new Object[]{
-                            count++,
-                            type,
-                            String.format("%.2f", amount),
-                            String.format("%.2f", totalDeposited),
-                            String.format("%.2f", totalWithdrawn),
-                            String.format("%.2f", balance),
-                            timestamp
-                    });
-                }
-            } catch (FileNotFoundException ex) {
-            } catch (IOException ex) {
-            }
+            int record = store.indexOf(user);
+            String status = DepositorStore.statusText(record >= 0 ? store.status(record) : DepositorStore.ENABLED);
 
-            Object[][] tableData = rowData.toArray(new Object[0][]);
-            JTable table = new JTable(tableData, columnNames);
+            String[] columnNames = { "No.", "Type", "Details", "Amount (₱)", "Total Deposited (₱)", "Total Withdrawn (₱)", "Balance (₱)", "Timestamp" };
+            rows = new DefaultTableModel(columnNames, 0) {
+                @Override
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            };
+            JTable table = new JTable(rows);
             JScrollPane scrollPane = new JScrollPane(table);
 
             JLabel statusLabel = new JLabel();
@@ -251,14 +298,118 @@ public class Admin extends JFrame implements ActionListener {
                 statusLabel.setText("Account Status: ENABLED");
                 statusLabel.setForeground(new Color(0, 128, 0));
             }
+            summaryLabel.setHorizontalAlignment(SwingConstants.CENTER);
+            JPanel top = new JPanel(new GridLayout(2, 1));
+            top.add(statusLabel);
+            top.add(summaryLabel);
+
+            // Date range (yyyy-MM-dd, both days included; blank for no limit) and paging
+            applyButton.addActionListener(e -> applyRange());
+            prevButton.addActionListener(e -> showPage(page - 1, false));
+            nextButton.addActionListener(e -> showPage(page + 1, false));
+            JPanel bottom = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            bottom.add(new JLabel("From (yyyy-MM-dd):"));
+            bottom.add(fromField);
+            bottom.add(new JLabel("To:"));
+            bottom.add(toField);
+            bottom.add(applyButton);
+            bottom.add(prevButton);
+            bottom.add(pageLabel);
+            bottom.add(nextButton);
+            bottom.add(progressBar);
 
             setLayout(new BorderLayout());
-            add(statusLabel, BorderLayout.NORTH);
+            add(top, BorderLayout.NORTH);
             add(scrollPane, BorderLayout.CENTER);
+            add(bottom, BorderLayout.SOUTH);
+
+            summaryLabel.setText("Loading...");
+            showPage(0, true);
+        }
+
+        private void showSummary(TransactionLog.Summary summary) {
+            summaryLabel.setText("Transactions: " + summary.transactions
+                    + "   Deposited: ₱" + Money.format(summary.deposited)
+                    + "   Withdrawn: ₱" + Money.format(summary.withdrawn)
+                    + "   Transfers In: ₱" + Money.format(summary.transferredIn)
+                    + "   Transfers Out: ₱" + Money.format(summary.transferredOut)
+                    + "   Last Activity: " + (summary.lastActivity < 0 ? "-" : LogEntry.formatTime(summary.lastActivity)));
+        }
+
+        private void applyRange() {
+            long newFrom;
+            long newTo;
+            try {
+                newFrom = fromField.getText().trim().isEmpty() ? Long.MIN_VALUE : startOfDay(LocalDate.parse(fromField.getText().trim()));
+                newTo = toField.getText().trim().isEmpty() ? Long.MAX_VALUE : startOfDay(LocalDate.parse(toField.getText().trim()).plusDays(1));
+            } catch (DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(this, "Dates must look like 2025-01-31.", "Input Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if (newTo <= newFrom) {
+                JOptionPane.showMessageDialog(this, "The 'To' date is before the 'From' date.", "Input Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            from = newFrom;
+            to = newTo;
+            showPage(0, true);
+        }
+
+        private long startOfDay(LocalDate date) {
+            return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+
+        // Reads one page of the statement (only its lines come from the log),
+        // and the totals with it, off the EDT; the first read of a large log
+        // builds the index, which the progress bar follows
+        private void showPage(int newPage, boolean withSummary) {
+            long rangeFrom = from;
+            long rangeTo = to;
+            Background.run(busy, () -> {
+                long start = MONITOR_PAGE.start();
+                try {
+                    TransactionLog log = shards().log(user);
+                    TransactionLog.Statement statement = log.statement(user, rangeFrom, rangeTo, Math.max(newPage, 0) * PAGE_SIZE, PAGE_SIZE);
+                    return new MonitorPage(statement, withSummary ? log.summary(user) : null);
+                } finally {
+                    MONITOR_PAGE.stop(start);
+                }
+            }, (read, failure) -> {
+                if (failure != null) {
+                    if (withSummary) summaryLabel.setText("Error reading TransactionLog.txt: " + failure.getMessage());
+                    JOptionPane.showMessageDialog(this, "Error reading TransactionLog.txt: " + failure.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                if (read.summary != null) showSummary(read.summary);
+                showRows(newPage, read.statement);
+            });
+        }
+
+        private void showRows(int newPage, TransactionLog.Statement statement) {
+            int pages = Math.max(1, (statement.total + PAGE_SIZE - 1) / PAGE_SIZE);
+            page = Math.min(Math.max(newPage, 0), pages - 1);
+
+            rows.setRowCount(0);
+            for (TransactionLog.Statement.Row row : statement.rows) {
+                LogEntry entry = row.entry;
+                rows.addRow(new Object[]{
+                        row.number,
+                        entry.type,
+                        entry.counterparty != null ? entry.counterparty : "",
+                        Money.format(entry.amount),
+                        Money.format(row.totalDeposited),
+                        Money.format(row.totalWithdrawn),
+                        Money.format(entry.balance),
+                        entry.displayTime()
+                });
+            }
+            pageLabel.setText("Page " + (page + 1) + " of " + pages + " (" + statement.total + " transactions)");
+            prevButton.setEnabled(page > 0);
+            nextButton.setEnabled(page < pages - 1);
         }
     }
 
-    // Handle enable/disable/delete/refresh/monitor button actions
+    // Handle enable/disable/delete/refresh/monitor/export button actions
     @Override
     public void actionPerformed(ActionEvent e) {
         int selectedRow = depositorTable.getSelectedRow();
@@ -268,59 +419,57 @@ public class Admin extends JFrame implements ActionListener {
                 JOptionPane.showMessageDialog(this, "Please select an account to " + (e.getSource() == enableButton ? "enable" : "disable") + ".", "No Selection", JOptionPane.WARNING_MESSAGE);
                 return;
             }
-            String[] row = depositors.get(depositorTable.convertRowIndexToModel(selectedRow));
+            int modelRow = depositorTable.convertRowIndexToModel(selectedRow);
+            int record = model.recordAt(modelRow);
+            long version = store.recordVersion(record);
+            byte current = store.status(record);
+            byte status;
             if (e.getSource() == enableButton) {
-                if ("Enabled".equalsIgnoreCase(row[5])) {
+                if (current == DepositorStore.ENABLED) {
                     JOptionPane.showMessageDialog(this, "Account is already enabled.");
                     return;
                 }
-                row[5] = "Enabled";
+                status = DepositorStore.ENABLED;
             } else {
-                if ("Disabled".equalsIgnoreCase(row[5])) {
+                if (current == DepositorStore.DISABLED) {
                     JOptionPane.showMessageDialog(this, "Account is already disabled.");
                     return;
                 }
-                row[5] = "Disabled";
+                status = DepositorStore.DISABLED;
             }
-            saveDepositors(depositors);
-            model.setValueAt(row[5], depositorTable.convertRowIndexToModel(selectedRow), 5);
-            JOptionPane.showMessageDialog(this, "Account status updated.");
+            saveStatus(modelRow, status, version, "Account status updated.");
         } else if (e.getSource() == deleteButton) {
             if (selectedRow == -1) {
                 JOptionPane.showMessageDialog(this, "Please select an account to delete.", "No Selection", JOptionPane.WARNING_MESSAGE);
                 return;
             }
             int modelRow = depositorTable.convertRowIndexToModel(selectedRow);
-            String name = (String) model.getValueAt(modelRow, 0);
+            String name = model.nameAt(modelRow);
+            long version = store.recordVersion(model.recordAt(modelRow));
             int confirm = JOptionPane.showConfirmDialog(this, "Are you sure you want to delete the account for '" + name + "'? This cannot be undone.", "Confirm Delete", JOptionPane.YES_NO_OPTION);
             if (confirm == JOptionPane.YES_OPTION) {
-                depositors.remove(modelRow);
-                saveDepositors(depositors);
-                deleteFromBalance(name);
-                deleteFromTransactionLog(name);
-                model.removeRow(modelRow);
-                JOptionPane.showMessageDialog(this, "Account deleted.");
+                saveStatus(modelRow, DepositorStore.DELETED, version, "Account deleted.");
             }
         } else if (e.getSource() == refreshButton) {
-            // Reload data and refresh table
-            depositors = loadDepositors();
-            String[][] tableData = depositors.toArray(new String[0][]);
-            DefaultTableModel newModel = new DefaultTableModel(tableData, columnNames) {
-                @Override
-                public boolean isCellEditable(int row, int column) {
-                    return false;
-                }
-            };
-            depositorTable.setModel(newModel);
-            sorter.setModel(newModel);
-            model = newModel;
+            // Re-read the row index; pages reload as they come into view
+            model.refresh();
+        } else if (e.getSource() == compactButton) {
+            if (compactor.isPausedByUser()) {
+                compactor.resume();
+                compactButton.setText("Pause Compaction");
+            } else {
+                compactor.pause();
+                compactButton.setText("Resume Compaction");
+            }
+        } else if (e.getSource() == exportButton) {
+            exportStatements();
         } else if (e.getSource() == monitorButton) {
             if (selectedRow == -1) {
                 JOptionPane.showMessageDialog(this, "Please select an account to monitor.", "No Selection", JOptionPane.WARNING_MESSAGE);
                 return;
             }
             int modelRow = depositorTable.convertRowIndexToModel(selectedRow);
-            String name = (String) model.getValueAt(modelRow, 0);
+            String name = model.nameAt(modelRow);
             showMonitor(name);
         }
     }
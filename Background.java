@@ -0,0 +1,131 @@
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleSupplier;
+
+// Runs the GUI's file and network work off the Event Dispatch Thread.
+// run() hands the work to a shared executor (virtual threads where the JDK
+// has them) and calls back on the EDT with the result or the failure, so a
+// large log or a slow server never freezes a window. While a window's work
+// is pending its Busy shows a wait cursor, disables the controls that would
+// start more, and runs its progress bar.
+public final class Background {
+    // Progress bars are refreshed this often while work runs
+    private static final int PROGRESS_MS = 100;
+
+    private static final ExecutorService EXECUTOR = newExecutor("background", 8);
+
+    private Background() {
+    }
+
+    // A virtual thread per task if this JDK has them (21+), else a fixed pool
+    // of daemon threads
+    static ExecutorService newExecutor(String name, int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // Runs work off the EDT
+    public static <T> CompletableFuture<T> submit(Callable<T> work) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return work.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    // Runs work off the EDT, then done(result, null) or done(null, failure)
+    // on the EDT. busy (may be null) covers the time in between.
+    public static <T> CompletableFuture<T> run(Busy busy, Callable<T> work, BiConsumer<T, Throwable> done) {
+        if (busy != null) busy.begin();
+        CompletableFuture<T> future = submit(work);
+        future.whenComplete((result, failure) -> SwingUtilities.invokeLater(() -> {
+            if (busy != null) busy.end();
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            done.accept(result, cause);
+        }));
+        return future;
+    }
+
+    // What a window shows while its work runs. Only used on the EDT.
+    public static final class Busy {
+        private final Component window;
+        private final JComponent[] controls;
+        private final boolean[] wasEnabled;
+        private JProgressBar bar;
+        private DoubleSupplier fraction;
+        private javax.swing.Timer timer;
+        private int pending;
+
+        public Busy(Component window, JComponent... controls) {
+            this.window = window;
+            this.controls = controls;
+            this.wasEnabled = new boolean[controls.length];
+        }
+
+        // Shows bar while busy: fraction's value (0..1) when it knows one,
+        // otherwise an indeterminate bar
+        public Busy withProgress(JProgressBar bar, DoubleSupplier fraction) {
+            this.bar = bar;
+            this.fraction = fraction;
+            bar.setVisible(false);
+            bar.setStringPainted(true);
+            return this;
+        }
+
+        public boolean isBusy() {
+            return pending > 0;
+        }
+
+        void begin() {
+            if (pending++ > 0) return;
+            window.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+            for (int i = 0; i < controls.length; i++) {
+                wasEnabled[i] = controls[i].isEnabled();
+                controls[i].setEnabled(false);
+            }
+            if (bar != null) {
+                updateBar();
+                bar.setVisible(true);
+                timer = new javax.swing.Timer(PROGRESS_MS, e -> updateBar());
+                timer.start();
+            }
+        }
+
+        void end() {
+            if (--pending > 0) return;
+            window.setCursor(Cursor.getDefaultCursor());
+            for (int i = 0; i < controls.length; i++) {
+                controls[i].setEnabled(wasEnabled[i]);
+            }
+            if (bar != null) {
+                timer.stop();
+                bar.setVisible(false);
+            }
+        }
+
+        private void updateBar() {
+            double f = fraction != null ? fraction.getAsDouble() : -1;
+            if (f < 0) {
+                bar.setIndeterminate(true);
+                bar.setString("Working...");
+            } else {
+                bar.setIndeterminate(false);
+                bar.setValue((int) (f * 100));
+                bar.setString((int) (f * 100) + "%");
+            }
+        }
+    }
+}
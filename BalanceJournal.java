@@ -0,0 +1,605 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+
+// Append-only balance store. Balance.ckpt is a binary checkpoint of every
+// balance and Balance.journal holds one line per change made since then, so
+// a deposit costs one small append no matter how many depositors exist and
+// startup reads the checkpoint plus a bounded journal. Once the journal grows
+// past COMPACT_THRESHOLD records (or the Compactor runs) it is folded into a
+// new checkpoint. Balances are centavos in a primitive map; reads are
+// optimistic, and callers that update the same account from several threads
+// must serialize those updates themselves (AccountService does this with its
+// per-account locks).
+//
+// Each journal starts with a "Generation: n" line, and the checkpoint is
+// tagged with the newest generation it covers, so a rotated journal left
+// behind by a crash after the checkpoint was written is not replayed again.
+// Balance.txt (the old text snapshot) is only read while no checkpoint exists.
+//
+// Several processes can share these files. Each keeps its own map and reads
+// the records the others append (refresh); since records hold absolute
+// balances, replaying one twice is harmless. Appends hold a shared lock on
+// Balance.lock and rotating the journal an exclusive one; Balance.lock also
+// counts rotations, and a process that sees the count change reloads.
+// AccountService refreshes under the account's record lock (see
+// DepositorStore.lockRecords) before changing a balance, so no terminal works
+// from a stale one.
+public class BalanceJournal {
+    private static final int COMPACT_THRESHOLD = 10000;
+    private static final int MAGIC = 0x42434b31; // "BCK1"
+    private static final String GENERATION = "Generation: ";
+
+    private static final Metrics.Counter BYTES_READ = Metrics.bytesRead("balanceJournal");
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.bytesWritten("balanceJournal");
+
+    private final File snapshotFile;
+    private final File checkpointFile;
+    private final File journalFile;
+    private final File compactingFile;
+    private final File lockFile;
+    private FileChannel lockChannel;
+
+    // Latest balance of every account (snapshot + replayed journal). Lookups
+    // read optimistically or under the read lock; every change, even of one
+    // value in place, takes the write lock so an optimistic read sees it
+    private final AccountBalanceMap balances = new AccountBalanceMap();
+    private final StampedLock mapLock = new StampedLock();
+    private PrintWriter journal;
+    private int journalRecords;
+    private boolean compacting;
+    // Generation of Balance.journal (the next one to be written if it is missing)
+    private long generation;
+    private boolean loaded;
+    // Bytes of Balance.journal applied to the map, and the rotation count
+    // (kept in Balance.lock) of the journal they were read from
+    private long journalRead;
+    private long rotations;
+
+    public BalanceJournal() {
+        this(new File("Balance.txt"), new File("Balance.journal"));
+    }
+
+    public BalanceJournal(File snapshotFile, File journalFile) {
+        this.snapshotFile = snapshotFile;
+        String base = snapshotFile.getPath();
+        if (base.endsWith(".txt")) base = base.substring(0, base.length() - 4);
+        this.checkpointFile = new File(base + ".ckpt");
+        this.journalFile = journalFile;
+        this.compactingFile = new File(journalFile.getPath() + ".compacting");
+        this.lockFile = new File(base + ".lock");
+    }
+
+    // Loads the checkpoint, then replays journal records written after it.
+    // Nothing is written.
+    public synchronized void load() throws IOException {
+        FileLock lock = lockShared();
+        long stamp = mapLock.writeLock();
+        try {
+            loadLocked();
+        } finally {
+            mapLock.unlockWrite(stamp);
+            if (lock != null) lock.release();
+        }
+    }
+
+    private void loadLocked() throws IOException {
+        balances.clear();
+        journalRecords = 0;
+        long covered = 0;
+        if (checkpointFile.exists()) {
+            covered = readCheckpoint();
+        } else {
+            replay(snapshotFile, 0);
+        }
+        // A journal left behind by an interrupted compaction is newer than the
+        // checkpoint unless the checkpoint was written from it
+        journalRecords += replay(compactingFile, covered);
+        // Another process may have rotated a generation not yet checkpointed
+        generation = Math.max(covered, lastGeneration(compactingFile));
+        rotations = readRotations();
+        journalRead = 0;
+        journalRecords += applyTail();
+        long live = firstGeneration(journalFile);
+        generation = live > 0 ? live : generation + 1;
+        loaded = true;
+    }
+
+    // Picks up the records other processes appended since we last looked, or
+    // reloads if one of them rotated the journal. Callers about to change a
+    // balance call this under the account's record lock.
+    public synchronized void refresh() throws IOException {
+        if (!loaded) return;
+        FileLock lock = lockShared();
+        try {
+            refreshLocked();
+        } finally {
+            if (lock != null) lock.release();
+        }
+    }
+
+    private void refreshLocked() throws IOException {
+        if (readRotations() != rotations) {
+            // Rotated by another process's compaction: start over from the checkpoint
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            long stamp = mapLock.writeLock();
+            try {
+                loadLocked();
+            } finally {
+                mapLock.unlockWrite(stamp);
+            }
+            return;
+        }
+        if (journalFile.length() <= journalRead) return;
+        long stamp = mapLock.writeLock();
+        try {
+            journalRecords += applyTail();
+        } finally {
+            mapLock.unlockWrite(stamp);
+        }
+    }
+
+    // Applies the complete records of Balance.journal after journalRead
+    private int applyTail() throws IOException {
+        long length = journalFile.length();
+        if (length <= journalRead) return 0;
+        byte[] bytes;
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "r")) {
+            raf.seek(journalRead);
+            bytes = new byte[(int) Math.min(length - journalRead, raf.length() - journalRead)];
+            raf.readFully(bytes);
+        }
+        BYTES_READ.add(bytes.length);
+        int records = 0;
+        int lineStart = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') continue;
+            String line = new String(bytes, lineStart, i - lineStart);
+            lineStart = i + 1;
+            if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+            if (line.startsWith(GENERATION)) {
+                try {
+                    generation = Math.max(generation, Long.parseLong(line.substring(GENERATION.length()).trim()));
+                } catch (NumberFormatException e) {
+                    // Torn header; the records still apply
+                }
+            } else if (applyRecord(line)) {
+                records++;
+            }
+        }
+        // A partial last line is read again next time
+        journalRead += lineStart;
+        return records;
+    }
+
+    // Loads Balance.ckpt and returns the generation it covers
+    private long readCheckpoint() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile), 1 << 16))) {
+            BYTES_READ.add(checkpointFile.length());
+            if (in.readInt() != MAGIC) throw new IOException(checkpointFile.getName() + " is not a balance checkpoint");
+            long covered = in.readLong();
+            int count = in.readInt();
+            balances.ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                balances.put(name, in.readLong());
+            }
+            return covered;
+        }
+    }
+
+    // Generation on the first line of a journal, or 0 if it has none
+    private static long firstGeneration(File file) throws IOException {
+        if (!file.exists()) return 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line = br.readLine();
+            return line != null && line.startsWith(GENERATION) ? Long.parseLong(line.substring(GENERATION.length()).trim()) : 0;
+        }
+    }
+
+    // Applies the records of the file to the map, skipping generations up to
+    // covered, and returns how many were applied
+    private int replay(File file, long covered) throws IOException {
+        if (!file.exists()) return 0;
+        BYTES_READ.add(file.length());
+        int records = 0;
+        // Lines before any generation line predate checkpoints and always apply
+        long section = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith(GENERATION)) {
+                    try {
+                        section = Long.parseLong(line.substring(GENERATION.length()).trim());
+                    } catch (NumberFormatException e) {
+                        section = 0;
+                    }
+                    generation = Math.max(generation, section);
+                    continue;
+                }
+                if (section != 0 && section <= covered) continue;
+                if (applyRecord(line)) records++;
+            }
+        }
+        return records;
+    }
+
+    // Applies one "Name: x, Balance: y" or "Name: x, Deleted" record
+    private boolean applyRecord(String line) {
+        String name = "";
+        long balance = 0;
+        boolean deleted = false;
+        for (String part : line.split(",")) {
+            part = part.trim();
+            if (part.startsWith("Name:")) {
+                name = part.substring(5).trim();
+            } else if (part.startsWith("Balance:")) {
+                try {
+                    balance = Money.parse(part.substring(8));
+                } catch (NumberFormatException e) {
+                    balance = 0;
+                }
+            } else if (part.equals("Deleted")) {
+                deleted = true;
+            }
+        }
+        if (name.isEmpty()) return false;
+        if (deleted) {
+            balances.remove(name);
+        } else {
+            balances.put(name, balance);
+        }
+        return true;
+    }
+
+    // Balance in centavos, or 0 for an unknown account
+    public long get(String name) {
+        long stamp = mapLock.tryOptimisticRead();
+        long balance = 0;
+        try {
+            balance = balances.get(name, 0);
+        } catch (RuntimeException e) {
+            // Raced with a resize; the validate below fails and we retry under the lock
+        }
+        if (mapLock.validate(stamp)) return balance;
+        stamp = mapLock.readLock();
+        try {
+            return balances.get(name, 0);
+        } finally {
+            mapLock.unlockRead(stamp);
+        }
+    }
+
+    public boolean contains(String name) {
+        long stamp = mapLock.readLock();
+        try {
+            return balances.containsKey(name);
+        } finally {
+            mapLock.unlockRead(stamp);
+        }
+    }
+
+    public Set<String> names() {
+        Set<String> names = new HashSet<>();
+        long stamp = mapLock.readLock();
+        try {
+            balances.forEach((name, balance) -> names.add(name));
+        } finally {
+            mapLock.unlockRead(stamp);
+        }
+        return names;
+    }
+
+    // Records the new balance (centavos) of one account. The map is updated
+    // before the journal so a compaction snapshot always covers the rotated journal.
+    public void put(String name, long balance) throws IOException {
+        StringBuilder record = new StringBuilder(name.length() + 32);
+        record.append("Name: ").append(name).append(", Balance: ");
+        Money.appendTo(record, balance);
+        append(name, balance, false, record.toString());
+    }
+
+    // Records that an account no longer has a balance (used by Admin on delete)
+    public void remove(String name) throws IOException {
+        append(name, 0, true, "Name: " + name + ", Deleted");
+    }
+
+    private synchronized void append(String name, long balance, boolean deleted, String record) throws IOException {
+        FileLock lock = lockShared();
+        try {
+            // Other processes' records first, so ours is the newest in the map too
+            if (loaded) refreshLocked();
+            boolean existed = balances.containsKey(name);
+            long previous = balances.get(name, 0);
+            setInMap(name, balance, deleted);
+            try {
+                appendLocked(record);
+            } catch (IOException e) {
+                // Not on disk, so not in the map either
+                setInMap(name, previous, !existed);
+                throw e;
+            }
+        } finally {
+            if (lock != null) lock.release();
+        }
+        if (journalRecords >= COMPACT_THRESHOLD && !compacting) {
+            startCompaction();
+        }
+    }
+
+    private void setInMap(String name, long balance, boolean deleted) {
+        long stamp = mapLock.writeLock();
+        try {
+            if (deleted) {
+                balances.remove(name);
+            } else {
+                balances.put(name, balance);
+            }
+        } finally {
+            mapLock.unlockWrite(stamp);
+        }
+    }
+
+    private void appendLocked(String record) throws IOException {
+        String text = record + System.lineSeparator();
+        if (journal == null) {
+            boolean created = journalFile.length() == 0;
+            journal = new PrintWriter(new BufferedWriter(new FileWriter(journalFile, true)));
+            if (created) {
+                // Not loaded (e.g. Admin's delete): follow the checkpoint on disk
+                if (generation == 0) generation = checkpointGeneration() + 1;
+                text = GENERATION + generation + System.lineSeparator() + text;
+            }
+        }
+        long before = journalFile.length();
+        journal.print(text);
+        journal.flush();
+        if (journal.checkError()) {
+            journal = null;
+            throw new IOException("Error writing " + journalFile.getName());
+        }
+        long written = text.getBytes().length;
+        BYTES_WRITTEN.add(written);
+        // Skip our own record on the next refresh, unless another process's
+        // record landed next to it (then both are read; ours again is harmless)
+        if (before == journalRead && journalFile.length() == before + written) {
+            journalRead = before + written;
+        }
+        journalRecords++;
+    }
+
+    // Generation covered by the checkpoint on disk, or 0
+    private long checkpointGeneration() {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(checkpointFile))) {
+            return in.readInt() == MAGIC ? in.readLong() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Folds the journal into a new checkpoint now, dropping deleted accounts,
+    // instead of waiting for COMPACT_THRESHOLD. The checkpoint is written on
+    // the calling (compactor) thread at the compactor's pace.
+    public void compact(Compactor compactor) throws IOException, InterruptedException {
+        AccountBalanceMap copy;
+        long covered;
+        synchronized (this) {
+            if (compacting || journalRecords == 0) return;
+            copy = rotate();
+            covered = generation - 1;
+        }
+        try {
+            writeCheckpoint(copy, covered, compactor);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    // Starts an empty store at these balances by writing just a checkpoint
+    // (Reshard moving accounts between shards)
+    public void create(AccountBalanceMap initial) throws IOException {
+        if (checkpointFile.exists() || journalFile.exists() || compactingFile.exists()) {
+            throw new IOException(checkpointFile.getPath() + " already has balances");
+        }
+        try {
+            writeCheckpoint(initial, 1, null);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted writing " + checkpointFile.getName());
+        }
+    }
+
+    // Rotates the journal aside and writes the checkpoint on a background thread
+    private void startCompaction() throws IOException {
+        AccountBalanceMap copy = rotate();
+        long covered = generation - 1;
+        Thread thread = new Thread(() -> {
+            try {
+                writeCheckpoint(copy, covered, null);
+            } catch (IOException | InterruptedException e) {
+                // The rotated journal stays on disk and is replayed on the next load
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        }, "balance-compactor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Moves the journal aside (the next append starts a new generation) and
+    // returns a copy of the balances it leads to. Holds the exclusive lock, so
+    // no other process is appending to the journal being moved.
+    private AccountBalanceMap rotate() throws IOException {
+        FileLock lock = lockExclusive();
+        try {
+            return rotateLocked();
+        } finally {
+            if (lock != null) lock.release();
+        }
+    }
+
+    private AccountBalanceMap rotateLocked() throws IOException {
+        if (loaded) refreshLocked();
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (!journalFile.exists()) {
+            // Only a rotated journal left over from an interrupted compaction
+        } else if (compactingFile.exists()) {
+            // Previous compaction never finished; keep its records ahead of ours
+            try (OutputStream out = new FileOutputStream(compactingFile, true)) {
+                Files.copy(journalFile.toPath(), out);
+            }
+            Files.delete(journalFile.toPath());
+        } else {
+            Files.move(journalFile.toPath(), compactingFile.toPath());
+        }
+        journalRecords = 0;
+        journalRead = 0;
+        rotations = readRotations() + 1;
+        writeRotations(rotations);
+        generation++;
+        compacting = true;
+        long stamp = mapLock.writeLock();
+        try {
+            return balances.copy();
+        } finally {
+            mapLock.unlockWrite(stamp);
+        }
+    }
+
+    // Writes Balance.ckpt through a temp file, then drops the rotated journal
+    private void writeCheckpoint(AccountBalanceMap copy, long covered, Compactor compactor) throws IOException, InterruptedException {
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeLong(covered);
+            out.writeInt(copy.size());
+            long[] pending = new long[1];
+            Exception[] failure = new Exception[1];
+            copy.forEach((name, balance) -> {
+                if (failure[0] != null) return;
+                try {
+                    out.writeUTF(name);
+                    out.writeLong(balance);
+                    pending[0] += name.length() + 10;
+                    if (compactor != null && pending[0] >= 64 * 1024) {
+                        compactor.throttle(pending[0]);
+                        pending[0] = 0;
+                    }
+                } catch (IOException | InterruptedException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] instanceof InterruptedException) throw (InterruptedException) failure[0];
+            if (failure[0] != null) throw (IOException) failure[0];
+            out.flush();
+            file.getFD().sync();
+            BYTES_WRITTEN.add(out.size());
+        }
+        FileLock lock = lockExclusive();
+        try {
+            if (checkpointGeneration() >= covered) {
+                // Another process already checkpointed past us
+                Files.delete(tmp.toPath());
+                return;
+            }
+            Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // Another process may have rotated newer records into it meanwhile
+            if (lastGeneration(compactingFile) <= covered) {
+                Files.deleteIfExists(compactingFile.toPath());
+            }
+        } finally {
+            if (lock != null) lock.release();
+        }
+    }
+
+    // Highest generation header in a journal, or 0
+    private static long lastGeneration(File file) throws IOException {
+        if (!file.exists()) return 0;
+        long last = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.startsWith(GENERATION)) continue;
+                try {
+                    last = Math.max(last, Long.parseLong(line.substring(GENERATION.length()).trim()));
+                } catch (NumberFormatException e) {
+                    // Torn header
+                }
+            }
+        }
+        return last;
+    }
+
+    private FileChannel lockChannel() throws IOException {
+        if (lockChannel == null) {
+            lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return lockChannel;
+    }
+
+    // Shared lock held while appending, or null if this JVM already holds one
+    private synchronized FileLock lockShared() throws IOException {
+        try {
+            return lockChannel().lock(0, 1, true);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    // Exclusive lock held while rotating the journal or replacing the checkpoint
+    private synchronized FileLock lockExclusive() throws IOException {
+        try {
+            return lockChannel().lock(0, 1, false);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    // Journal rotations so far, from Balance.lock (0 for a new file)
+    private long readRotations() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        FileChannel channel = lockChannel();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) return 0;
+        }
+        return buffer.getLong(0);
+    }
+
+    private void writeRotations(long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8).putLong(0, count);
+        FileChannel channel = lockChannel();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    public synchronized void close() {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (lockChannel != null) {
+            try {
+                lockChannel.close();
+            } catch (IOException e) {
+                // Ignore error for now
+            }
+            lockChannel = null;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Thin client for a BankServer (see there for the protocol). Keeps the
+// session token of every user logged in through it, so one client can act
+// for one GUI user or for a whole load test. A money operation that cannot
+// reach the server reports STORAGE_ERROR, the same way the GUI treats a
+// file it cannot write; the other calls throw UncheckedIOException, so an
+// outage never reads as a zero balance or a missing account.
+public class BankClient implements Accounts {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final URI base;
+    private final HttpClient http;
+    private final Map<String, String> tokens = new ConcurrentHashMap<>();
+
+    // address is "host:port"
+    public BankClient(String address) {
+        this.base = URI.create("http://" + address + "/");
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(TIMEOUT)
+                .build();
+    }
+
+    @Override
+    public AccountService.Login login(String user, String pin) {
+        Map<String, List<String>> reply = call("POST", "login", null, "user", user, "pin", pin);
+        String token = first(reply, "token");
+        if (token == null) {
+            String result = first(reply, "result");
+            if (AccountService.Login.ACCOUNT_DISABLED.name().equals(result)) return AccountService.Login.ACCOUNT_DISABLED;
+            if (AccountService.Login.TOO_MANY_ATTEMPTS.name().equals(result)) return AccountService.Login.TOO_MANY_ATTEMPTS;
+            return AccountService.Login.INVALID_CREDENTIALS;
+        }
+        tokens.put(user, token);
+        return AccountService.Login.OK;
+    }
+
+    @Override
+    public void logout(String user) {
+        String token = tokens.remove(user);
+        if (token != null) call("POST", "logout", token);
+    }
+
+    @Override
+    public boolean exists(String user) {
+        return "true".equals(first(call("GET", "account", anyToken(), "user", user), "exists"));
+    }
+
+    @Override
+    public boolean isDisabled(String user) {
+        return "true".equals(first(call("GET", "account", anyToken(), "user", user), "disabled"));
+    }
+
+    @Override
+    public long getBalance(String user) {
+        Map<String, List<String>> reply = call("GET", "balance", tokens.get(user));
+        String balance = first(reply, "balance");
+        try {
+            if (balance != null) return Money.parse(balance);
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new UncheckedIOException(new IOException("Balance refused: " + first(reply, "result")));
+    }
+
+    @Override
+    public AccountService.Result deposit(String user, long amount) {
+        return result("POST", "deposit", tokens.get(user), "amount", Money.format(amount));
+    }
+
+    @Override
+    public AccountService.Result withdraw(String user, long amount) {
+        return result("POST", "withdraw", tokens.get(user), "amount", Money.format(amount));
+    }
+
+    @Override
+    public AccountService.Result transfer(String sender, String recipient, long amount) {
+        if (sender.equalsIgnoreCase(recipient)) return AccountService.Result.SAME_ACCOUNT;
+        return result("POST", "transfer", tokens.get(sender), "to", recipient, "amount", Money.format(amount));
+    }
+
+    @Override
+    public TransactionLog.Statement statement(String user, long fromMillis, long toMillis, int skip, int limit) throws IOException {
+        Map<String, List<String>> reply;
+        try {
+            reply = call("GET", "statement", tokens.get(user),
+                    "from", String.valueOf(fromMillis), "to", String.valueOf(toMillis),
+                    "skip", String.valueOf(skip), "limit", String.valueOf(limit));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (result(reply) != AccountService.Result.OK) throw new IOException("Statement refused: " + first(reply, "result"));
+        List<TransactionLog.Statement.Row> rows = new ArrayList<>();
+        for (String row : reply.getOrDefault("row", Collections.emptyList())) {
+            String[] parts = row.split(",", 4);
+            LogEntry entry = parts.length == 4 ? LogEntry.parse(parts[3]) : null;
+            if (entry == null) continue;
+            rows.add(new TransactionLog.Statement.Row(Integer.parseInt(parts[0]), entry, Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+        }
+        return new TransactionLog.Statement(Integer.parseInt(first(reply, "total")), rows);
+    }
+
+    // The server has no change notifications; a disabled or deleted account
+    // shows up as a refused call instead
+    @Override
+    public void addChangeListener(Consumer<String> listener) {
+    }
+
+    @Override
+    public void removeChangeListener(Consumer<String> listener) {
+    }
+
+    // Any session will do for the recipient checks
+    private String anyToken() {
+        Iterator<String> it = tokens.values().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    // A money operation; STORAGE_ERROR if the server could not be reached
+    private AccountService.Result result(String method, String path, String token, String... params) {
+        try {
+            return result(call(method, path, token, params));
+        } catch (UncheckedIOException e) {
+            return AccountService.Result.STORAGE_ERROR;
+        }
+    }
+
+    private static AccountService.Result result(Map<String, List<String>> reply) {
+        String result = first(reply, "result");
+        if (result == null) return AccountService.Result.STORAGE_ERROR;
+        try {
+            return AccountService.Result.valueOf(result);
+        } catch (IllegalArgumentException e) {
+            return AccountService.Result.STORAGE_ERROR;
+        }
+    }
+
+    private static String first(Map<String, List<String>> reply, String key) {
+        List<String> values = reply.get(key);
+        return values == null ? null : values.get(0);
+    }
+
+    // Sends one request and returns its "key=value" lines; throws
+    // UncheckedIOException if the server could not be reached
+    private Map<String, List<String>> call(String method, String path, String token, String... params) {
+        StringBuilder form = new StringBuilder();
+        for (int i = 0; i + 1 < params.length; i += 2) {
+            if (form.length() > 0) form.append('&');
+            form.append(URLEncoder.encode(params[i], StandardCharsets.UTF_8)).append('=')
+                    .append(URLEncoder.encode(params[i + 1], StandardCharsets.UTF_8));
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder().timeout(TIMEOUT);
+        if (method.equals("GET")) {
+            request.uri(base.resolve(form.length() == 0 ? path : path + "?" + form)).GET();
+        } else {
+            request.uri(base.resolve(path))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString(form.toString()));
+        }
+        if (token != null) request.header("Authorization", "Bearer " + token);
+        Map<String, List<String>> reply = new HashMap<>();
+        try {
+            String body = http.send(request.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)).body();
+            for (String line : body.split("\n")) {
+                int eq = line.indexOf('=');
+                if (eq <= 0) continue;
+                reply.computeIfAbsent(line.substring(0, eq), k -> new ArrayList<>()).add(line.substring(eq + 1));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for " + path));
+        }
+        return reply;
+    }
+}
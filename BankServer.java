@@ -0,0 +1,440 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Server mode: one process owns the ledger (an AccountService over the usual
+// files) and serves the AccountGUI operations over HTTP, so any number of
+// terminals share one set of balances instead of each opening the files.
+// BankClient is the other end; LoginPage uses it with --server.
+//
+//   POST /login      user, pin           -> result, token
+//   POST /logout
+//   GET  /account    user                -> exists, disabled
+//   GET  /balance                        -> balance
+//   POST /deposit    amount              -> result
+//   POST /withdraw   amount              -> result
+//   POST /transfer   to, amount          -> result
+//   GET  /statement  from, to, skip, limit -> total, row...
+//
+// Parameters are form-encoded (query string or POST body), amounts are
+// "1234.56" text as in the dialogs, times are epoch millis. Every call but
+// /login needs "Authorization: Bearer <token>". Responses are text/plain
+// "key=value" lines; a statement row is "row=number,deposited,withdrawn,"
+// followed by the log line. Rejections come back as 200 with their result,
+// a missing or ended session as 401 with result=SESSION_EXPIRED.
+//
+// PINs are short, so after a few wrong ones in a row a user's next login
+// must wait, twice as long after every further miss (429 with
+// result=TOO_MANY_ATTEMPTS meanwhile). The traffic is plain HTTP, so the
+// server only binds to a loopback address unless --allow-remote is given.
+//
+// Requests run on virtual threads where the JDK has them (21+), otherwise on
+// a fixed pool of --threads platform threads.
+public class BankServer {
+    private static final int DEFAULT_PORT = 8642;
+    private static final int DEFAULT_THREADS = 256;
+    private static final int MAX_BODY = 64 * 1024;
+    private static final int MAX_STATEMENT_ROWS = 1000;
+    // Sessions idle this long are dropped
+    private static final long SESSION_IDLE_MILLIS = 30 * 60 * 1000L;
+    // Logging in again beyond this many sessions ends the user's oldest
+    private static final int SESSIONS_PER_USER = 8;
+    // Wrong PINs in a row before logins are held back, the first wait and
+    // the longest one
+    private static final int FREE_LOGIN_FAILURES = 3;
+    private static final long LOGIN_BACKOFF_MILLIS = 1000;
+    private static final long MAX_LOGIN_BACKOFF_MILLIS = 15 * 60 * 1000L;
+
+    private static final Metrics.Timer REQUEST = Metrics.timer("serverRequest");
+    private static final Metrics.Counter SESSIONS_OPENED = Metrics.counter("serverSessionsOpened");
+
+    // A logged-in terminal
+    private static final class Session {
+        final String token;
+        final String user;
+        volatile long lastUsed;
+
+        Session(String token, String user) {
+            this.token = token;
+            this.user = user;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    // One user's recent wrong PINs. Logins still running count as wrong
+    // until they finish, so a burst of parallel guesses is held back too.
+    private static final class LoginFailures {
+        int failures;
+        int pending;
+        long retryAt;
+        long lastFailure;
+    }
+
+    // An endpoint: reads its parameters, writes "key=value" lines, returns the HTTP status
+    private interface Endpoint {
+        int handle(Session session, Map<String, String> params, StringBuilder out) throws IOException;
+    }
+
+    private final AccountService accounts;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService sweeper;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    // Tokens of each user's sessions, oldest first
+    private final Map<String, Deque<String>> userSessions = new ConcurrentHashMap<>();
+    private final Map<String, LoginFailures> loginFailures = new ConcurrentHashMap<>();
+
+    public BankServer(AccountService accounts, InetSocketAddress address, int threads) throws IOException {
+        this.accounts = accounts;
+        this.executor = Background.newExecutor("bank-server", threads);
+        this.server = HttpServer.create(address, 1024);
+        server.setExecutor(executor);
+        server.createContext("/login", exchange -> serve(exchange, "POST", false, this::login));
+        server.createContext("/logout", exchange -> serve(exchange, "POST", true, this::logout));
+        server.createContext("/account", exchange -> serve(exchange, "GET", true, this::account));
+        server.createContext("/balance", exchange -> serve(exchange, "GET", true, this::balance));
+        server.createContext("/deposit", exchange -> serve(exchange, "POST", true, this::deposit));
+        server.createContext("/withdraw", exchange -> serve(exchange, "POST", true, this::withdraw));
+        server.createContext("/transfer", exchange -> serve(exchange, "POST", true, this::transfer));
+        server.createContext("/statement", exchange -> serve(exchange, "GET", true, this::statement));
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        server.start();
+        sweeper.scheduleWithFixedDelay(this::dropIdleSessions, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        server.stop(1);
+        sweeper.shutdownNow();
+        executor.shutdown();
+    }
+
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    private void serve(HttpExchange exchange, String method, boolean needsSession, Endpoint endpoint) throws IOException {
+        long start = REQUEST.start();
+        StringBuilder out = new StringBuilder(64);
+        int status;
+        try {
+            Session session = null;
+            if (!exchange.getRequestMethod().equals(method)) {
+                status = 405;
+            } else if (needsSession && (session = session(exchange)) == null) {
+                out.append("result=").append(AccountService.Result.SESSION_EXPIRED).append('\n');
+                status = 401;
+            } else {
+                Map<String, String> params = params(exchange);
+                status = params == null ? 413 : endpoint.handle(session, params, out);
+            }
+        } catch (IOException | RuntimeException e) {
+            out.setLength(0);
+            out.append("result=").append(AccountService.Result.STORAGE_ERROR).append('\n');
+            status = 500;
+        }
+        byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+        exchange.close();
+        REQUEST.stop(start);
+    }
+
+    // The caller's live session, or null. Ends the user's sessions once the
+    // account is deleted or disabled, as AccountGUI logs out.
+    private Session session(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) return null;
+        Session session = sessions.get(header.substring(7).trim());
+        if (session == null) return null;
+        long now = System.currentTimeMillis();
+        if (now - session.lastUsed > SESSION_IDLE_MILLIS) {
+            endSession(session);
+            return null;
+        }
+        if (!accounts.exists(session.user) || accounts.isDisabled(session.user)) {
+            endSessions(session.user);
+            return null;
+        }
+        session.lastUsed = now;
+        return session;
+    }
+
+    // Query string and form body together; null if the body is too large
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY + 1);
+            if (body.length > MAX_BODY) return null;
+            parseForm(new String(body, StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    static void parseForm(String form, Map<String, String> into) {
+        if (form == null || form.isEmpty()) return;
+        for (String pair : form.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            into.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    private int login(Session none, Map<String, String> params, StringBuilder out) {
+        String user = params.getOrDefault("user", "").trim();
+        String pin = params.getOrDefault("pin", "").trim();
+        if (user.isEmpty() || pin.isEmpty()) {
+            out.append("result=").append(AccountService.Login.INVALID_CREDENTIALS).append('\n');
+            return 400;
+        }
+        LoginFailures failures = loginFailures.computeIfAbsent(user, u -> new LoginFailures());
+        if (!startLogin(failures)) {
+            out.append("result=").append(AccountService.Login.TOO_MANY_ATTEMPTS).append('\n');
+            return 429;
+        }
+        AccountService.Login result = AccountService.Login.INVALID_CREDENTIALS;
+        try {
+            result = accounts.login(user, pin);
+        } finally {
+            endLogin(failures, result == AccountService.Login.INVALID_CREDENTIALS);
+        }
+        out.append("result=").append(result).append('\n');
+        if (result == AccountService.Login.OK) {
+            out.append("token=").append(openSession(user).token).append('\n');
+        }
+        return 200;
+    }
+
+    // False while the user has to wait after wrong PINs
+    private static boolean startLogin(LoginFailures f) {
+        long now = System.currentTimeMillis();
+        synchronized (f) {
+            if (now < f.retryAt) return false;
+            f.pending++;
+            f.retryAt = now + loginBackoff(f.failures + f.pending);
+            return true;
+        }
+    }
+
+    private static void endLogin(LoginFailures f, boolean failed) {
+        long now = System.currentTimeMillis();
+        synchronized (f) {
+            f.pending--;
+            if (failed) {
+                f.failures++;
+                f.lastFailure = now;
+            } else {
+                f.failures = 0;
+            }
+            f.retryAt = f.lastFailure + loginBackoff(f.failures + f.pending);
+        }
+    }
+
+    private static long loginBackoff(int failures) {
+        if (failures <= FREE_LOGIN_FAILURES) return 0;
+        return Math.min(MAX_LOGIN_BACKOFF_MILLIS, LOGIN_BACKOFF_MILLIS << Math.min(failures - FREE_LOGIN_FAILURES - 1, 20));
+    }
+
+    private int logout(Session session, Map<String, String> params, StringBuilder out) {
+        endSession(session);
+        out.append("result=").append(AccountService.Result.OK).append('\n');
+        return 200;
+    }
+
+    // The transfer dialog's recipient checks
+    private int account(Session session, Map<String, String> params, StringBuilder out) {
+        String user = params.getOrDefault("user", "").trim();
+        out.append("exists=").append(accounts.exists(user)).append('\n');
+        out.append("disabled=").append(accounts.isDisabled(user)).append('\n');
+        return 200;
+    }
+
+    private int balance(Session session, Map<String, String> params, StringBuilder out) {
+        out.append("balance=");
+        Money.appendTo(out, accounts.getBalance(session.user));
+        out.append('\n');
+        return 200;
+    }
+
+    private int deposit(Session session, Map<String, String> params, StringBuilder out) {
+        long amount = amount(params);
+        return result(amount <= 0 ? AccountService.Result.INVALID_AMOUNT : accounts.deposit(session.user, amount), out);
+    }
+
+    private int withdraw(Session session, Map<String, String> params, StringBuilder out) {
+        long amount = amount(params);
+        return result(amount <= 0 ? AccountService.Result.INVALID_AMOUNT : accounts.withdraw(session.user, amount), out);
+    }
+
+    private int transfer(Session session, Map<String, String> params, StringBuilder out) {
+        String to = params.getOrDefault("to", "").trim();
+        long amount = amount(params);
+        if (to.isEmpty()) return result(AccountService.Result.NO_SUCH_ACCOUNT, out);
+        return result(amount <= 0 ? AccountService.Result.INVALID_AMOUNT : accounts.transfer(session.user, to, amount), out);
+    }
+
+    private int statement(Session session, Map<String, String> params, StringBuilder out) throws IOException {
+        long from;
+        long to;
+        int skip;
+        int limit;
+        try {
+            from = Long.parseLong(params.getOrDefault("from", String.valueOf(Long.MIN_VALUE)));
+            to = Long.parseLong(params.getOrDefault("to", String.valueOf(Long.MAX_VALUE)));
+            skip = Integer.parseInt(params.getOrDefault("skip", "0"));
+            limit = Math.min(Integer.parseInt(params.getOrDefault("limit", "100")), MAX_STATEMENT_ROWS);
+        } catch (NumberFormatException e) {
+            out.append("result=").append(AccountService.Result.INVALID_AMOUNT).append('\n');
+            return 400;
+        }
+        TransactionLog.Statement statement = accounts.statement(session.user, from, to, skip, limit);
+        out.append("result=").append(AccountService.Result.OK).append('\n');
+        out.append("total=").append(statement.total).append('\n');
+        for (TransactionLog.Statement.Row row : statement.rows) {
+            out.append("row=").append(row.number).append(',').append(row.totalDeposited).append(',')
+                    .append(row.totalWithdrawn).append(',').append(row.entry.toLine()).append('\n');
+        }
+        return 200;
+    }
+
+    // The amount in centavos, or 0 if it is not a valid amount
+    private static long amount(Map<String, String> params) {
+        try {
+            return Money.parse(params.getOrDefault("amount", ""));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int result(AccountService.Result result, StringBuilder out) {
+        out.append("result=").append(result).append('\n');
+        return 200;
+    }
+
+    private Session openSession(String user) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(32);
+        for (byte b : bytes) token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        Session session = new Session(token.toString(), user);
+        sessions.put(session.token, session);
+        Deque<String> tokens = userSessions.computeIfAbsent(user, u -> new ArrayDeque<>());
+        String oldest = null;
+        synchronized (tokens) {
+            tokens.addLast(session.token);
+            if (tokens.size() > SESSIONS_PER_USER) oldest = tokens.pollFirst();
+        }
+        if (oldest != null) sessions.remove(oldest);
+        SESSIONS_OPENED.add(1);
+        return session;
+    }
+
+    private void endSession(Session session) {
+        sessions.remove(session.token);
+        Deque<String> tokens = userSessions.get(session.user);
+        if (tokens == null) return;
+        synchronized (tokens) {
+            tokens.remove(session.token);
+        }
+    }
+
+    private void endSessions(String user) {
+        Deque<String> tokens = userSessions.remove(user);
+        if (tokens == null) return;
+        synchronized (tokens) {
+            for (String token : tokens) sessions.remove(token);
+        }
+    }
+
+    private void dropIdleSessions() {
+        long cutoff = System.currentTimeMillis() - SESSION_IDLE_MILLIS;
+        for (Session session : sessions.values()) {
+            if (session.lastUsed < cutoff) endSession(session);
+        }
+        // Forgets wrong PINs once their longest wait is over
+        long forget = System.currentTimeMillis() - MAX_LOGIN_BACKOFF_MILLIS;
+        loginFailures.values().removeIf(f -> {
+            synchronized (f) {
+                return f.pending == 0 && f.lastFailure < forget;
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        String bind = "127.0.0.1";
+        int port = DEFAULT_PORT;
+        int threads = DEFAULT_THREADS;
+        boolean allowRemote = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                switch (args[i]) {
+                    case "--bind": bind = Objects.requireNonNull(value); i++; break;
+                    case "--port": port = Integer.parseInt(value); i++; break;
+                    case "--threads": threads = Integer.parseInt(value); i++; break;
+                    case "--allow-remote": allowRemote = true; break;
+                    default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            if (port < 0 || threads < 1) throw new IllegalArgumentException("Bad port or thread count");
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: BankServer [--bind <address>] [--allow-remote] [--port <n>] [--threads <n>]");
+            System.exit(2);
+            return;
+        }
+        if (!allowRemote && !InetAddress.getByName(bind).isLoopbackAddress()) {
+            System.err.println("PINs travel as plain HTTP; pass --allow-remote to listen on " + bind + " anyway.");
+            System.exit(2);
+        }
+
+        Shards shards = Shards.open();
+        AccountService accounts = new AccountService(null, shards);
+        accounts.loadCredentials();
+        accounts.loadBalances();
+        Compactor compactor = new Compactor();
+        compactor.add("balances", accounts::compactBalances);
+        compactor.start();
+
+        BankServer server = new BankServer(accounts, new InetSocketAddress(bind, port), threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            compactor.stop();
+            shards.close();
+        }, "bank-server-shutdown"));
+        server.start();
+        InetSocketAddress address = server.address();
+        System.out.println("Serving on http://" + address.getHostString() + ":" + address.getPort() + "/");
+    }
+}
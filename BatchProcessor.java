@@ -0,0 +1,254 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// Command-line bulk mode for nightly feeds: streams a file of operations
+// through AccountService without the GUI, one line per operation:
+//   deposit,<user>,<amount>
+//   withdraw,<user>,<amount>
+//   transfer,<from>,<to>,<amount>
+// Blank lines and lines starting with # are skipped.
+//
+// Each account belongs to one worker (by hash), and the reader hands every
+// operation to its account's worker in file order, so operations on the
+// same account run in order. A transfer between two workers is queued on
+// both; the first worker to reach it waits and the second runs it, which
+// keeps it in order for both accounts. Since one reader queues everything,
+// all workers see shared transfers in the same order and cannot deadlock.
+// If an operation throws, the run stops reading and every worker drains
+// its queue without applying anything more, so nobody waits on a worker
+// that is gone.
+//
+// Balances and log lines go through the usual BalanceJournal and
+// TransactionLog of each account's shard; the logs are synced in groups and
+// once more at the end.
+public class BatchProcessor {
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    // One parsed line
+    private static final class Op {
+        final long line;
+        final char kind; // 'D', 'W' or 'T'
+        final String user;
+        final String recipient;
+        final long amount;
+        // Set for transfers queued on two workers: the second to arrive runs it
+        final AtomicInteger arrivals;
+        final CountDownLatch done;
+
+        Op(long line, char kind, String user, String recipient, long amount, boolean shared) {
+            this.line = line;
+            this.kind = kind;
+            this.user = user;
+            this.recipient = recipient;
+            this.amount = amount;
+            this.arrivals = shared ? new AtomicInteger(2) : null;
+            this.done = shared ? new CountDownLatch(1) : null;
+        }
+    }
+
+    // Tells a worker the input has ended
+    private static final Op END = new Op(0, 'E', null, null, 0, false);
+
+    private final AccountService accounts;
+    private final int workers;
+    private final Map<AccountService.Result, LongAdder> results = new EnumMap<>(AccountService.Result.class);
+    private final LongAdder malformed = new LongAdder();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    // The first operation that threw, which ends the run
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public BatchProcessor(AccountService accounts, int workers) {
+        if (workers < 1) throw new IllegalArgumentException("Need at least one worker: " + workers);
+        this.accounts = accounts;
+        this.workers = workers;
+        for (AccountService.Result result : AccountService.Result.values()) {
+            results.put(result, new LongAdder());
+        }
+    }
+
+    // Applies every operation read from in; returns the number of lines processed
+    public long run(BufferedReader in) throws IOException, InterruptedException {
+        List<BlockingQueue<Op>> queues = new ArrayList<>(workers);
+        List<Thread> threads = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            BlockingQueue<Op> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            queues.add(queue);
+            Thread t = new Thread(() -> work(queue), "batch-worker-" + (i + 1));
+            threads.add(t);
+            t.start();
+        }
+
+        long lineNumber = 0;
+        long operations = 0;
+        try {
+            String line;
+            while (failure.get() == null && (line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                operations++;
+                Op op = parse(lineNumber, line);
+                if (op == null) continue;
+                int first = partition(op.user);
+                queues.get(first).put(op);
+                if (op.arrivals != null) {
+                    queues.get(partition(op.recipient)).put(op);
+                }
+            }
+        } finally {
+            for (BlockingQueue<Op> queue : queues) queue.put(END);
+            for (Thread t : threads) t.join();
+        }
+        if (failure.get() != null) throw new IOException("Batch worker failed", failure.get());
+        return operations;
+    }
+
+    private Op parse(long lineNumber, String line) {
+        String[] parts = line.split(",");
+        for (int i = 0; i < parts.length; i++) parts[i] = parts[i].trim();
+        try {
+            switch (parts[0].toLowerCase(Locale.ROOT)) {
+                case "deposit":
+                    if (parts.length == 3) return new Op(lineNumber, 'D', parts[1], null, Money.parse(parts[2]), false);
+                    break;
+                case "withdraw":
+                    if (parts.length == 3) return new Op(lineNumber, 'W', parts[1], null, Money.parse(parts[2]), false);
+                    break;
+                case "transfer":
+                    if (parts.length == 4) {
+                        boolean shared = partition(parts[1]) != partition(parts[2]);
+                        return new Op(lineNumber, 'T', parts[1], parts[2], Money.parse(parts[3]), shared);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        malformed.increment();
+        reportError("Line " + lineNumber + ": cannot parse \"" + line + "\"");
+        return null;
+    }
+
+    private int partition(String user) {
+        int h = user.hashCode();
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % workers;
+    }
+
+    private void work(BlockingQueue<Op> queue) {
+        try {
+            while (true) {
+                Op op = queue.take();
+                if (op == END) return;
+                if (op.arrivals != null && op.arrivals.decrementAndGet() > 0) {
+                    // The recipient's (or sender's) worker runs it once it gets there
+                    op.done.await();
+                    continue;
+                }
+                try {
+                    if (failure.get() == null) apply(op);
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    if (op.done != null) op.done.countDown();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void apply(Op op) {
+        AccountService.Result result;
+        switch (op.kind) {
+            case 'D':
+                result = accounts.deposit(op.user, op.amount);
+                break;
+            case 'W':
+                result = accounts.withdraw(op.user, op.amount);
+                break;
+            default:
+                result = accounts.transfer(op.user, op.recipient, op.amount);
+                break;
+        }
+        results.get(result).increment();
+        if (result != AccountService.Result.OK) {
+            reportError("Line " + op.line + ": " + result);
+        }
+    }
+
+    private void reportError(String message) {
+        if (errors.size() < MAX_REPORTED_ERRORS) errors.add(message);
+    }
+
+    public long count(AccountService.Result result) {
+        return results.get(result).sum();
+    }
+
+    public long malformed() {
+        return malformed.sum();
+    }
+
+    // Operations per result, malformed lines and the first few rejections
+    public void printReport(PrintStream out, long operations, long nanos) {
+        double seconds = nanos / 1e9;
+        out.printf("Processed %d operations in %.1f s (%.0f ops/s) on %d workers%n",
+                operations, seconds, seconds > 0 ? operations / seconds : 0.0, workers);
+        for (AccountService.Result result : AccountService.Result.values()) {
+            long n = count(result);
+            if (n > 0 || result == AccountService.Result.OK) out.printf("  %-20s %12d%n", result, n);
+        }
+        if (malformed() > 0) out.printf("  %-20s %12d%n", "MALFORMED", malformed());
+        synchronized (errors) {
+            if (!errors.isEmpty()) {
+                out.println("First rejections:");
+                for (String error : errors) out.println("  " + error);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int workers = Runtime.getRuntime().availableProcessors();
+        String input = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                workers = Integer.parseInt(args[++i]);
+            } else if (input == null) {
+                input = args[i];
+            } else {
+                input = null;
+                break;
+            }
+        }
+        if (input == null) {
+            System.err.println("Usage: BatchProcessor [--threads <n>] <operations.csv>");
+            System.exit(2);
+        }
+
+        Shards shards = Shards.open();
+        AccountService accounts = new AccountService(null, shards);
+        accounts.loadCredentials();
+        accounts.loadBalances();
+        accounts.setWaitForLog(false);
+
+        BatchProcessor batch = new BatchProcessor(accounts, workers);
+        long start = System.nanoTime();
+        long operations;
+        try (BufferedReader in = new BufferedReader(new FileReader(input), 1 << 16)) {
+            operations = batch.run(in);
+        } finally {
+            // Writes and syncs the log lines still queued
+            shards.close();
+        }
+        batch.printReport(System.out, operations, System.nanoTime() - start);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.*;
+
+// Background thread that reclaims the space held by deleted accounts and old
+// journal records. Each process registers the stores it writes (Admin: the
+// transaction log, LoginPage: the balance journal) and the thread runs them
+// every -Dbank.compact.interval seconds (default 300). Steps call throttle()
+// for every chunk they copy, which holds them to -Dbank.compact.rate bytes
+// per second (default 4 MB, 0 = unlimited) and blocks while compaction is
+// paused, either by pause() or during -Dbank.compact.pause=HH:mm-HH:mm
+// (e.g. 09:00-17:00 to stay out of business hours).
+public class Compactor {
+    // One store's compaction; see throttle()
+    public interface Step {
+        void run(Compactor compactor) throws IOException, InterruptedException;
+    }
+
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+    private final long intervalMillis;
+    private final long bytesPerSecond;
+    private final LocalTime pauseFrom;
+    private final LocalTime pauseUntil;
+
+    private Thread thread;
+    private boolean paused;
+    // Pacing window for the rate limit
+    private long windowStart;
+    private long windowBytes;
+
+    public Compactor() {
+        this(Long.getLong("bank.compact.interval", 300) * 1000, Long.getLong("bank.compact.rate", 4L << 20),
+                System.getProperty("bank.compact.pause", ""));
+    }
+
+    public Compactor(long intervalMillis, long bytesPerSecond, String pauseWindow) {
+        this.intervalMillis = intervalMillis;
+        this.bytesPerSecond = bytesPerSecond;
+        LocalTime from = null, until = null;
+        if (!pauseWindow.trim().isEmpty()) {
+            String[] parts = pauseWindow.trim().split("-");
+            if (parts.length != 2) throw new IllegalArgumentException("Pause window must be HH:mm-HH:mm: " + pauseWindow);
+            from = LocalTime.parse(parts[0].trim());
+            until = LocalTime.parse(parts[1].trim());
+        }
+        this.pauseFrom = from;
+        this.pauseUntil = until;
+    }
+
+    public synchronized void add(String name, Step step) {
+        steps.put(name, step);
+    }
+
+    public synchronized void start() {
+        if (thread != null) return;
+        thread = new Thread(this::runLoop, "compactor");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    // Runs every step once now (still paced and pausable)
+    public void runNow() throws InterruptedException {
+        List<Map.Entry<String, Step>> toRun;
+        synchronized (this) {
+            toRun = new ArrayList<>(steps.entrySet());
+        }
+        for (Map.Entry<String, Step> step : toRun) {
+            awaitAllowed();
+            try {
+                step.getValue().run(this);
+            } catch (IOException e) {
+                // Ignore error for now; the step is retried next interval
+            } catch (RuntimeException e) {
+                // A bug in one step must not stop the others, now or later
+                System.err.println("Compaction of " + step.getKey() + " failed: " + e);
+            }
+        }
+    }
+
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused || inPauseWindow();
+    }
+
+    // Only a pause() not yet resumed, whatever the pause window says
+    public synchronized boolean isPausedByUser() {
+        return paused;
+    }
+
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    // Called by steps with the bytes they are about to copy: waits while
+    // paused, then sleeps as needed to stay under the rate limit
+    public void throttle(long bytes) throws InterruptedException {
+        awaitAllowed();
+        if (bytesPerSecond <= 0) return;
+        long sleep;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - windowStart > 1_000_000_000L) {
+                windowStart = now;
+                windowBytes = 0;
+            }
+            windowBytes += bytes;
+            long due = windowStart + windowBytes * 1_000_000_000L / bytesPerSecond;
+            sleep = due - now;
+        }
+        if (sleep > 0) {
+            Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+        }
+    }
+
+    private synchronized void awaitAllowed() throws InterruptedException {
+        while (paused || inPauseWindow()) {
+            // Re-check the clock at least once a minute
+            wait(60_000);
+        }
+    }
+
+    private boolean inPauseWindow() {
+        if (pauseFrom == null) return false;
+        LocalTime now = LocalTime.now();
+        if (pauseFrom.isBefore(pauseUntil)) {
+            return !now.isBefore(pauseFrom) && now.isBefore(pauseUntil);
+        }
+        // Window wraps past midnight
+        return !now.isBefore(pauseFrom) || now.isBefore(pauseUntil);
+    }
+
+    private void runLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(intervalMillis);
+                runNow();
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+    }
+}
@@ -9,6 +9,11 @@ public class Depositor extends JFrame implements ActionListener {
     private JComboBox<String> genderCombo;
     private JPasswordField pinField;
     private JButton submitButton;
+    // Holds Submit while the record is written
+    private Background.Busy busy;
+
+    // Shared by every registration window in this process
+    private static final IdAllocator ID_ALLOCATOR = new IdAllocator();
 
     public Depositor() {
         setTitle("Depositor Information");
@@ -41,6 +46,7 @@ public class Depositor extends JFrame implements ActionListener {
 
         submitButton = new JButton("Submit");
         submitButton.addActionListener(this);
+        busy = new Background.Busy(this, submitButton);
 
         // Layout
         JPanel panel = new JPanel(new GridBagLayout());
@@ -73,90 +79,69 @@ public class Depositor extends JFrame implements ActionListener {
         add(panel);
     }
 
-    private String generateUniqueId() {
-        File file = new File("Depositor.txt");
-        HashSet<String> existingIds = new HashSet<>();
-
-        if (file.exists()) {
-            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    for (String part : line.split(",")) {
-                        part = part.trim();
-                        if (part.startsWith("ID:")) {
-                            existingIds.add(part.substring(3).trim());
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                // ignore
-            }
-        }
-
-        Random rand = new Random();
-        for (int i = 0; i < 1000; i++) {
-            int num = rand.nextInt(900) + 100; // 100 to 999
-            String id = String.valueOf(num);
-            if (hasNoRepeatedDigits(id) && !existingIds.contains(id)) {
-                return id;
-            }
+    // Hands out the next ID from the persistent sequence (null when exhausted)
+    private static String generateUniqueId() {
+        try {
+            return ID_ALLOCATOR.next();
+        } catch (IOException e) {
+            return null;
         }
-        return null;
     }
 
-    private boolean hasNoRepeatedDigits(String id) {
-        return id.charAt(0) != id.charAt(1) &&
-                id.charAt(0) != id.charAt(2) &&
-                id.charAt(1) != id.charAt(2);
-    }
-
-    @Override
-    public void actionPerformed(ActionEvent e) {
-        String name = nameField.getText().trim();
-        String gender = (String) genderCombo.getSelectedItem();
-        String ageStr = ageField.getText().trim();
-        String pin = new String(pinField.getPassword()).trim();
-
+    // Validates the fields and saves a new enabled depositor to Depositor.dat,
+    // returning its ID. Invalid input is an IllegalArgumentException and running
+    // out of IDs an IllegalStateException, both carrying the message to show.
+    // Headless so the load generator registers depositors by the same rules.
+    public static String register(String name, String gender, String ageStr, String pin) throws IOException {
         if (name.isEmpty() || ageStr.isEmpty() || pin.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Please fill in all fields.", "Input Error", JOptionPane.ERROR_MESSAGE);
-            return;
+            throw new IllegalArgumentException("Please fill in all fields.");
         }
 
         if (!pin.matches("\\d{4}")) {
-            JOptionPane.showMessageDialog(this, "PIN must be a 4-digit number.", "Input Error", JOptionPane.ERROR_MESSAGE);
-            return;
+            throw new IllegalArgumentException("PIN must be a 4-digit number.");
         }
 
         if (!ageStr.matches("\\d{1,2}")) {
-            JOptionPane.showMessageDialog(this, "Age must be a 1- or 2-digit number.", "Input Error", JOptionPane.ERROR_MESSAGE);
-            return;
+            throw new IllegalArgumentException("Age must be a 1- or 2-digit number.");
         }
 
-        int age;
-        try {
-            age = Integer.parseInt(ageStr);
-            if (age <= 0 || age > 99) throw new NumberFormatException();
-        } catch (NumberFormatException ex) {
-            JOptionPane.showMessageDialog(this, "Age must be a positive integer (1-99).", "Input Error", JOptionPane.ERROR_MESSAGE);
-            return;
+        int age = Integer.parseInt(ageStr);
+        if (age <= 0 || age > 99) {
+            throw new IllegalArgumentException("Age must be a positive integer (1-99).");
         }
 
         String id = generateUniqueId();
         if (id == null) {
-            JOptionPane.showMessageDialog(this, "Unable to generate unique ID.", "ID Error", JOptionPane.ERROR_MESSAGE);
-            return;
+            throw new IllegalStateException("Unable to generate unique ID.");
         }
 
-        // Save to Depositor.txt
-        try (FileWriter fw = new FileWriter("Depositor.txt", true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-            out.printf("Name: %s, ID: %s, Gender: %s, Age: %d, PIN: %s%n", name, id, gender, age, pin);
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(this, "Error saving data: " + ex.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
+        // Save to Depositor.dat (rejects a name that is already taken)
+        DepositorStore.shared().addNew(name, id, gender, age, pin, DepositorStore.ENABLED);
+        return id;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        String name = nameField.getText().trim();
+        String gender = (String) genderCombo.getSelectedItem();
+        String ageStr = ageField.getText().trim();
+        String pin = new String(pinField.getPassword()).trim();
+
+        // Validated and saved off the EDT; the result comes back here
+        Background.run(busy, () -> register(name, gender, ageStr, pin), (id, failure) -> {
+            if (failure instanceof IllegalArgumentException) {
+                JOptionPane.showMessageDialog(this, failure.getMessage(), "Input Error", JOptionPane.ERROR_MESSAGE);
+            } else if (failure instanceof IllegalStateException) {
+                JOptionPane.showMessageDialog(this, failure.getMessage(), "ID Error", JOptionPane.ERROR_MESSAGE);
+            } else if (failure != null) {
+                JOptionPane.showMessageDialog(this, "Error saving data: " + failure.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+            } else {
+                showRegistered(name, id, gender, Integer.parseInt(ageStr), pin);
+            }
+        });
+    }
 
+    private void showRegistered(String name, String id, String gender, int age, String pin) {
         // Display entered information
         String message = String.format(
                 "Depositor Information:\nName: %s\nID: %s\nGender: %s\nAge: %d\nPIN: %s\n\n",
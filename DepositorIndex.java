@@ -0,0 +1,251 @@
+import java.io.*;
+import java.util.*;
+
+// Sorted views of the depositor store for search: record indexes ordered by
+// case-folded name, and by ID. A prefix matches a contiguous range of either
+// array, found by binary search, and a longer prefix only needs to search
+// inside the previous range. The arrays are saved in Depositor.idx next to
+// the store (for the store's current epoch) and brought up to date with
+// records appended since.
+public class DepositorIndex {
+    private static final int MAGIC = 0x42444932; // "BDI2"
+    // Rebuild instead of inserting once this many records are new
+    private static final int REBUILD_THRESHOLD = 1024;
+
+    // A run of positions [lo, hi) in one of the sorted arrays
+    public static final class Range {
+        final boolean byName;
+        final String key;
+        final int lo, hi;
+        final int modCount;
+
+        private Range(boolean byName, String key, int lo, int hi, int modCount) {
+            this.byName = byName;
+            this.key = key;
+            this.lo = lo;
+            this.hi = hi;
+            this.modCount = modCount;
+        }
+
+        public int size() {
+            return hi - lo;
+        }
+    }
+
+    private final DepositorStore store;
+    private final File file;
+    private int[] byName = new int[0];
+    private int[] byId = new int[0];
+    // Records [0, covered) are in both arrays; [0, saved) are in the file
+    private int covered;
+    private int saved;
+    private boolean loaded;
+    private int modCount;
+
+    public DepositorIndex(DepositorStore store, File file) {
+        this.store = store;
+        this.file = file;
+    }
+
+    static String fold(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    private String key(boolean names, int record) {
+        return names ? fold(store.name(record)) : store.id(record);
+    }
+
+    // Live records whose name starts with prefix (case-insensitive). Pass the
+    // previous result while the user keeps typing to search only inside it.
+    public synchronized Range searchNames(String prefix, Range previous) {
+        return search(true, fold(prefix), previous);
+    }
+
+    // Live records whose ID starts with prefix
+    public synchronized Range searchIds(String prefix, Range previous) {
+        return search(false, prefix, previous);
+    }
+
+    private Range search(boolean names, String key, Range previous) {
+        update();
+        int lo = 0;
+        int hi = covered;
+        if (previous != null && previous.byName == names && previous.modCount == modCount && key.startsWith(previous.key)) {
+            lo = previous.lo;
+            hi = previous.hi;
+        }
+        int[] order = names ? byName : byId;
+        // Keys before the range compare less; keys in it start with key
+        int first = lo, last = hi;
+        while (first < last) {
+            int mid = (first + last) >>> 1;
+            if (key(names, order[mid]).compareTo(key) < 0) first = mid + 1;
+            else last = mid;
+        }
+        int end = hi;
+        last = first;
+        while (last < end) {
+            int mid = (last + end) >>> 1;
+            if (key(names, order[mid]).startsWith(key)) last = mid + 1;
+            else end = mid;
+        }
+        return new Range(names, key, first, last, modCount);
+    }
+
+    // Record indexes of the live records in the given ranges, without duplicates
+    public synchronized int[] liveRecords(Range... ranges) {
+        int total = 0;
+        for (Range r : ranges) {
+            if (r != null) total += r.size();
+        }
+        int[] result = new int[total];
+        BitSet seen = ranges.length > 1 ? new BitSet() : null;
+        int n = 0;
+        for (Range r : ranges) {
+            if (r == null || r.modCount != modCount) continue;
+            int[] order = r.byName ? byName : byId;
+            for (int p = r.lo; p < r.hi; p++) {
+                int record = order[p];
+                if (store.isDeleted(record)) continue;
+                if (seen != null) {
+                    if (seen.get(record)) continue;
+                    seen.set(record);
+                }
+                result[n++] = record;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    // Latest live record with exactly this name, or -1
+    public synchronized int indexOfName(String name) {
+        Range r = search(true, fold(name), null);
+        int found = -1;
+        for (int p = r.lo; p < r.hi; p++) {
+            int record = byName[p];
+            if (record > found && !store.isDeleted(record) && store.name(record).equals(name)) {
+                found = record;
+            }
+        }
+        return found;
+    }
+
+    // Latest live record with exactly this ID, or -1
+    public synchronized int indexOfId(String id) {
+        Range r = search(false, id, null);
+        int found = -1;
+        for (int p = r.lo; p < r.hi; p++) {
+            int record = byId[p];
+            if (record > found && !store.isDeleted(record) && store.id(record).equals(id)) {
+                found = record;
+            }
+        }
+        return found;
+    }
+
+    // Builds or loads the index ahead of the first search
+    public synchronized void prepare() {
+        update();
+    }
+
+    // Loads the saved index and adds the records appended since
+    private void update() {
+        if (!loaded) {
+            loaded = true;
+            load();
+        }
+        int count = store.size();
+        if (count == covered) return;
+        if (count < covered || count - covered > REBUILD_THRESHOLD) {
+            rebuild(count);
+        } else {
+            for (int record = covered; record < count; record++) {
+                byName = insert(byName, true, record);
+                byId = insert(byId, false, record);
+                covered++;
+            }
+        }
+        modCount++;
+        if (covered - saved > REBUILD_THRESHOLD || covered < saved) {
+            save();
+        }
+    }
+
+    private void rebuild(int count) {
+        byName = sorted(true, count);
+        byId = sorted(false, count);
+        covered = count;
+        saved = 0;
+    }
+
+    // Stable sort, so equal keys stay in record order
+    private int[] sorted(boolean names, int count) {
+        String[] keys = new String[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = key(names, i);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) result[i] = order[i];
+        return result;
+    }
+
+    private int[] insert(int[] order, boolean names, int record) {
+        String key = key(names, record);
+        // After every equal key, to keep record order
+        int lo = 0, hi = covered;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(names, order[mid]).compareTo(key) <= 0) lo = mid + 1;
+            else hi = mid;
+        }
+        int[] result = order.length > covered ? order : Arrays.copyOf(order, Math.max(16, covered * 2));
+        System.arraycopy(result, lo, result, lo + 1, covered - lo);
+        result[lo] = record;
+        return result;
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) return;
+            // Written before the store reclaimed tombstones; rebuild
+            if (in.readInt() != store.epoch()) return;
+            int count = in.readInt();
+            if (count > store.size()) return; // Store was replaced; rebuild
+            int[] names = new int[count];
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) names[i] = in.readInt();
+            for (int i = 0; i < count; i++) ids[i] = in.readInt();
+            byName = names;
+            byId = ids;
+            covered = count;
+            saved = count;
+        } catch (IOException e) {
+            // Unreadable index; rebuild from the store
+            covered = 0;
+            byName = new int[0];
+            byId = new int[0];
+        }
+    }
+
+    // Written to a temp file and moved into place so readers never see half an index
+    private void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(store.epoch());
+            out.writeInt(covered);
+            for (int i = 0; i < covered; i++) out.writeInt(byName[i]);
+            for (int i = 0; i < covered; i++) out.writeInt(byId[i]);
+        } catch (IOException e) {
+            // Ignore error for now
+            return;
+        }
+        if (tmp.renameTo(file) || (file.delete() && tmp.renameTo(file))) {
+            saved = covered;
+        }
+    }
+}
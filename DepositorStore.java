@@ -0,0 +1,732 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Depositors as fixed-size binary records in Depositor.dat, read and written
+// through a MappedByteBuffer. Record i lives at HEADER_SIZE + i * RECORD_SIZE,
+// so any field of any account is one memory read, and enabling or disabling
+// an account writes a single status byte. Several processes can map the same
+// file: appends take an exclusive lock on the header, and every change bumps
+// a version stamp in the header and in the changed record.
+//
+// Work on an account (a balance change, a status change) holds a byte-range
+// lock on that account's record (lockRecords), so terminals in different
+// processes serialize per account while unrelated accounts never wait on
+// each other. Status changes made from a screen the user has been looking
+// at pass the record version they saw and fail if it has moved since.
+//
+// Listeners hear about every record added or changed. Changes made through
+// this object are reported at once; a watcher thread picks up the ones made
+// by other processes by polling the header version (a file WatchService does
+// not reliably see writes through a mapping) and reports each record whose
+// own version is newer than the last poll.
+//
+// Deleted accounts stay in place as tombstones, since record indexes are held
+// all over the application. Their space is reclaimed when a store is opened
+// while no other process has the file open: live records are written to
+// Depositor.dat.compact, then copied back over the file, and the header's
+// epoch is bumped so saved indexes know to rebuild.
+//
+// Depositor.txt is kept only as an import/export format (see main).
+public class DepositorStore implements Closeable {
+    public static final byte EMPTY = 0;
+    public static final byte ENABLED = 1;
+    public static final byte DISABLED = 2;
+    public static final byte DELETED = 3;
+
+    private static final int MAGIC = 0x42444550; // "BDEP"
+    private static final int FORMAT = 1;
+
+    // Header layout
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_FORMAT = 4;
+    private static final int H_RECORD_SIZE = 8;
+    private static final int H_COUNT = 12;
+    private static final int H_VERSION = 16;
+    private static final int H_EPOCH = 24;
+
+    // Record layout: status, then length-prefixed fixed-width fields
+    static final int RECORD_SIZE = 128;
+    private static final int R_STATUS = 0;
+    private static final int R_NAME = 1;
+    private static final int NAME_BYTES = 64;
+    private static final int R_ID = 66;
+    private static final int ID_BYTES = 20;
+    private static final int R_GENDER = 87;
+    private static final int GENDER_BYTES = 16;
+    private static final int R_AGE = 104;
+    private static final int R_PIN = 105;
+    private static final int PIN_BYTES = 8;
+    private static final int R_VERSION = 120;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final Metrics.Timer SAVE_DEPOSITORS = Metrics.timer("saveDepositors");
+    // Record bytes decoded (row) and stored; mapped reads of single fields are not counted
+    private static final Metrics.Counter BYTES_READ = Metrics.bytesRead("depositorStore");
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.bytesWritten("depositorStore");
+    private static final int WATCH_INTERVAL_MS = Integer.getInteger("bank.watch.ms", 250);
+    // Byte past the end of any real file; every open store holds a shared
+    // lock on it, so an exclusive lock means no one else has the file open
+    private static final long OPEN_LOCK = Long.MAX_VALUE - 1;
+    // Reclaim tombstones once they are at least 1/8 of the records
+    private static final int RECLAIM_DIVISOR = 8;
+
+    // Told the index of each record added or changed
+    public interface Listener {
+        void recordChanged(int index);
+    }
+
+    private static DepositorStore shared;
+
+    private final File file;
+    private final FileChannel channel;
+    private FileLock openLock;
+    private volatile MappedByteBuffer buffer;
+    private volatile int mappedRecords;
+
+    // Name and ID search index, opened on first use
+    private volatile DepositorIndex index;
+
+    // Records locked by threads of this JVM (file locks cannot overlap within one)
+    private final Set<Integer> lockedRecords = new HashSet<>();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Header version up to which listeners have been told every change
+    private long seenVersion;
+    private Thread watcher;
+
+    public DepositorStore(File file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        reclaimIfAlone();
+        try {
+            openLock = channel.lock(OPEN_LOCK, 1, true);
+        } catch (OverlappingFileLockException e) {
+            // Already open elsewhere in this JVM, which holds the lock for both
+        }
+        FileLock lock = channel.lock(0, HEADER_SIZE, false);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                map(INITIAL_CAPACITY);
+                buffer.putInt(H_MAGIC, MAGIC);
+                buffer.putInt(H_FORMAT, FORMAT);
+                buffer.putInt(H_RECORD_SIZE, RECORD_SIZE);
+                buffer.putInt(H_COUNT, 0);
+                buffer.putLong(H_VERSION, 0);
+            } else {
+                map((int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE));
+                if (buffer.getInt(H_MAGIC) != MAGIC || buffer.getInt(H_RECORD_SIZE) != RECORD_SIZE) {
+                    channel.close();
+                    throw new IOException(file.getName() + " is not a depositor store");
+                }
+            }
+            seenVersion = buffer.getLong(H_VERSION);
+        } finally {
+            // Already gone if the channel was closed above
+            if (lock.isValid()) lock.release();
+        }
+    }
+
+    // Drops tombstones if no other process (or store in this JVM) has the file open
+    private void reclaimIfAlone() throws IOException {
+        FileLock alone;
+        try {
+            alone = channel.tryLock(OPEN_LOCK, 1, false);
+        } catch (OverlappingFileLockException e) {
+            return;
+        }
+        if (alone == null) return;
+        try {
+            File copy = new File(file.getPath() + ".compact");
+            if (!copy.exists()) {
+                writeLiveRecords(copy);
+            }
+            // Also finishes a copy-back that a crash interrupted
+            if (copy.exists()) {
+                copyBack(copy);
+            }
+        } finally {
+            alone.release();
+        }
+    }
+
+    // Writes the live records to copy, header last, if enough are deleted
+    private void writeLiveRecords(File copy) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.read(header, 0) < HEADER_SIZE || header.getInt(H_MAGIC) != MAGIC || header.getInt(H_RECORD_SIZE) != RECORD_SIZE) {
+            return;
+        }
+        int count = header.getInt(H_COUNT);
+        int chunkRecords = 1024;
+        ByteBuffer chunk = ByteBuffer.allocate(chunkRecords * RECORD_SIZE);
+        int deleted = 0;
+        for (int first = 0; first < count; first += chunkRecords) {
+            int n = readRecords(chunk, first, Math.min(chunkRecords, count - first));
+            for (int i = 0; i < n; i++) {
+                byte status = chunk.get(i * RECORD_SIZE + R_STATUS);
+                if (status == DELETED || status == EMPTY) deleted++;
+            }
+        }
+        if (deleted == 0 || deleted * RECLAIM_DIVISOR < count) return;
+
+        try (FileChannel out = FileChannel.open(copy.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = HEADER_SIZE;
+            for (int first = 0; first < count; first += chunkRecords) {
+                int n = readRecords(chunk, first, Math.min(chunkRecords, count - first));
+                for (int i = 0; i < n; i++) {
+                    byte status = chunk.get(i * RECORD_SIZE + R_STATUS);
+                    if (status == DELETED || status == EMPTY) continue;
+                    ByteBuffer record = chunk.duplicate();
+                    record.limit((i + 1) * RECORD_SIZE).position(i * RECORD_SIZE);
+                    while (record.hasRemaining()) {
+                        position += out.write(record, position);
+                    }
+                }
+            }
+            header.putInt(H_COUNT, count - deleted);
+            header.putLong(H_VERSION, header.getLong(H_VERSION) + 1);
+            header.putInt(H_EPOCH, header.getInt(H_EPOCH) + 1);
+            header.clear();
+            out.force(true);
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+            out.force(true);
+            BYTES_WRITTEN.add(position);
+        }
+    }
+
+    private int readRecords(ByteBuffer chunk, int first, int n) throws IOException {
+        chunk.clear().limit(n * RECORD_SIZE);
+        long position = HEADER_SIZE + (long) first * RECORD_SIZE;
+        while (chunk.hasRemaining()) {
+            if (channel.read(chunk, position + chunk.position()) < 0) break;
+        }
+        BYTES_READ.add(chunk.position());
+        return chunk.position() / RECORD_SIZE;
+    }
+
+    // Overwrites the store with a complete compacted copy, then removes the copy
+    private void copyBack(File copy) throws IOException {
+        try (FileChannel in = FileChannel.open(copy.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            boolean complete = in.read(header, 0) == HEADER_SIZE && header.getInt(H_MAGIC) == MAGIC
+                    && in.size() >= HEADER_SIZE + (long) header.getInt(H_COUNT) * RECORD_SIZE;
+            if (complete) {
+                long size = in.size();
+                long done = 0;
+                while (done < size) {
+                    done += channel.transferFrom(in.position(done), done, size - done);
+                }
+                channel.truncate(size);
+                channel.force(true);
+            }
+        }
+        Files.delete(copy.toPath());
+    }
+
+    // For offline tools (Reshard): keeps every other process out of the bank
+    // until closed (opening the store waits for it), or returns null if one
+    // has it open now
+    public static Closeable lockOffline(File file) throws IOException {
+        if (!file.exists()) return () -> { };
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock(OPEN_LOCK, 1, false);
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            return null;
+        }
+        // Closing the channel releases the lock
+        return channel;
+    }
+
+    // The process-wide store for Depositor.dat. On first use it is created
+    // from Depositor.txt if only the text file exists.
+    public static synchronized DepositorStore shared() throws IOException {
+        if (shared == null) {
+            File dat = new File("Depositor.dat");
+            File txt = new File("Depositor.txt");
+            boolean importText = !dat.exists() && txt.exists();
+            shared = new DepositorStore(dat);
+            if (importText) {
+                shared.importText(txt);
+            }
+        }
+        return shared;
+    }
+
+    private void map(int records) throws IOException {
+        int capacity = Math.max(records, INITIAL_CAPACITY);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        mappedRecords = capacity;
+    }
+
+    // Remaps if another process appended past the end of our mapping
+    private MappedByteBuffer view(int index) {
+        MappedByteBuffer b = buffer;
+        if (index < mappedRecords) return b;
+        synchronized (this) {
+            if (index >= mappedRecords) {
+                try {
+                    map((int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return buffer;
+        }
+    }
+
+    // Computed in long so a huge index fails here instead of wrapping
+    private static int offset(int index) {
+        return Math.toIntExact(HEADER_SIZE + (long) index * RECORD_SIZE);
+    }
+
+    // Number of records, including disabled and deleted ones
+    public int size() {
+        return buffer.getInt(H_COUNT);
+    }
+
+    // Incremented on every change by any process
+    public long version() {
+        return buffer.getLong(H_VERSION);
+    }
+
+    // Incremented whenever tombstones are reclaimed (record indexes change)
+    public int epoch() {
+        return buffer.getInt(H_EPOCH);
+    }
+
+    public byte status(int index) {
+        return view(index).get(offset(index) + R_STATUS);
+    }
+
+    public boolean isDeleted(int index) {
+        byte s = status(index);
+        return s == DELETED || s == EMPTY;
+    }
+
+    public long recordVersion(int index) {
+        return view(index).getLong(offset(index) + R_VERSION);
+    }
+
+    public String name(int index) {
+        return readString(index, R_NAME);
+    }
+
+    public String id(int index) {
+        return readString(index, R_ID);
+    }
+
+    public String gender(int index) {
+        return readString(index, R_GENDER);
+    }
+
+    public int age(int index) {
+        return view(index).get(offset(index) + R_AGE) & 0xFF;
+    }
+
+    public String pin(int index) {
+        return readString(index, R_PIN);
+    }
+
+    // Compares the stored PIN bytes with the candidate encoded as
+    // writeString does, in time that does not depend on where they differ
+    public boolean pinMatches(int index, String pin) {
+        MappedByteBuffer b = view(index);
+        int at = offset(index) + R_PIN;
+        byte[] stored = new byte[b.get(at) & 0xFF];
+        b.get(at + 1, stored);
+        return MessageDigest.isEqual(stored, pin.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String statusText(byte status) {
+        return status == DISABLED ? "Disabled" : "Enabled";
+    }
+
+    // {Name, ID, Gender, Age, PIN, Status} as shown in the Admin table
+    public String[] row(int index) {
+        BYTES_READ.add(RECORD_SIZE);
+        return new String[]{name(index), id(index), gender(index), String.valueOf(age(index)), pin(index), statusText(status(index))};
+    }
+
+    private String readString(int index, int field) {
+        MappedByteBuffer b = view(index);
+        int at = offset(index) + field;
+        int length = b.get(at) & 0xFF;
+        byte[] bytes = new byte[length];
+        b.get(at + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(MappedByteBuffer b, int at, String value, int maxBytes, String field) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) {
+            throw new IllegalArgumentException(field + " is longer than " + maxBytes + " bytes: " + value);
+        }
+        b.put(at, (byte) bytes.length);
+        b.put(at + 1, bytes);
+    }
+
+    // Appends a depositor and returns its record index
+    public int add(String name, String id, String gender, int age, String pin, byte status) throws IOException {
+        long start = SAVE_DEPOSITORS.start();
+        int index = append(name, id, gender, age, pin, status, null);
+        SAVE_DEPOSITORS.stop(start);
+        fireChanged(index);
+        return index;
+    }
+
+    // Like add, but rejects a name a live account already has (in any
+    // process). The index lock comes first, the order the index's own
+    // lookups take this store's locks in.
+    public int addNew(String name, String id, String gender, int age, String pin, byte status) throws IOException {
+        DepositorIndex names = index();
+        long start = SAVE_DEPOSITORS.start();
+        int index;
+        synchronized (names) {
+            index = append(name, id, gender, age, pin, status, names);
+        }
+        SAVE_DEPOSITORS.stop(start);
+        fireChanged(index);
+        return index;
+    }
+
+    private synchronized int append(String name, String id, String gender, int age, String pin, byte status,
+                                    DepositorIndex unique) throws IOException {
+        if (age < 0 || age > 255) throw new IllegalArgumentException("Age out of range: " + age);
+        FileLock lock = channel.lock(0, HEADER_SIZE, false);
+        try {
+            // Under the header lock, so no other process can add the name meanwhile
+            if (unique != null && unique.indexOfName(name) >= 0) {
+                throw new IllegalArgumentException("The name " + name + " is already taken.");
+            }
+            int index = size();
+            if (index >= mappedRecords) {
+                map(Math.max(index + 1, mappedRecords * 2));
+            }
+            MappedByteBuffer b = buffer;
+            int at = offset(index);
+            writeString(b, at + R_NAME, name, NAME_BYTES, "Name");
+            writeString(b, at + R_ID, id, ID_BYTES, "ID");
+            writeString(b, at + R_GENDER, gender, GENDER_BYTES, "Gender");
+            b.put(at + R_AGE, (byte) age);
+            writeString(b, at + R_PIN, pin, PIN_BYTES, "PIN");
+            long version = b.getLong(H_VERSION) + 1;
+            b.putLong(at + R_VERSION, version);
+            b.put(at + R_STATUS, status);
+            // Publish: the record is complete before the count covers it
+            b.putInt(H_COUNT, index + 1);
+            b.putLong(H_VERSION, version);
+            advanceSeenVersion(version);
+            BYTES_WRITTEN.add(RECORD_SIZE);
+            return index;
+        } finally {
+            lock.release();
+        }
+    }
+
+    // Enables, disables or deletes (tombstones) an account in place
+    public void setStatus(int index, byte status) throws IOException {
+        long start = SAVE_DEPOSITORS.start();
+        writeStatus(index, status, -1);
+        SAVE_DEPOSITORS.stop(start);
+        fireChanged(index);
+    }
+
+    // Like setStatus, but under the record's lock and only if its version is
+    // still expectedVersion (see recordVersion); false if another terminal
+    // changed the account meanwhile
+    public boolean setStatus(int index, byte status, long expectedVersion) throws IOException {
+        long start = SAVE_DEPOSITORS.start();
+        boolean written;
+        RecordLock lock = lockRecords(index);
+        try {
+            written = writeStatus(index, status, expectedVersion);
+        } finally {
+            lock.close();
+        }
+        SAVE_DEPOSITORS.stop(start);
+        if (written) fireChanged(index);
+        return written;
+    }
+
+    private synchronized boolean writeStatus(int index, byte status, long expectedVersion) throws IOException {
+        MappedByteBuffer b = view(index);
+        int at = offset(index);
+        // The header lock serializes other processes; our monitor serializes our threads
+        FileLock lock = channel.lock(0, HEADER_SIZE, false);
+        try {
+            if (expectedVersion >= 0 && b.getLong(at + R_VERSION) != expectedVersion) return false;
+            long version = b.getLong(H_VERSION) + 1;
+            b.put(at + R_STATUS, status);
+            b.putLong(at + R_VERSION, version);
+            b.putLong(H_VERSION, version);
+            advanceSeenVersion(version);
+            BYTES_WRITTEN.add(1 + 8);
+            return true;
+        } finally {
+            lock.release();
+        }
+    }
+
+    // Locks the given records against other threads and processes until the
+    // returned lock is closed: a lock on each record's bytes in Depositor.dat,
+    // taken in index order so two terminals locking the same pair (a transfer
+    // each way) cannot deadlock
+    public RecordLock lockRecords(int... indexes) throws IOException {
+        int[] sorted = Arrays.stream(indexes).distinct().sorted().toArray();
+        synchronized (lockedRecords) {
+            // All or nothing, so threads locking pairs cannot deadlock either
+            while (anyLocked(sorted)) {
+                try {
+                    lockedRecords.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for a record lock");
+                }
+            }
+            for (int index : sorted) lockedRecords.add(index);
+        }
+        RecordLock lock = new RecordLock(sorted);
+        try {
+            for (int index : sorted) {
+                lock.fileLocks.add(lockRecord(index));
+            }
+        } catch (IOException | RuntimeException e) {
+            lock.close();
+            throw e;
+        }
+        return lock;
+    }
+
+    // Polled rather than a blocking lock(): the kernel detects deadlocks per
+    // process, so a blocking wait here fails with "Resource deadlock avoided"
+    // whenever another of our threads holds a lock the other process wants
+    // (e.g. Balance.lock), even though no real cycle exists
+    private FileLock lockRecord(int index) throws IOException {
+        FileLock fileLock;
+        while ((fileLock = channel.tryLock(offset(index), RECORD_SIZE, false)) == null) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a record lock");
+            }
+        }
+        return fileLock;
+    }
+
+    private boolean anyLocked(int[] indexes) {
+        for (int index : indexes) {
+            if (lockedRecords.contains(index)) return true;
+        }
+        return false;
+    }
+
+    // Held record locks; close() releases them
+    public final class RecordLock implements Closeable {
+        private final int[] indexes;
+        private final List<FileLock> fileLocks = new ArrayList<>(2);
+
+        private RecordLock(int[] indexes) {
+            this.indexes = indexes;
+        }
+
+        @Override
+        public void close() {
+            for (FileLock fileLock : fileLocks) {
+                try {
+                    fileLock.release();
+                } catch (IOException e) {
+                    // Ignore error for now; the lock goes with the channel
+                }
+            }
+            fileLocks.clear();
+            synchronized (lockedRecords) {
+                for (int index : indexes) lockedRecords.remove(index);
+                lockedRecords.notifyAll();
+            }
+        }
+    }
+
+    // Our own change needs no poll, unless another process wrote in between
+    private void advanceSeenVersion(long version) {
+        if (seenVersion == version - 1) {
+            seenVersion = version;
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        startWatcher();
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireChanged(int index) {
+        for (Listener listener : listeners) {
+            listener.recordChanged(index);
+        }
+    }
+
+    private synchronized void startWatcher() {
+        if (watcher != null) return;
+        watcher = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(WATCH_INTERVAL_MS);
+                    poll();
+                }
+            } catch (InterruptedException e) {
+                // Store closed
+            }
+        }, "depositor-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    // Reports the records other processes changed since the last poll
+    void poll() {
+        long current = version();
+        long since;
+        synchronized (this) {
+            if (current == seenVersion) return;
+            since = seenVersion;
+            seenVersion = current;
+        }
+        int count = size();
+        for (int i = 0; i < count; i++) {
+            if (recordVersion(i) > since) {
+                fireChanged(i);
+            }
+        }
+    }
+
+    // The search index saved next to this store (Depositor.dat -> Depositor.idx)
+    public DepositorIndex index() {
+        DepositorIndex i = index;
+        if (i == null) {
+            synchronized (this) {
+                i = index;
+                if (i == null) {
+                    String path = file.getPath();
+                    if (path.endsWith(".dat")) path = path.substring(0, path.length() - 4);
+                    index = i = new DepositorIndex(this, new File(path + ".idx"));
+                }
+            }
+        }
+        return i;
+    }
+
+    // Record index of the latest live account with this name, or -1.
+    // Not synchronized: the index calls back into this store under its own lock.
+    public int indexOf(String name) {
+        return index().indexOfName(name);
+    }
+
+    // Copies every line of a Depositor.txt file into the store
+    public void importText(File txt) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(txt))) {
+            String line;
+            int lineNo = 0;
+            while ((line = br.readLine()) != null) {
+                lineNo++;
+                String name = "", id = "", gender = "", pin = "", status = "Enabled";
+                int age = 0;
+                for (String part : line.split(",")) {
+                    part = part.trim();
+                    if (part.startsWith("Name:")) {
+                        name = part.substring(5).trim();
+                    } else if (part.startsWith("ID:")) {
+                        id = part.substring(3).trim();
+                    } else if (part.startsWith("Gender:")) {
+                        gender = part.substring(7).trim();
+                    } else if (part.startsWith("Age:")) {
+                        try {
+                            age = Integer.parseInt(part.substring(4).trim());
+                        } catch (NumberFormatException e) {
+                            age = 0;
+                        }
+                    } else if (part.startsWith("PIN:")) {
+                        pin = part.substring(4).trim();
+                    } else if (part.startsWith("Status:")) {
+                        status = part.substring(7).trim();
+                    }
+                }
+                if (name.isEmpty()) continue;
+                try {
+                    add(name, id, gender, age, pin, "Disabled".equalsIgnoreCase(status) ? DISABLED : ENABLED);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(txt.getName() + " line " + lineNo + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Writes every live account in the Depositor.txt format
+    public void exportText(File txt) throws IOException {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(txt)))) {
+            int count = size();
+            for (int i = 0; i < count; i++) {
+                if (isDeleted(i)) continue;
+                out.printf("Name: %s, ID: %s, Gender: %s, Age: %d, PIN: %s, Status: %s%n",
+                        name(i), id(i), gender(i), age(i), pin(i), statusText(status(i)));
+            }
+            if (out.checkError()) throw new IOException("Error writing " + txt.getName());
+        }
+    }
+
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+        buffer.force();
+        channel.close();
+    }
+
+    // Bridge to the text format:
+    //   java DepositorStore import Depositor.txt Depositor.dat
+    //   java DepositorStore export Depositor.dat Depositor.txt
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.err.println("Usage: DepositorStore import <Depositor.txt> <Depositor.dat>");
+            System.err.println("       DepositorStore export <Depositor.dat> <Depositor.txt>");
+            System.exit(2);
+        }
+        if (args[0].equals("import")) {
+            try (DepositorStore store = new DepositorStore(new File(args[2]))) {
+                store.importText(new File(args[1]));
+                System.out.println("Imported " + store.size() + " depositors into " + args[2]);
+            }
+        } else {
+            try (DepositorStore store = new DepositorStore(new File(args[1]))) {
+                store.exportText(new File(args[2]));
+                System.out.println("Exported " + args[1] + " to " + args[2]);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Admin depositor table that reads rows from the DepositorStore on demand.
+// The model only holds the record index of each visible row; the cells are
+// fetched a page at a time by background workers, and rows show a placeholder
+// until their page arrives. Loaded pages live in a small LRU cache, so opening
+// and scrolling cost the same for ten accounts or a million.
+//
+// Everything except the page reads runs on the Event Dispatch Thread.
+public class DepositorTableModel extends AbstractTableModel {
+    static final int PAGE_SIZE = 256;
+    private static final int MAX_PAGES = 64;
+    private static final int LOADER_THREADS = 2;
+    static final String LOADING = "Loading...";
+    private static final String[] COLUMN_NAMES = {"Name", "ID", "Gender", "Age", "PIN", "Status"};
+
+    private final DepositorStore store;
+    private final ExecutorService loader;
+
+    // Record index of each row, for the current name filter
+    private int[] rows = new int[0];
+    private int rowCount;
+    private String nameFilter = "";
+    // Last search results, refined while the user keeps typing
+    private DepositorIndex.Range nameMatches;
+    private DepositorIndex.Range idMatches;
+
+    // Bumped whenever the rows change, so pages read for an older view are dropped
+    private volatile int generation;
+
+    // Page number -> rows, least recently used first
+    private final Map<Integer, String[][]> pages = new LinkedHashMap<Integer, String[][]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[][]> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private final Set<Integer> pending = new HashSet<>();
+
+    // A null store gives an empty table (the caller has already reported the error)
+    public DepositorTableModel(DepositorStore store) {
+        this.store = store;
+        loader = Executors.newFixedThreadPool(LOADER_THREADS, r -> {
+            Thread t = new Thread(r, "depositor-page-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        buildRows();
+        if (store != null) {
+            // The first build sorts every name; keep it off the first keystroke
+            loader.execute(() -> store.index().prepare());
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false; // Table not editable
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int page = row / PAGE_SIZE;
+        String[][] cells = pages.get(page);
+        if (cells == null) {
+            requestPage(page);
+            return column == 0 ? LOADING : "";
+        }
+        return cells[row - page * PAGE_SIZE][column];
+    }
+
+    // Record index in the store of a table row
+    public int recordAt(int row) {
+        return rows[row];
+    }
+
+    // Read straight from the store, so it works before the row's page arrives
+    public String nameAt(int row) {
+        return store.name(rows[row]);
+    }
+
+    // Shows only names starting with prefix (case-insensitive), or IDs when
+    // the prefix is all digits; "" shows all
+    public void setNameFilter(String prefix) {
+        nameFilter = prefix;
+        reload();
+    }
+
+    // Picks up accounts added, deleted or changed since the rows were built
+    public void refresh() {
+        reload();
+    }
+
+    // Re-reads one row's cached cells after its status changed
+    public void rowChanged(int row) {
+        int page = row / PAGE_SIZE;
+        String[][] cells = pages.get(page);
+        if (cells != null) {
+            cells[row - page * PAGE_SIZE] = store.row(rows[row]);
+        }
+        fireTableRowsUpdated(row, row);
+    }
+
+    // Drops a deleted account's row without rebuilding the rest
+    public void removeRow(int row) {
+        System.arraycopy(rows, row + 1, rows, row, rowCount - row - 1);
+        rowCount--;
+        // Pages from this one on have shifted by a row
+        int firstStale = row / PAGE_SIZE;
+        pages.keySet().removeIf(page -> page >= firstStale);
+        generation++;
+        pending.clear();
+        fireTableRowsDeleted(row, row);
+    }
+
+    // Stops the page loaders (the window is closing)
+    public void close() {
+        loader.shutdownNow();
+    }
+
+    private void reload() {
+        generation++;
+        pages.clear();
+        pending.clear();
+        buildRows();
+        fireTableDataChanged();
+    }
+
+    // All live records in store order, or the search matches in name (then ID)
+    // order. Either way only status bytes and index keys are read.
+    private void buildRows() {
+        if (store != null && !nameFilter.isEmpty()) {
+            DepositorIndex index = store.index();
+            synchronized (index) {
+                nameMatches = index.searchNames(nameFilter, nameMatches);
+                idMatches = isDigits(nameFilter) ? index.searchIds(nameFilter, idMatches) : null;
+                rows = index.liveRecords(nameMatches, idMatches);
+            }
+            rowCount = rows.length;
+            return;
+        }
+        nameMatches = null;
+        idMatches = null;
+        int count = store == null ? 0 : store.size();
+        int[] result = rows.length >= count ? rows : new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (!store.isDeleted(i)) result[n++] = i;
+        }
+        rows = result;
+        rowCount = n;
+    }
+
+    private static boolean isDigits(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private void requestPage(int page) {
+        if (!pending.add(page)) return;
+        int first = page * PAGE_SIZE;
+        int[] records = Arrays.copyOfRange(rows, first, Math.min(rowCount, first + PAGE_SIZE));
+        int requested = generation;
+        loader.execute(() -> {
+            // Skip pages of a view that was replaced while this one waited
+            if (requested != generation) return;
+            String[][] cells = readPage(store, records);
+            SwingUtilities.invokeLater(() -> {
+                if (requested != generation) return;
+                pending.remove(page);
+                pages.put(page, cells);
+                fireTableRowsUpdated(first, first + cells.length - 1);
+            });
+        });
+    }
+
+    // Decodes the rows of one page (headless so it can be benchmarked)
+    static String[][] readPage(DepositorStore store, int[] records) {
+        String[][] cells = new String[records.length][];
+        for (int i = 0; i < records.length; i++) {
+            cells[i] = store.row(records[i]);
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,85 @@
+// When the transaction log writer forces its writes to disk. Appends complete
+// their futures only after the fsync that covers them, so the policy trades
+// commit latency for fewer fsyncs:
+//   commit        - fsync after every batch (group commit; the default)
+//   interval:<ms> - fsync at most every <ms> milliseconds
+//   records:<n>   - fsync once <n> records are waiting, or when no more
+//                   records arrive for a short while
+// Chosen with -Dbank.log.flush=..., e.g. -Dbank.log.flush=interval:20
+public class FlushPolicy {
+    private enum Kind { PER_COMMIT, INTERVAL, RECORDS }
+
+    private final Kind kind;
+    private final long limit;
+
+    private FlushPolicy(Kind kind, long limit) {
+        this.kind = kind;
+        this.limit = limit;
+    }
+
+    public static FlushPolicy perCommit() {
+        return new FlushPolicy(Kind.PER_COMMIT, 0);
+    }
+
+    public static FlushPolicy everyMillis(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("Interval must be positive: " + millis);
+        return new FlushPolicy(Kind.INTERVAL, millis);
+    }
+
+    public static FlushPolicy everyRecords(int records) {
+        if (records <= 0) throw new IllegalArgumentException("Record count must be positive: " + records);
+        return new FlushPolicy(Kind.RECORDS, records);
+    }
+
+    // Parses "commit", "interval:<ms>" or "records:<n>"
+    public static FlushPolicy parse(String text) {
+        String s = text.trim().toLowerCase();
+        try {
+            if (s.equals("commit")) return perCommit();
+            if (s.startsWith("interval:")) return everyMillis(Long.parseLong(s.substring(9).trim()));
+            if (s.startsWith("records:")) return everyRecords(Integer.parseInt(s.substring(8).trim()));
+        } catch (NumberFormatException e) {
+            // Fall through to the error below
+        }
+        throw new IllegalArgumentException("Unknown flush policy: " + text);
+    }
+
+    public static FlushPolicy fromSystemProperty() {
+        return parse(System.getProperty("bank.log.flush", "commit"));
+    }
+
+    // Whether the writer should fsync now, given what is waiting since the last
+    // fsync and whether the writer has just sat idle for maxIdleNanos
+    boolean shouldSync(int pendingRecords, long nanosSinceSync, boolean idle) {
+        if (pendingRecords == 0) return false;
+        switch (kind) {
+            case INTERVAL:
+                return nanosSinceSync >= limit * 1_000_000L;
+            case RECORDS:
+                return idle || pendingRecords >= limit;
+            default:
+                return true;
+        }
+    }
+
+    // How long an idle writer may sleep before shouldSync can become true
+    long maxIdleNanos(long nanosSinceSync) {
+        if (kind == Kind.INTERVAL) {
+            return Math.max(1, limit * 1_000_000L - nanosSinceSync);
+        }
+        // records:<n> flushes a partial group after a millisecond without traffic
+        return 1_000_000L;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case INTERVAL:
+                return "interval:" + limit;
+            case RECORDS:
+                return "records:" + limit;
+            default:
+                return "commit";
+        }
+    }
+}
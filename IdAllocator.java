@@ -0,0 +1,95 @@
+import java.io.*;
+
+// Hands out depositor IDs from a persistent sequence in DepositorId.seq, so
+// registering never scans the depositors and never runs out of random guesses.
+// Each process leases a block of IDs under an exclusive file lock and then
+// serves them from memory; IDs left in a block when a process exits are
+// skipped, never reused. IDs are zero-padded to a fixed width, set with
+// -Dbank.id.digits (default 6, i.e. 999,999 accounts).
+public class IdAllocator {
+    private final File sequenceFile;
+    // Seeds the sequence on first use; null means DepositorStore.shared()
+    private final DepositorStore depositors;
+    private final int digits;
+    private final int blockSize;
+    private final long limit;
+
+    // Current lease: IDs in [nextId, leaseEnd) belong to this process
+    private long nextId;
+    private long leaseEnd;
+
+    public IdAllocator() {
+        this(new File("DepositorId.seq"), null,
+                Integer.getInteger("bank.id.digits", 6), Integer.getInteger("bank.id.block", 16));
+    }
+
+    public IdAllocator(File sequenceFile, DepositorStore depositors, int digits, int blockSize) {
+        if (digits < 3 || digits > 18) throw new IllegalArgumentException("ID width must be 3-18 digits: " + digits);
+        if (blockSize < 1) throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        this.sequenceFile = sequenceFile;
+        this.depositors = depositors;
+        this.digits = digits;
+        this.blockSize = blockSize;
+        long max = 1;
+        for (int i = 0; i < digits; i++) max *= 10;
+        this.limit = max;
+    }
+
+    // Returns a new ID, or null once every ID of the configured width is used
+    public synchronized String next() throws IOException {
+        if (nextId >= leaseEnd) {
+            lease();
+        }
+        if (nextId >= leaseEnd) {
+            return null;
+        }
+        String id = Long.toString(nextId++);
+        StringBuilder sb = new StringBuilder(digits);
+        for (int i = id.length(); i < digits; i++) sb.append('0');
+        return sb.append(id).toString();
+    }
+
+    // Reserves the next block of IDs in the sequence file
+    private void lease() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(sequenceFile, "rw")) {
+            // Released when raf closes its channel
+            raf.getChannel().lock();
+            long start;
+            if (raf.length() == 0) {
+                // First use: continue after the IDs already handed out by the old random scheme
+                start = maxExistingId() + 1;
+            } else {
+                String text = raf.readLine();
+                try {
+                    start = Long.parseLong(text == null ? "" : text.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Corrupt " + sequenceFile.getName() + ": " + text);
+                }
+            }
+            long end = Math.min(limit, start + blockSize);
+            if (start < end) {
+                raf.setLength(0);
+                raf.seek(0);
+                raf.writeBytes(end + System.lineSeparator());
+                raf.getChannel().force(false);
+            }
+            nextId = start;
+            leaseEnd = Math.max(start, end);
+        }
+    }
+
+    // One-time scan of the depositor store for the largest numeric ID
+    private long maxExistingId() throws IOException {
+        DepositorStore store = depositors != null ? depositors : DepositorStore.shared();
+        long max = 0;
+        int count = store.size();
+        for (int i = 0; i < count; i++) {
+            try {
+                max = Math.max(max, Long.parseLong(store.id(i)));
+            } catch (NumberFormatException e) {
+                // Not a numeric ID; cannot collide with the sequence
+            }
+        }
+        return max;
+    }
+}
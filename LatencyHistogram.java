@@ -0,0 +1,71 @@
+// Latency recorder in the style of HdrHistogram: values (nanoseconds) are
+// counted in log-linear buckets, exact below 256 and within 1% above, so
+// recording is one array increment and percentiles stay accurate across
+// microseconds to minutes. Not thread-safe; give each thread its own and
+// add() them together for the report.
+public class LatencyHistogram {
+    // 2^SUB_BITS buckets per power of two
+    private static final int SUB_BITS = 7;
+    private static final int SUB = 1 << SUB_BITS;
+    // Values are capped at 2^MAX_BITS ns (about 18 minutes)
+    private static final int MAX_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    private final long[] counts = new long[(MAX_BITS - SUB_BITS + 1) * SUB];
+    private long total;
+    private long max;
+    private long sum;
+
+    public void record(long nanos) {
+        long v = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts[index(v)]++;
+        total++;
+        sum += v;
+        if (v > max) max = v;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public long count() {
+        return total;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    // Smallest recorded bucket value that at least percentile% of values are at
+    // or below (reported as the bucket's highest value, like HdrHistogram)
+    public long percentile(double percentile) {
+        if (total == 0) return 0;
+        long wanted = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= wanted) return Math.min(highestEquivalent(i), max);
+        }
+        return max;
+    }
+
+    private static int index(long v) {
+        if (v < 2 * SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((v >>> shift) - SUB);
+    }
+
+    private static long highestEquivalent(int index) {
+        if (index < 2 * SUB) return index;
+        int shift = index / SUB - 1;
+        long lowest = (long) (index % SUB + SUB) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
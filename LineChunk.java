@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A chunk of whole lines of log text, cut into leaves of about leafSize
+// bytes (also at line ends) for fork/join tasks to parse in parallel. See
+// StatementExport and Reconcile.
+final class LineChunk {
+    final byte[] buffer;
+    private final int[] leafStarts;
+
+    LineChunk(byte[] buffer, int length, int leafSize) {
+        this.buffer = buffer;
+        int[] starts = new int[length / leafSize + 2];
+        int count = 0;
+        int start = 0;
+        while (start < length) {
+            if (count == starts.length - 1) starts = Arrays.copyOf(starts, starts.length * 2);
+            starts[count++] = start;
+            int next = Math.min(start + leafSize, length);
+            while (next < length && buffer[next - 1] != '\n') next++;
+            start = next;
+        }
+        starts[count] = length;
+        this.leafStarts = Arrays.copyOf(starts, count + 1);
+    }
+
+    int leaves() {
+        return leafStarts.length - 1;
+    }
+
+    int leafStart(int leaf) {
+        return leafStarts[leaf];
+    }
+
+    int leafEnd(int leaf) {
+        return leafStarts[leaf + 1];
+    }
+
+    // The lines from start (a line start) to end, without terminators
+    String line(int start, int end) {
+        if (end > start && buffer[end - 1] == '\r') end--;
+        return new String(buffer, start, end - start);
+    }
+
+    // Reads a stream a chunk at a time. A line is never cut between two
+    // chunks; a torn line at the very end is dropped.
+    static final class Reader {
+        private final InputStream in;
+        private final int chunkSize;
+        private final int leafSize;
+        // Bytes read so far, for progress
+        private final AtomicLong read;
+        private byte[] carried = new byte[0];
+        private boolean atEnd;
+
+        Reader(InputStream in, int chunkSize, int leafSize, AtomicLong read) {
+            this.in = in;
+            this.chunkSize = chunkSize;
+            this.leafSize = leafSize;
+            this.read = read;
+        }
+
+        // The next chunk, or null at the end
+        LineChunk next() throws IOException {
+            while (!atEnd) {
+                byte[] buffer = new byte[Math.max(chunkSize, carried.length * 2)];
+                System.arraycopy(carried, 0, buffer, 0, carried.length);
+                int length = carried.length;
+                int n;
+                while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) > 0) {
+                    length += n;
+                    read.addAndGet(n);
+                }
+                atEnd = length < buffer.length;
+                int end = length;
+                while (end > 0 && buffer[end - 1] != '\n') end--;
+                // The unfinished line goes with the next chunk
+                carried = Arrays.copyOfRange(buffer, end, length);
+                if (end > 0) return new LineChunk(buffer, end, leafSize);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Synthetic workload for capacity planning. Registers N depositors through
+// Depositor.register (the registration form's rules), then runs many virtual
+// users at once, each picking operations from a weighted mix and calling the
+// same AccountService methods as the login screen and AccountGUI, without
+// the dialogs. Every call is timed end to end (including the wait for the
+// transaction log) into per-thread LatencyHistograms, and the report gives
+// p50/p99/p99.9 per operation and the sustained rate. Raising --users until
+// p99 climbs shows where file contention starts to hurt.
+//
+// With --server host:port the virtual users go through BankClient to a
+// BankServer instead (each depositor logged in once up front), which load
+// tests the server over loopback; registration and opening deposits still
+// use the files here, so run it in the server's directory.
+//
+// Works on the data files in the current directory; run it in a scratch
+// copy, not on production data.
+public class LoadGenerator {
+    private enum Op {
+        REGISTER, LOGIN, DEPOSIT, WITHDRAW, TRANSFER, STATUS
+    }
+
+    private static final String PIN = "1234";
+    private static final String PREFIX = "load";
+
+    private final AccountService accounts;
+    // Where the virtual users' operations go: accounts, or a BankClient
+    private final Accounts target;
+    private final int depositors;
+    private final int users;
+    private final long durationNanos;
+    private final long warmupNanos;
+    // Cumulative weights of the operations a virtual user picks from
+    private final Op[] mixOps;
+    private final int[] mixWeights;
+
+    private final LatencyHistogram[] totals = new LatencyHistogram[Op.values().length];
+    private final long[] rejected = new long[Op.values().length];
+
+    public LoadGenerator(AccountService accounts, int depositors, int users, long durationMillis, long warmupMillis, String mix) {
+        this(accounts, accounts, depositors, users, durationMillis, warmupMillis, mix);
+    }
+
+    public LoadGenerator(AccountService accounts, Accounts target, int depositors, int users, long durationMillis, long warmupMillis, String mix) {
+        this.accounts = accounts;
+        this.target = target;
+        this.depositors = depositors;
+        this.users = users;
+        this.durationNanos = durationMillis * 1_000_000L;
+        this.warmupNanos = warmupMillis * 1_000_000L;
+        List<Op> ops = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        int sum = 0;
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2) throw new IllegalArgumentException("Mix must look like login=20,deposit=30: " + mix);
+            Op op = Op.valueOf(kv[0].trim().toUpperCase(Locale.ROOT));
+            if (op == Op.REGISTER) throw new IllegalArgumentException("Registration is not part of the mix");
+            int weight = Integer.parseInt(kv[1].trim());
+            if (weight <= 0) continue;
+            sum += weight;
+            ops.add(op);
+            weights.add(sum);
+        }
+        if (ops.isEmpty()) throw new IllegalArgumentException("Empty mix: " + mix);
+        mixOps = ops.toArray(new Op[0]);
+        mixWeights = new int[weights.size()];
+        for (int i = 0; i < mixWeights.length; i++) mixWeights[i] = weights.get(i);
+        for (int i = 0; i < totals.length; i++) totals[i] = new LatencyHistogram();
+    }
+
+    static String name(int i) {
+        return PREFIX + i;
+    }
+
+    // Registers the synthetic depositors that do not exist yet, giving each
+    // an opening deposit so withdrawals and transfers mostly succeed
+    public void createDepositors(PrintStream out) throws IOException {
+        LatencyHistogram histogram = totals[Op.REGISTER.ordinal()];
+        int created = 0;
+        for (int i = 0; i < depositors; i++) {
+            String name = name(i);
+            if (accounts.exists(name)) continue;
+            long start = System.nanoTime();
+            try {
+                Depositor.register(name, i % 2 == 0 ? "Male" : "Female", String.valueOf(18 + i % 60), PIN);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                rejected[Op.REGISTER.ordinal()]++;
+                continue;
+            }
+            histogram.record(System.nanoTime() - start);
+            created++;
+        }
+        for (int i = 0; i < depositors; i++) {
+            if (accounts.getBalance(name(i)) == 0) accounts.deposit(name(i), 1_000_000_00L);
+        }
+        out.printf("%d depositors (%d new)%n", depositors, created);
+        if (target != accounts) {
+            // Sessions for every depositor, so any virtual user can act for any of them
+            for (int i = 0; i < depositors; i++) {
+                if (target.login(name(i), PIN) != AccountService.Login.OK) throw new IOException("Server refused login for " + name(i));
+            }
+            out.printf("%d sessions opened%n", depositors);
+        }
+    }
+
+    // Runs the virtual users for the warmup and then the measured duration
+    public void run(PrintStream out) throws InterruptedException {
+        LatencyHistogram[][] perThread = new LatencyHistogram[users][];
+        long[][] rejectedPerThread = new long[users][];
+        CountDownLatch ready = new CountDownLatch(users);
+        long[] window = new long[2];
+        Thread[] threads = new Thread[users];
+        for (int u = 0; u < users; u++) {
+            LatencyHistogram[] histograms = new LatencyHistogram[totals.length];
+            for (int i = 0; i < histograms.length; i++) histograms[i] = new LatencyHistogram();
+            long[] rejects = new long[totals.length];
+            perThread[u] = histograms;
+            rejectedPerThread[u] = rejects;
+            threads[u] = new Thread(() -> {
+                ready.countDown();
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                runUser(window, histograms, rejects);
+            }, "virtual-user-" + (u + 1));
+            threads[u].setDaemon(true);
+        }
+        long start = System.nanoTime();
+        window[0] = start + warmupNanos;
+        window[1] = window[0] + durationNanos;
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+
+        for (int u = 0; u < users; u++) {
+            for (int i = 0; i < totals.length; i++) {
+                totals[i].add(perThread[u][i]);
+                rejected[i] += rejectedPerThread[u][i];
+            }
+        }
+        printReport(out);
+    }
+
+    // One virtual user: operations back to back, recorded only inside the
+    // measured window (the warmup lets the JIT and page cache settle)
+    private void runUser(long[] window, LatencyHistogram[] histograms, long[] rejects) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long now;
+        while ((now = System.nanoTime()) < window[1]) {
+            Op op = pick(random.nextInt(mixWeights[mixWeights.length - 1]));
+            String user = name(random.nextInt(depositors));
+            boolean ok;
+            try {
+                ok = perform(op, user, random);
+            } catch (UncheckedIOException e) {
+                // The server could not be reached
+                ok = false;
+            }
+            long end = System.nanoTime();
+            if (now >= window[0]) {
+                histograms[op.ordinal()].record(end - now);
+                if (!ok) rejects[op.ordinal()]++;
+            }
+        }
+    }
+
+    private Op pick(int roll) {
+        for (int i = 0; i < mixWeights.length; i++) {
+            if (roll < mixWeights[i]) return mixOps[i];
+        }
+        return mixOps[mixOps.length - 1];
+    }
+
+    // What the login screen and AccountGUI do for each button, minus the dialogs
+    private boolean perform(Op op, String user, ThreadLocalRandom random) {
+        long amount = 100 + random.nextInt(100_000);
+        switch (op) {
+            case LOGIN:
+                return target.login(user, PIN) == AccountService.Login.OK;
+            case DEPOSIT:
+                return target.deposit(user, amount) == AccountService.Result.OK;
+            case WITHDRAW:
+                return target.withdraw(user, amount) == AccountService.Result.OK;
+            case TRANSFER:
+                String recipient = name(random.nextInt(depositors));
+                if (!target.exists(recipient) || target.isDisabled(recipient)) return false;
+                return target.transfer(user, recipient, amount) == AccountService.Result.OK;
+            default:
+                // Check Balance, plus the session's still-allowed check
+                target.getBalance(user);
+                return target.exists(user) && !target.isDisabled(user);
+        }
+    }
+
+    private void printReport(PrintStream out) {
+        double seconds = durationNanos / 1e9;
+        long all = 0;
+        out.printf("%d virtual users, %.0f s measured%n", users, seconds);
+        out.printf("%-10s %10s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "ops/s", "p50 us", "p99 us", "p99.9 us", "max us", "rejected");
+        for (Op op : Op.values()) {
+            LatencyHistogram h = totals[op.ordinal()];
+            if (h.count() == 0) continue;
+            // Registration happens before the measured window; no rate for it
+            String rate = op == Op.REGISTER ? "-" : String.format("%.0f", h.count() / seconds);
+            if (op != Op.REGISTER) all += h.count();
+            out.printf("%-10s %10d %10s %10.1f %10.1f %10.1f %10.1f %10d%n",
+                    op.name().toLowerCase(Locale.ROOT), h.count(), rate,
+                    h.percentile(50) / 1e3, h.percentile(99) / 1e3, h.percentile(99.9) / 1e3, h.max() / 1e3,
+                    rejected[op.ordinal()]);
+        }
+        out.printf("Sustained %.0f ops/s%n", all / seconds);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int depositors = 1000;
+        int users = 16;
+        long duration = 30;
+        long warmup = 5;
+        String mix = "login=20,deposit=25,withdraw=20,transfer=20,status=15";
+        String server = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                switch (args[i]) {
+                    case "--depositors": depositors = Integer.parseInt(value); i++; break;
+                    case "--users": users = Integer.parseInt(value); i++; break;
+                    case "--duration": duration = Long.parseLong(value); i++; break;
+                    case "--warmup": warmup = Long.parseLong(value); i++; break;
+                    case "--mix": mix = Objects.requireNonNull(value); i++; break;
+                    case "--server": server = Objects.requireNonNull(value); i++; break;
+                    default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            if (depositors < 1 || users < 1 || duration < 1 || warmup < 0) throw new IllegalArgumentException("Counts must be positive");
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: LoadGenerator [--depositors <n>] [--users <n>] [--duration <s>] [--warmup <s>]");
+            System.err.println("                     [--mix login=20,deposit=25,withdraw=20,transfer=20,status=15]");
+            System.err.println("                     [--server <host:port>]");
+            System.exit(2);
+            return;
+        }
+
+        Shards shards = Shards.open();
+        AccountService accounts = new AccountService(null, shards);
+        accounts.loadCredentials();
+        accounts.loadBalances();
+
+        LoadGenerator load;
+        try {
+            Accounts target = server != null ? new BankClient(server) : accounts;
+            load = new LoadGenerator(accounts, target, depositors, users, duration * 1000, warmup * 1000, mix);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Bad --mix: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        try {
+            load.createDepositors(System.out);
+            load.run(System.out);
+        } finally {
+            shards.close();
+        }
+        System.exit(0);
+    }
+}
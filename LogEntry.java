@@ -0,0 +1,148 @@
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One parsed TransactionLog.txt line. Two shapes are written:
+//   user,Deposit|Withdraw,amount,balance,timestamp
+//   user,Transfer Out|Transfer In,amount,balance,To: x|From: x,timestamp
+// so the timestamp is always the last field and a transfer has one extra.
+// Timestamps are epoch milliseconds; logs from before that carry
+// Date.toString() text until compaction converts them.
+public final class LogEntry {
+    // Kinds kept per line in TransactionLog.idx
+    public static final byte OTHER = 0;
+    public static final byte DEPOSIT = 1;
+    public static final byte WITHDRAW = 2;
+    public static final byte TRANSFER_IN = 3;
+    public static final byte TRANSFER_OUT = 4;
+
+    public final String user;
+    public final String type;
+    public final long amount;
+    public final long balance;
+    // "To: x" / "From: x" for transfers, otherwise null
+    public final String counterparty;
+    public final String timestamp;
+
+    private static final AtomicLong LAST_STAMP = new AtomicLong();
+    private static final DateTimeFormatter DISPLAY = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private LogEntry(String user, String type, long amount, long balance, String counterparty, String timestamp) {
+        this.user = user;
+        this.type = type;
+        this.amount = amount;
+        this.balance = balance;
+        this.counterparty = counterparty;
+        this.timestamp = timestamp;
+    }
+
+    // Null for a line of neither shape (torn, or not a transaction)
+    public static LogEntry parse(String line) {
+        String[] parts = line.split(",", 6);
+        if (parts.length < 5) return null;
+        try {
+            long amount = Money.parse(parts[2]);
+            long balance = Money.parse(parts[3]);
+            if (parts.length == 6) {
+                return new LogEntry(parts[0].trim(), parts[1].trim(), amount, balance, parts[4].trim(), parts[5].trim());
+            }
+            return new LogEntry(parts[0].trim(), parts[1].trim(), amount, balance, null, parts[4].trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Timestamp for a new line: epoch millis, never less than the last one
+    // handed out in this process, so times do not go back with the clock
+    public static long now() {
+        return LAST_STAMP.accumulateAndGet(System.currentTimeMillis(), Math::max);
+    }
+
+    // True for an epoch-millis timestamp (as opposed to old Date.toString() text)
+    public static boolean isEpoch(String timestamp) {
+        if (timestamp.isEmpty() || timestamp.length() > 18) return false;
+        for (int i = 0; i < timestamp.length(); i++) {
+            char c = timestamp.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    // The line again, in the shape it was parsed from
+    public String toLine() {
+        StringBuilder sb = new StringBuilder(96);
+        sb.append(user).append(',').append(type).append(',');
+        Money.appendTo(sb, amount);
+        sb.append(',');
+        Money.appendTo(sb, balance);
+        sb.append(',');
+        if (counterparty != null) sb.append(counterparty).append(',');
+        return sb.append(timestamp).toString();
+    }
+
+    // The timestamp as local "yyyy-MM-dd HH:mm:ss" for the screen
+    public String displayTime() {
+        return isEpoch(timestamp) ? formatTime(Long.parseLong(timestamp)) : timestamp;
+    }
+
+    public static String formatTime(long millis) {
+        return DISPLAY.format(Instant.ofEpochMilli(millis));
+    }
+
+    public byte kind() {
+        return kind(type);
+    }
+
+    // What the line did to the balance: plus for money in, minus for money
+    // out, 0 for a line of another type
+    public long change() {
+        switch (kind()) {
+            case DEPOSIT:
+            case TRANSFER_IN:
+                return amount;
+            case WITHDRAW:
+            case TRANSFER_OUT:
+                return -amount;
+            default:
+                return 0;
+        }
+    }
+
+    public static byte kind(String type) {
+        switch (type) {
+            case "Deposit": return DEPOSIT;
+            case "Withdraw": return WITHDRAW;
+            case "Transfer In": return TRANSFER_IN;
+            case "Transfer Out": return TRANSFER_OUT;
+            default: return OTHER;
+        }
+    }
+
+    // Reads either timestamp format as epoch millis. Old Date.toString() text
+    // written in the same second repeats, so the last result is reused.
+    // Not thread-safe; each TransactionLog keeps its own.
+    static final class TimestampParser {
+        private final SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+        private String lastText;
+        private long lastMillis;
+
+        // Epoch millis, or -1 if the text is not a timestamp
+        long parse(String text) {
+            if (isEpoch(text)) return Long.parseLong(text);
+            if (text.equals(lastText)) return lastMillis;
+            long millis;
+            try {
+                millis = format.parse(text).getTime();
+            } catch (ParseException e) {
+                millis = -1;
+            }
+            lastText = text;
+            lastMillis = millis;
+            return millis;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// One rolled-over piece of the transaction log (see TransactionLog). Its
+// lines keep the offsets they had in the log: the segment covers
+// [start, end) and holds length bytes of lines from start (less than
+// end - start once compaction has dropped some).
+//
+// A segment is stored raw (the old live file, renamed) until it is sealed:
+// then its lines are Deflater-compressed in blocks of about BLOCK_SIZE
+// bytes, each ending at a line end, followed by the block index and a
+// fixed-size trailer. Reading a line inflates only the block it is in.
+final class LogSegment {
+    static final int BLOCK_SIZE = 64 * 1024;
+    private static final int MAGIC = 0x54534731; // "TSG1"
+    // start, end, length, index position, block count, magic
+    private static final int TRAILER_SIZE = 8 + 8 + 8 + 8 + 4 + 4;
+
+    final File file;
+    final boolean compressed;
+    final long start;
+    final long end;
+    final long length;
+
+    private final long indexPosition;
+    private final int blockCount;
+    // Per block: offset of its first line from start, where it is in the
+    // file, and its compressed and inflated sizes (read on first use)
+    private long[] blockStarts;
+    private long[] positions;
+    private int[] sizes;
+    private int[] lengths;
+
+    private LogSegment(File file, boolean compressed, long start, long end, long length, long indexPosition, int blockCount) {
+        this.file = file;
+        this.compressed = compressed;
+        this.start = start;
+        this.end = end;
+        this.length = length;
+        this.indexPosition = indexPosition;
+        this.blockCount = blockCount;
+    }
+
+    static LogSegment raw(File file, long start) {
+        long length = file.length();
+        return new LogSegment(file, false, start, start + length, length, 0, 0);
+    }
+
+    static LogSegment sealed(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < TRAILER_SIZE) throw new IOException(file.getName() + " is not a log segment");
+            raf.seek(raf.length() - TRAILER_SIZE);
+            long start = raf.readLong();
+            long end = raf.readLong();
+            long length = raf.readLong();
+            long indexPosition = raf.readLong();
+            int blockCount = raf.readInt();
+            if (raf.readInt() != MAGIC) throw new IOException(file.getName() + " is not a log segment");
+            return new LogSegment(file, true, start, end, length, indexPosition, blockCount);
+        }
+    }
+
+    // True if the log offset is a byte of this segment's lines
+    boolean contains(long offset) {
+        return offset >= start && offset < start + length;
+    }
+
+    int blockCount() {
+        return blockCount;
+    }
+
+    // Offset (from start) of the block's first line
+    long blockStart(RandomAccessFile raf, int block) throws IOException {
+        loadBlockIndex(raf);
+        return blockStarts[block];
+    }
+
+    // The block holding the byte at local (an offset from start)
+    int blockOf(RandomAccessFile raf, long local) throws IOException {
+        loadBlockIndex(raf);
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (blockStarts[mid] <= local) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // Inflates one block; counts the compressed bytes read
+    byte[] readBlock(RandomAccessFile raf, int block, Inflater inflater, Metrics.Counter bytesRead) throws IOException {
+        loadBlockIndex(raf);
+        byte[] input = new byte[sizes[block]];
+        raf.seek(positions[block]);
+        raf.readFully(input);
+        bytesRead.add(input.length);
+        byte[] output = new byte[lengths[block]];
+        inflater.reset();
+        inflater.setInput(input);
+        try {
+            int n = 0;
+            while (n < output.length) {
+                int inflated = inflater.inflate(output, n, output.length - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) break;
+                n += inflated;
+            }
+            if (n != output.length) throw new IOException("Short block " + block + " in " + file.getName());
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + block + " in " + file.getName(), e);
+        }
+        return output;
+    }
+
+    private synchronized void loadBlockIndex(RandomAccessFile raf) throws IOException {
+        if (blockStarts != null) return;
+        long[] starts = new long[blockCount];
+        long[] filePositions = new long[blockCount];
+        int[] compressedSizes = new int[blockCount];
+        int[] inflatedSizes = new int[blockCount];
+        byte[] bytes = new byte[blockCount * 24];
+        raf.seek(indexPosition);
+        raf.readFully(bytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        for (int i = 0; i < blockCount; i++) {
+            starts[i] = in.readLong();
+            filePositions[i] = in.readLong();
+            compressedSizes[i] = in.readInt();
+            inflatedSizes[i] = in.readInt();
+        }
+        positions = filePositions;
+        sizes = compressedSizes;
+        lengths = inflatedSizes;
+        blockStarts = starts;
+    }
+
+    // The segment's lines as one stream, inflating a block at a time
+    InputStream open(Metrics.Counter bytesRead) throws IOException {
+        if (!compressed) return new FileInputStream(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        Inflater inflater = new Inflater();
+        return new InputStream() {
+            private int next;
+            private byte[] block = new byte[0];
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                while (position == block.length) {
+                    if (next == blockCount) return -1;
+                    block = readBlock(raf, next++, inflater, bytesRead);
+                    position = 0;
+                }
+                int n = Math.min(len, block.length - position);
+                System.arraycopy(block, position, b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                inflater.end();
+                raf.close();
+            }
+        };
+    }
+
+    // Writes a sealed segment. Bytes go in as they come (whole lines, or raw
+    // file contents); blocks are cut at line ends so no line spans two.
+    static final class Writer implements Closeable {
+        private final FileOutputStream file;
+        private final DataOutputStream out;
+        private final Deflater deflater = new Deflater();
+        private final long start;
+        private byte[] block = new byte[BLOCK_SIZE * 2];
+        private int blockSize;
+        private byte[] compressed = new byte[BLOCK_SIZE];
+        // Bytes of lines taken, and of blocks written to the file
+        long length;
+        long written;
+
+        private long[] starts = new long[64];
+        private long[] positions = new long[64];
+        private int[] sizes = new int[64];
+        private int[] lengths = new int[64];
+        private int count;
+
+        Writer(File target, long start) throws IOException {
+            this.file = new FileOutputStream(target);
+            this.out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+            this.start = start;
+        }
+
+        void write(byte[] bytes, int offset, int n) throws IOException {
+            if (blockSize + n > block.length) {
+                block = Arrays.copyOf(block, Math.max(block.length * 2, blockSize + n));
+            }
+            System.arraycopy(bytes, offset, block, blockSize, n);
+            blockSize += n;
+            length += n;
+            while (blockSize >= BLOCK_SIZE) {
+                int cut = cutPoint();
+                if (cut < 0) break;
+                writeBlock(cut);
+            }
+        }
+
+        // End of the last line that fits in BLOCK_SIZE, or of the first line
+        // if even that one is longer; -1 while no line has ended
+        private int cutPoint() {
+            for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+                if (block[i] == '\n') return i + 1;
+            }
+            for (int i = BLOCK_SIZE; i < blockSize; i++) {
+                if (block[i] == '\n') return i + 1;
+            }
+            return -1;
+        }
+
+        private void writeBlock(int n) throws IOException {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+                sizes = Arrays.copyOf(sizes, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            starts[count] = length - blockSize;
+            positions[count] = written;
+            lengths[count] = n;
+            deflater.reset();
+            deflater.setInput(block, 0, n);
+            deflater.finish();
+            int size = 0;
+            while (!deflater.finished()) {
+                int deflated = deflater.deflate(compressed);
+                out.write(compressed, 0, deflated);
+                size += deflated;
+            }
+            sizes[count] = size;
+            written += size;
+            count++;
+            System.arraycopy(block, n, block, 0, blockSize - n);
+            blockSize -= n;
+        }
+
+        // Writes what is left, the block index and the trailer, and syncs.
+        // end is where the next segment starts.
+        void finish(long end) throws IOException {
+            if (start + length > end) throw new IOException("Segment at " + start + " outgrew its range");
+            if (blockSize > 0) writeBlock(blockSize);
+            long indexPosition = written;
+            for (int i = 0; i < count; i++) {
+                out.writeLong(starts[i]);
+                out.writeLong(positions[i]);
+                out.writeInt(sizes[i]);
+                out.writeInt(lengths[i]);
+            }
+            out.writeLong(start);
+            out.writeLong(end);
+            out.writeLong(length);
+            out.writeLong(indexPosition);
+            out.writeInt(count);
+            out.writeInt(MAGIC);
+            out.flush();
+            file.getFD().sync();
+            written = indexPosition + count * 24L + TRAILER_SIZE;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            out.close();
+        }
+    }
+}
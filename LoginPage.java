@@ -10,24 +10,25 @@ public class LoginPage extends JFrame implements ActionListener {
     private JPasswordField pinField;
     private JButton loginButton, registerButton;
 
-    // Map to store Name and PIN (loaded from Depositor.txt)
-    private Map<String, String> userPinMap = new HashMap<>();
-    // Map to store Name and Balance (loaded from Balance.txt)
-    private Map<String, Double> userBalanceMap = new HashMap<>();
-    // Map to store Name and Status (from Depositor.txt)
-    private Map<String, String> userStatusMap = new HashMap<>();
+    // Credentials, statuses, balances and money movement (no UI code): the
+    // local files, or a BankServer when started with --server
+    private Accounts accounts;
+    // Folds the balance journals into their checkpoints in the background (local only)
+    private Compactor compactor;
+    // Holds the login button while accounts load or a login is checked
+    private Background.Busy busy;
 
     public LoginPage() {
+        this(openLocal());
+    }
+
+    public LoginPage(Accounts accounts) {
+        this.accounts = accounts;
         setTitle("Login Page");
         setSize(400, 220);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
 
-        // Load credentials from Depositor.txt
-        loadCredentials();
-        // Load balances from Balance.txt (create if doesn't exist)
-        loadBalances();
-
         // Create components
         JLabel userLabel = new JLabel("User:");
         JLabel pinLabel = new JLabel("PIN:");
@@ -38,6 +39,10 @@ public class LoginPage extends JFrame implements ActionListener {
         registerButton = new JButton("Register");
         loginButton.addActionListener(this);
         registerButton.addActionListener(this);
+        if (!(accounts instanceof AccountService)) {
+            // Registration writes Depositor.dat, so it needs a local terminal
+            registerButton.setEnabled(false);
+        }
 
         // Layout setup
         JPanel panel = new JPanel(new GridBagLayout());
@@ -67,94 +72,38 @@ public class LoginPage extends JFrame implements ActionListener {
         panel.add(registerButton, gbc);
 
         add(panel);
-    }
 
-    // Loads Name, PIN, and Status from Depositor.txt
-    private void loadCredentials() {
-        File file = new File("Depositor.txt");
-        if (!file.exists()) {
-            return;
-        }
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                String name = "";
-                String pin = "";
-                String status = "Enabled"; // Default status
-
-                for (String part : parts) {
-                    part = part.trim();
-                    if (part.startsWith("Name:")) {
-                        name = part.substring(5).trim();
-                    } else if (part.startsWith("PIN:")) {
-                        pin = part.substring(4).trim();
-                    } else if (part.startsWith("Status:")) {
-                        status = part.substring(7).trim();
-                    }
-                }
-                if (!name.isEmpty() && !pin.isEmpty()) {
-                    userPinMap.put(name, pin);
-                    userStatusMap.put(name, status);
+        busy = new Background.Busy(this, loginButton);
+        if (accounts instanceof AccountService) {
+            AccountService local = (AccountService) accounts;
+            // Load in the background, with Login held until it is done
+            Background.run(busy, () -> load(local), (error, failure) -> {
+                if (error != null) {
+                    JOptionPane.showMessageDialog(this, error, "File Error", JOptionPane.ERROR_MESSAGE);
                 }
-            }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error reading Depositor.txt: " + e.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+                compactor = new Compactor();
+                compactor.add("balances", local::compactBalances);
+                compactor.start();
+            });
         }
     }
 
-    // Loads user balances from Balance.txt or initializes to 0 if not found
-    private void loadBalances() {
-        File file = new File("Balance.txt");
-        if (!file.exists()) {
-            for (String user : userPinMap.keySet()) {
-                userBalanceMap.put(user, 0.0);
-            }
-            saveAllBalances();
-            return;
-        }
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                String name = "";
-                double balance = 0.0;
-                for (String part : parts) {
-                    part = part.trim();
-                    if (part.startsWith("Name:")) {
-                        name = part.substring(5).trim();
-                    } else if (part.startsWith("Balance:")) {
-                        try {
-                            balance = Double.parseDouble(part.substring(8).trim());
-                        } catch (NumberFormatException e) {
-                            balance = 0.0;
-                        }
-                    }
-                }
-                if (!name.isEmpty()) {
-                    userBalanceMap.put(name, balance);
-                }
-            }
-            for (String user : userPinMap.keySet()) {
-                if (!userBalanceMap.containsKey(user)) {
-                    userBalanceMap.put(user, 0.0);
-                }
-            }
-            saveAllBalances();
+    // Opens Depositor.dat (importing Depositor.txt on first run), then loads
+    // balances from the last checkpoint and the journal after it. Returns
+    // what could not be read, or null.
+    private static String load(AccountService local) {
+        StringBuilder errors = new StringBuilder();
+        try {
+            local.loadCredentials();
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error reading Balance.txt: " + e.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+            errors.append("Error reading Depositor.dat: ").append(e.getMessage()).append('\n');
         }
-    }
-
-    // Saves all balances to Balance.txt
-    private void saveAllBalances() {
-        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter("Balance.txt")))) {
-            for (Map.Entry<String, Double> entry : userBalanceMap.entrySet()) {
-                out.printf("Name: %s, Balance: %.2f%n", entry.getKey(), entry.getValue());
-            }
+        try {
+            local.loadBalances();
         } catch (IOException e) {
-            // Ignore error for now
+            errors.append("Error reading balances: ").append(e.getMessage()).append('\n');
         }
+        return errors.length() == 0 ? null : errors.toString().trim();
     }
 
     @Override
@@ -168,23 +117,27 @@ public class LoginPage extends JFrame implements ActionListener {
                 return;
             }
 
-            if (userPinMap.containsKey(user) && userPinMap.get(user).equals(pin)) {
-                // Always reload credentials to get the latest status (in case Admin changed status)
-                reloadUserStatus(user);
-
-                // Check if account is enabled
-                String status = userStatusMap.getOrDefault(user, "Enabled");
-                if ("Disabled".equalsIgnoreCase(status)) {
-                    JOptionPane.showMessageDialog(this, "Your account is currently DISABLED. Please contact the administrator.", "Account Disabled", JOptionPane.ERROR_MESSAGE);
+            Background.run(busy, () -> accounts.login(user, pin), (result, failure) -> {
+                if (failure != null) {
+                    JOptionPane.showMessageDialog(this, "Error checking your login: " + failure.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
                     return;
                 }
-
-                double balance = userBalanceMap.getOrDefault(user, 0.0);
-                new AccountGUI(user, balance, this).setVisible(true);
-                setVisible(false);
-            } else {
-                JOptionPane.showMessageDialog(this, "Invalid User or PIN!", "Error", JOptionPane.ERROR_MESSAGE);
-            }
+                switch (result) {
+                    case OK:
+                        new AccountGUI(user, this).setVisible(true);
+                        setVisible(false);
+                        break;
+                    case ACCOUNT_DISABLED:
+                        JOptionPane.showMessageDialog(this, "Your account is currently DISABLED. Please contact the administrator.", "Account Disabled", JOptionPane.ERROR_MESSAGE);
+                        break;
+                    case TOO_MANY_ATTEMPTS:
+                        JOptionPane.showMessageDialog(this, "Too many wrong PINs. Please wait a while before trying again.", "Error", JOptionPane.ERROR_MESSAGE);
+                        break;
+                    default:
+                        JOptionPane.showMessageDialog(this, "Invalid User or PIN!", "Error", JOptionPane.ERROR_MESSAGE);
+                        break;
+                }
+            });
         } else if (e.getSource() == registerButton) {
             // Open the Depositor registration window (assumes Depositor.java is in the same project)
             SwingUtilities.invokeLater(() -> {
@@ -193,81 +146,45 @@ public class LoginPage extends JFrame implements ActionListener {
         }
     }
 
-    // Updates the balance in the map and saves to file
-    public void updateBalance(String user, double newBalance) {
-        userBalanceMap.put(user, newBalance);
-        saveAllBalances();
-    }
-
-    // Records transaction for monitoring (append to file)
-    public void recordTransaction(String user, String type, double amount, double balance) {
-        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter("TransactionLog.txt", true)))) {
-            out.printf("%s,%s,%.2f,%.2f,%s%n", user, type, amount, balance, new Date());
-        } catch (IOException e) {
-            // Ignore error for now
-        }
+    // "--server host:port" makes this a thin client of a BankServer
+    public static void main(String[] args) {
+        String server = args.length == 2 && args[0].equals("--server") ? args[1] : null;
+        SwingUtilities.invokeLater(() -> {
+            new LoginPage(server != null ? new BankClient(server) : openLocal()).setVisible(true);
+        });
     }
 
-    // Records transfer for both sender and recipient
-    public void recordTransfer(String sender, String recipient, double amount, double senderBalance, double recipientBalance) {
-        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter("TransactionLog.txt", true)))) {
-            String dateStr = new Date().toString();
-            out.printf("%s,Transfer Out,%.2f,%.2f,To: %s,%s%n", sender, amount, senderBalance, recipient, dateStr);
-            out.printf("%s,Transfer In,%.2f,%.2f,From: %s,%s%n", recipient, amount, recipientBalance, sender, dateStr);
+    // The bank's files in the working directory. Without a readable shard
+    // layout there is nothing to work with, so that error ends the program.
+    private static AccountService openLocal() {
+        try {
+            return new AccountService();
         } catch (IOException e) {
-            // Ignore error for now
+            JOptionPane.showMessageDialog(null, "Error reading " + Shards.PROPERTIES + ": " + e.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+            return null;
         }
     }
 
-    // Reloads the user's status from Depositor.txt for real-time admin changes
-    private void reloadUserStatus(String user) {
-        File file = new File("Depositor.txt");
-        if (!file.exists()) return;
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            String foundStatus = null;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                String name = "";
-                String status = "Enabled";
-                for (String part : parts) {
-                    part = part.trim();
-                    if (part.startsWith("Name:")) {
-                        name = part.substring(5).trim();
-                    } else if (part.startsWith("Status:")) {
-                        status = part.substring(7).trim();
-                    }
-                }
-                if (name.equals(user)) {
-                    foundStatus = status;
-                    break;
-                }
-            }
-            if (foundStatus != null) {
-                userStatusMap.put(user, foundStatus);
-            }
-        } catch (IOException e) {
-            // Ignore error for now
-        }
-    }
-
-    public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> {
-            new LoginPage().setVisible(true);
-        });
-    }
-
     // Inner class for the Account GUI
     class AccountGUI extends JFrame implements ActionListener {
         private String user;
-        private double balance;
         private LoginPage parent;
         private JButton depositButton, withdrawButton, checkBalanceButton, logoutButton, transferButton;
+        // Holds the buttons while an operation is in flight
+        private Background.Busy busy;
 
-        public AccountGUI(String user, double balance, LoginPage parent) {
+        // Logs the session out as soon as the account is disabled or deleted
+        private final java.util.function.Consumer<String> statusWatcher = changed -> {
+            if (changed.equals(user)) {
+                SwingUtilities.invokeLater(this::checkStillAllowed);
+            }
+        };
+
+        public AccountGUI(String user, LoginPage parent) {
             this.user = user;
-            this.balance = balance;
             this.parent = parent;
+            parent.accounts.addChangeListener(statusWatcher);
 
             setTitle(user + " - Account");
             setSize(750, 120);
@@ -295,6 +212,7 @@ public class LoginPage extends JFrame implements ActionListener {
 
             setLayout(new BorderLayout());
             add(buttonPanel, BorderLayout.SOUTH);
+            busy = new Background.Busy(this, depositButton, withdrawButton, checkBalanceButton, transferButton, logoutButton);
         }
 
         @Override // 4. Polymorphism - Overriding actionPerformed from ActionListener interface
@@ -303,12 +221,10 @@ public class LoginPage extends JFrame implements ActionListener {
                 String input = JOptionPane.showInputDialog(this, "Enter deposit amount (₱):", "Deposit", JOptionPane.PLAIN_MESSAGE);
                 if (input != null && !input.trim().isEmpty()) {
                     try {
-                        double amount = Double.parseDouble(input.trim());
+                        long amount = Money.parse(input);
                         if (amount <= 0) throw new NumberFormatException();
-                        balance += amount;
-                        parent.updateBalance(user, balance);
-                        parent.recordTransaction(user, "Deposit", amount, balance);
-                        JOptionPane.showMessageDialog(this, "Deposit successful!");
+                        Background.run(busy, () -> parent.accounts.deposit(user, amount),
+                                (result, failure) -> showResult(result, failure, "Deposit successful!"));
                     } catch (NumberFormatException ex) {
                         JOptionPane.showMessageDialog(this, "Invalid amount!", "Input Error", JOptionPane.ERROR_MESSAGE);
                     }
@@ -317,27 +233,96 @@ public class LoginPage extends JFrame implements ActionListener {
                 String input = JOptionPane.showInputDialog(this, "Enter withdraw amount (₱):", "Withdraw", JOptionPane.PLAIN_MESSAGE);
                 if (input != null && !input.trim().isEmpty()) {
                     try {
-                        double amount = Double.parseDouble(input.trim());
+                        long amount = Money.parse(input);
                         if (amount <= 0) throw new NumberFormatException();
-                        if (amount > balance) {
-                            JOptionPane.showMessageDialog(this, "Insufficient balance!", "Error", JOptionPane.ERROR_MESSAGE);
-                        } else {
-                            balance -= amount;
-                            parent.updateBalance(user, balance);
-                            parent.recordTransaction(user, "Withdraw", amount, balance);
-                            JOptionPane.showMessageDialog(this, "Withdrawal successful!");
-                        }
+                        Background.run(busy, () -> parent.accounts.withdraw(user, amount),
+                                (result, failure) -> showResult(result, failure, "Withdrawal successful!"));
                     } catch (NumberFormatException ex) {
                         JOptionPane.showMessageDialog(this, "Invalid amount!", "Input Error", JOptionPane.ERROR_MESSAGE);
                     }
                 }
             } else if (e.getSource() == checkBalanceButton) {
-                JOptionPane.showMessageDialog(this, "Current Balance: \u20B1" + String.format("%.2f", balance));
+                Background.run(busy, () -> parent.accounts.getBalance(user), (balance, failure) -> {
+                    if (failure != null) {
+                        showFailure(AccountService.Result.STORAGE_ERROR);
+                    } else {
+                        JOptionPane.showMessageDialog(this, "Current Balance: \u20B1" + Money.format(balance));
+                    }
+                });
             } else if (e.getSource() == transferButton) {
                 handleTransfer();
             } else if (e.getSource() == logoutButton) {
-                setVisible(false);
-                parent.setVisible(true);
+                logout();
+            }
+        }
+
+        private void logout() {
+            parent.accounts.removeChangeListener(statusWatcher);
+            Background.submit(() -> {
+                parent.accounts.logout(user);
+                return null;
+            });
+            setVisible(false);
+            parent.setVisible(true);
+        }
+
+        // Looks the account up off the EDT; the session stays open if it
+        // cannot be read, since the next operation will report that
+        private void checkStillAllowed() {
+            if (!isVisible()) return;
+            Background.run(null, () -> {
+                if (!parent.accounts.exists(user)) return AccountService.Result.NO_SUCH_ACCOUNT;
+                if (parent.accounts.isDisabled(user)) return AccountService.Result.ACCOUNT_DISABLED;
+                return AccountService.Result.OK;
+            }, (status, failure) -> {
+                if (failure != null || !isVisible()) return;
+                if (status == AccountService.Result.NO_SUCH_ACCOUNT) {
+                    JOptionPane.showMessageDialog(this, "Your account has been deleted by the administrator.", "Account Deleted", JOptionPane.ERROR_MESSAGE);
+                    logout();
+                } else if (status == AccountService.Result.ACCOUNT_DISABLED) {
+                    JOptionPane.showMessageDialog(this, "Your account has been DISABLED by the administrator.", "Account Disabled", JOptionPane.ERROR_MESSAGE);
+                    logout();
+                }
+            });
+        }
+
+        private void showResult(AccountService.Result result, Throwable failure, String success) {
+            if (failure != null) {
+                showFailure(AccountService.Result.STORAGE_ERROR);
+            } else if (result == AccountService.Result.OK) {
+                JOptionPane.showMessageDialog(this, success);
+            } else {
+                showFailure(result);
+            }
+        }
+
+        // Shows why the service refused an operation
+        private void showFailure(AccountService.Result result) {
+            switch (result) {
+                case INSUFFICIENT_FUNDS:
+                    JOptionPane.showMessageDialog(this, "Insufficient balance!", "Error", JOptionPane.ERROR_MESSAGE);
+                    break;
+                case ACCOUNT_DISABLED:
+                    JOptionPane.showMessageDialog(this, "Account is DISABLED. Please contact the administrator.", "Account Disabled", JOptionPane.ERROR_MESSAGE);
+                    break;
+                case NO_SUCH_ACCOUNT:
+                    JOptionPane.showMessageDialog(this, "Account does not exist.", "Error", JOptionPane.ERROR_MESSAGE);
+                    break;
+                case SAME_ACCOUNT:
+                    JOptionPane.showMessageDialog(this, "You cannot transfer to yourself!", "Input Error", JOptionPane.ERROR_MESSAGE);
+                    break;
+                case STORAGE_ERROR:
+                    JOptionPane.showMessageDialog(this, "Could not update the account files. Please try again.", "File Error", JOptionPane.ERROR_MESSAGE);
+                    break;
+                case NOT_CONFIRMED:
+                    JOptionPane.showMessageDialog(this, "The transaction went through, but its record could not be saved.\nDo not repeat it; check your balance and contact the administrator.", "File Error", JOptionPane.WARNING_MESSAGE);
+                    break;
+                case SESSION_EXPIRED:
+                    JOptionPane.showMessageDialog(this, "Your session has ended. Please log in again.", "Session Ended", JOptionPane.ERROR_MESSAGE);
+                    logout();
+                    break;
+                default:
+                    JOptionPane.showMessageDialog(this, "Invalid amount!", "Input Error", JOptionPane.ERROR_MESSAGE);
             }
         }
 
@@ -365,40 +350,36 @@ public class LoginPage extends JFrame implements ActionListener {
                     return;
                 }
 
-                if (!parent.userPinMap.containsKey(toUser)) {
-                    JOptionPane.showMessageDialog(this, "Recipient does not exist.", "Error", JOptionPane.ERROR_MESSAGE);
+                long transferAmount;
+                try {
+                    transferAmount = Money.parse(amountStr);
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(this, "Invalid amount!", "Input Error", JOptionPane.ERROR_MESSAGE);
                     return;
                 }
-                String status = parent.userStatusMap.getOrDefault(toUser, "Enabled");
-                if ("Disabled".equalsIgnoreCase(status)) {
-                    JOptionPane.showMessageDialog(this, "Recipient's account is DISABLED.", "Error", JOptionPane.ERROR_MESSAGE);
+                if (transferAmount <= 0) {
+                    JOptionPane.showMessageDialog(this, "Amount must be positive.", "Input Error", JOptionPane.ERROR_MESSAGE);
                     return;
                 }
 
-                try {
-                    double transferAmount = Double.parseDouble(amountStr);
-                    if (transferAmount <= 0) {
-                        JOptionPane.showMessageDialog(this, "Amount must be positive.", "Input Error", JOptionPane.ERROR_MESSAGE);
-                        return;
+                // Recipient checks, then the transfer (balance and recipient
+                // are re-checked under the account locks). The work returns
+                // what the recipient checks found, or null once the transfer
+                // itself ran; its result (which may be about the sender) then
+                // goes to showResult.
+                AccountService.Result[] transferResult = new AccountService.Result[1];
+                Background.run(busy, () -> {
+                    if (!parent.accounts.exists(toUser)) return "Recipient does not exist.";
+                    if (parent.accounts.isDisabled(toUser)) return "Recipient's account is DISABLED.";
+                    transferResult[0] = parent.accounts.transfer(user, toUser, transferAmount);
+                    return null;
+                }, (recipientProblem, failure) -> {
+                    if (recipientProblem != null) {
+                        JOptionPane.showMessageDialog(this, recipientProblem, "Error", JOptionPane.ERROR_MESSAGE);
+                    } else {
+                        showResult(transferResult[0], failure, "Transfer successful!\nYou sent ₱" + Money.format(transferAmount) + " to " + toUser + ".");
                     }
-                    if (transferAmount > balance) {
-                        JOptionPane.showMessageDialog(this, "Insufficient balance!", "Error", JOptionPane.ERROR_MESSAGE);
-                        return;
-                    }
-
-                    // Perform transfer
-                    double toUserBalance = parent.userBalanceMap.getOrDefault(toUser, 0.0);
-                    balance -= transferAmount;
-                    toUserBalance += transferAmount;
-
-                    parent.updateBalance(user, balance);
-                    parent.updateBalance(toUser, toUserBalance);
-                    parent.recordTransfer(user, toUser, transferAmount, balance, toUserBalance);
-
-                    JOptionPane.showMessageDialog(this, "Transfer successful!\nYou sent ₱" + String.format("%.2f", transferAmount) + " to " + toUser + ".");
-                } catch (NumberFormatException ex) {
-                    JOptionPane.showMessageDialog(this, "Invalid amount!", "Input Error", JOptionPane.ERROR_MESSAGE);
-                }
+                });
             }
         }
     }
@@ -0,0 +1,221 @@
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters and latency timers, shown in the Admin metrics tab
+// and published as JMX MBeans under "bank:" (jconsole, VisualVM). Recording
+// is a few LongAdder increments with nothing allocated, so it is cheap enough
+// for every deposit; callers keep their Timer or Counter in a static field.
+// -Dbank.metrics=false turns recording off.
+public final class Metrics {
+    static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("bank.metrics", "true"));
+
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public interface TimerMBean {
+        long getCount();
+        double getMeanMicros();
+        double getP50Micros();
+        double getP99Micros();
+        double getP999Micros();
+        double getMaxMicros();
+        void reset();
+    }
+
+    public interface CounterMBean {
+        long getValue();
+        void reset();
+    }
+
+    // Latency of one operation: count, total, max and a histogram with 8
+    // buckets per power of two (percentiles within about 10%)
+    public static final class Timer implements TimerMBean {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int MAX_BITS = 40;
+
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] buckets = new LongAdder[(MAX_BITS - SUB_BITS + 1) * SUB];
+
+        private Timer(String name) {
+            this.name = name;
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        public String name() {
+            return name;
+        }
+
+        // Start time to pass to stop()
+        public long start() {
+            return ENABLED ? System.nanoTime() : 0;
+        }
+
+        public void stop(long start) {
+            if (ENABLED) record(System.nanoTime() - start);
+        }
+
+        public void record(long nanos) {
+            long v = Math.max(0, Math.min(nanos, (1L << MAX_BITS) - 1));
+            buckets[index(v)].increment();
+            count.increment();
+            total.add(v);
+            max.accumulate(v);
+        }
+
+        private static int index(long v) {
+            if (v < 2 * SUB) return (int) v;
+            int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+            return (shift + 1) * SUB + (int) ((v >>> shift) - SUB);
+        }
+
+        // Middle of a bucket's range
+        private static double value(int index) {
+            if (index < 2 * SUB) return index;
+            int shift = index / SUB - 1;
+            long lowest = (long) (index % SUB + SUB) << shift;
+            return lowest + ((1L << shift) - 1) / 2.0;
+        }
+
+        private double percentileNanos(double percentile) {
+            long[] snapshot = new long[buckets.length];
+            long n = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                snapshot[i] = buckets[i].sum();
+                n += snapshot[i];
+            }
+            if (n == 0) return 0;
+            long wanted = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= wanted) return Math.min(value(i), max.get());
+            }
+            return max.get();
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            long n = count.sum();
+            return n == 0 ? 0 : total.sum() / 1e3 / n;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return percentileNanos(50) / 1e3;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return percentileNanos(99) / 1e3;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return percentileNanos(99.9) / 1e3;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return max.get() / 1e3;
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+            total.reset();
+            max.reset();
+            for (LongAdder bucket : buckets) bucket.reset();
+        }
+    }
+
+    // A running total, e.g. bytes written to a store
+    public static final class Counter implements CounterMBean {
+        private final String name;
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public void add(long n) {
+            if (ENABLED) value.add(n);
+        }
+
+        @Override
+        public long getValue() {
+            return value.sum();
+        }
+
+        @Override
+        public void reset() {
+            value.reset();
+        }
+    }
+
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, n -> register("Timer", n, new Timer(n), TimerMBean.class));
+    }
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> register("Counter", n, new Counter(n), CounterMBean.class));
+    }
+
+    // Bytes read and written by one store, as "<store>.bytesRead" and "<store>.bytesWritten"
+    public static Counter bytesRead(String store) {
+        return counter(store + ".bytesRead");
+    }
+
+    public static Counter bytesWritten(String store) {
+        return counter(store + ".bytesWritten");
+    }
+
+    public static List<Timer> timers() {
+        List<Timer> list = new ArrayList<>(TIMERS.values());
+        list.sort(Comparator.comparing(Timer::name));
+        return list;
+    }
+
+    public static List<Counter> counters() {
+        List<Counter> list = new ArrayList<>(COUNTERS.values());
+        list.sort(Comparator.comparing(Counter::name));
+        return list;
+    }
+
+    public static void resetAll() {
+        for (Timer timer : TIMERS.values()) timer.reset();
+        for (Counter counter : COUNTERS.values()) counter.reset();
+    }
+
+    private static <I, T extends I> T register(String type, String name, T metric, Class<I> mbeanInterface) {
+        try {
+            ObjectName objectName = new ObjectName("bank:type=" + type + ",name=" + name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new StandardMBean(metric, mbeanInterface), objectName);
+            }
+        } catch (JMException e) {
+            // Still recorded and shown in Admin; just not visible over JMX
+        }
+        return metric;
+    }
+}
@@ -0,0 +1,89 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Live view of this process's Metrics for the Admin window: one row per
+// timer and counter, re-read once a second while the panel is showing.
+public class MetricsPanel extends JPanel {
+    private static final int REFRESH_MS = 1000;
+    private static final String[] COLUMN_NAMES = {"Metric", "Count / Value", "Mean (us)", "p50 (us)", "p99 (us)", "p99.9 (us)", "Max (us)"};
+
+    private final MetricsModel model = new MetricsModel();
+    private final javax.swing.Timer refreshTimer;
+
+    public MetricsPanel() {
+        super(new BorderLayout());
+        JTable table = new JTable(model);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            Metrics.resetAll();
+            model.refresh();
+        });
+        JLabel note = new JLabel(Metrics.ENABLED ? "Also published over JMX under \"bank:\"" : "Recording is off (-Dbank.metrics=false)");
+        JPanel bottom = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        bottom.add(resetButton);
+        bottom.add(note);
+        add(bottom, BorderLayout.SOUTH);
+
+        refreshTimer = new javax.swing.Timer(REFRESH_MS, e -> {
+            if (isShowing()) model.refresh();
+        });
+        refreshTimer.start();
+        model.refresh();
+    }
+
+    // Stops the refresh (the window is closing)
+    public void close() {
+        refreshTimer.stop();
+    }
+
+    private static class MetricsModel extends AbstractTableModel {
+        private List<Object[]> rows = new ArrayList<>();
+
+        void refresh() {
+            List<Object[]> fresh = new ArrayList<>();
+            for (Metrics.Timer t : Metrics.timers()) {
+                fresh.add(new Object[]{t.name(), t.getCount(), micros(t.getMeanMicros()), micros(t.getP50Micros()),
+                        micros(t.getP99Micros()), micros(t.getP999Micros()), micros(t.getMaxMicros())});
+            }
+            for (Metrics.Counter c : Metrics.counters()) {
+                fresh.add(new Object[]{c.name(), c.getValue(), "", "", "", "", ""});
+            }
+            boolean sameRows = fresh.size() == rows.size();
+            rows = fresh;
+            if (sameRows) {
+                if (!rows.isEmpty()) fireTableRowsUpdated(0, rows.size() - 1);
+            } else {
+                fireTableDataChanged();
+            }
+        }
+
+        private static String micros(double value) {
+            return String.format("%.1f", value);
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMN_NAMES.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMN_NAMES[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return rows.get(row)[column];
+        }
+    }
+}
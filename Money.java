@@ -0,0 +1,64 @@
+// Money is kept as a long number of centavos everywhere, so balances add up
+// exactly. These helpers convert between that and the "1234.56" text used in
+// the dialogs and in Balance.txt / TransactionLog.txt.
+public final class Money {
+    private Money() {
+    }
+
+    // Parses "12", "12.3" or "12.34" (optionally signed) into centavos.
+    // Anything else, including a third decimal, is a NumberFormatException.
+    public static long parse(String text) {
+        String s = text.trim();
+        int i = 0;
+        boolean negative = false;
+        if (i < s.length() && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        long units = 0;
+        int digits = 0;
+        try {
+            for (; i < s.length() && s.charAt(i) != '.'; i++, digits++) {
+                int d = digit(s, i);
+                units = Math.addExact(Math.multiplyExact(units, 10), d);
+            }
+            long cents = 0;
+            if (i < s.length()) {
+                i++; // decimal point
+                int decimals = 0;
+                for (; i < s.length(); i++, decimals++, digits++) {
+                    if (decimals == 2) throw new NumberFormatException("More than 2 decimals: " + text);
+                    cents = cents * 10 + digit(s, i);
+                }
+                if (decimals == 1) cents *= 10;
+            }
+            if (digits == 0) throw new NumberFormatException("Not an amount: " + text);
+            long total = Math.addExact(Math.multiplyExact(units, 100), cents);
+            return negative ? -total : total;
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount too large: " + text);
+        }
+    }
+
+    private static int digit(String s, int i) {
+        char c = s.charAt(i);
+        if (c < '0' || c > '9') throw new NumberFormatException("Not an amount: " + s);
+        return c - '0';
+    }
+
+    // Formats centavos as "1234.56"
+    public static String format(long cents) {
+        StringBuilder sb = new StringBuilder(24);
+        appendTo(sb, cents);
+        return sb.toString();
+    }
+
+    // Appends centavos as "1234.56" without going through String.format
+    public static void appendTo(StringBuilder sb, long cents) {
+        if (cents < 0) sb.append('-');
+        long units = Math.abs(cents / 100);
+        int rest = (int) Math.abs(cents % 100);
+        sb.append(units).append('.');
+        sb.append((char) ('0' + rest / 10)).append((char) ('0' + rest % 10));
+    }
+}
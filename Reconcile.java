@@ -0,0 +1,332 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Offline check that the balances agree with the transaction log:
+//   java Reconcile [--threads <n>] [--report <file.csv>]
+// Every account's lines are replayed from zero in log order. Each line's
+// balance must be the one before it plus or minus its amount (the replay
+// then goes on from the logged balance, so one bad line is flagged once),
+// and the sum of the changes must be the account's balance in its shard's
+// balance journal. A balance with no lines, or lines with no balance, are
+// flagged too. Exits with 3 if any account disagrees.
+//
+// A balance and its log line are written separately, so like Reshard it
+// refuses to run while the bank is open. Each shard's log is read once and
+// cut into chunks; a fork/join pool parses a chunk's leaves in parallel,
+// then replays the chunk in parallel by partitions of accounts (by name
+// hash), one chunk after another, so every account sees its lines in order
+// and no partition is shared.
+public class Reconcile {
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int LEAF_SIZE = 256 * 1024;
+    private static final int PENDING_CHUNKS = 4;
+    private static final int MAX_PRINTED = 20;
+
+    // One account that does not reconcile
+    public static final class Finding {
+        public final String account;
+        public final String problem;
+        public final long lines;
+        // Sum of the lines' changes, and the balance on the last line
+        public final long replayed;
+        public final long logged;
+        // The balance journal's balance, or null if it has none
+        public final Long balance;
+        // Lines whose balance did not follow from the one before
+        public final long breaks;
+        public final String firstBreak;
+
+        Finding(String account, String problem, Account replay, Long balance) {
+            this.account = account;
+            this.problem = problem;
+            this.lines = replay != null ? replay.lines : 0;
+            this.replayed = replay != null ? replay.replayed : 0;
+            this.logged = replay != null ? replay.logged : 0;
+            this.balance = balance;
+            this.breaks = replay != null ? replay.breaks : 0;
+            this.firstBreak = replay != null ? replay.firstBreak : null;
+        }
+    }
+
+    // One account's replay so far
+    private static final class Account {
+        long lines;
+        long replayed;
+        long logged;
+        long breaks;
+        String firstBreak;
+
+        void apply(LogEntry entry) {
+            lines++;
+            long change = entry.change();
+            replayed += change;
+            long expected = logged + change;
+            if (entry.balance != expected) {
+                if (breaks++ == 0) {
+                    firstBreak = "line " + lines + " (" + entry.type + " of " + Money.format(entry.amount) + " at " + entry.displayTime()
+                            + ") has " + Money.format(entry.balance) + ", expected " + Money.format(expected);
+                }
+            }
+            logged = entry.balance;
+        }
+    }
+
+    private final Shards shards;
+    private final int partitionCount;
+    private final List<Map<String, Account>> partitions = new ArrayList<>();
+    private final AtomicLong read = new AtomicLong();
+    private final LongAdder lineCount = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final ForkJoinPool pool;
+
+    public Reconcile(Shards shards, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Need at least one thread: " + threads);
+        this.shards = shards;
+        this.pool = new ForkJoinPool(threads);
+        // More partitions than threads, so an uneven hash still keeps them busy
+        this.partitionCount = threads * 4;
+        for (int i = 0; i < partitionCount; i++) {
+            partitions.add(new HashMap<>());
+        }
+    }
+
+    // Replays every log and compares it with the balances; returns the
+    // accounts that disagree, by name
+    public List<Finding> run() throws IOException {
+        try {
+            for (int i = 0; i < shards.count(); i++) {
+                try (InputStream in = shards.log(i).openLiveStream()) {
+                    replay(in);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        shards.loadBalances();
+        List<Finding> findings = new ArrayList<>();
+        Set<String> withBalance = new HashSet<>();
+        for (int i = 0; i < shards.count(); i++) {
+            BalanceJournal journal = shards.balances(i);
+            for (String name : journal.names()) {
+                withBalance.add(name);
+                long balance = journal.get(name);
+                Account replay = partitions.get(partitionOf(name)).get(name);
+                if (replay == null) {
+                    if (balance != 0) findings.add(new Finding(name, "balance with no transactions", null, balance));
+                } else if (replay.replayed != balance || replay.breaks > 0) {
+                    String problem = replay.replayed != balance ? "final balance differs" : "running balance breaks";
+                    findings.add(new Finding(name, problem, replay, balance));
+                }
+            }
+        }
+        for (Map<String, Account> partition : partitions) {
+            for (Map.Entry<String, Account> entry : partition.entrySet()) {
+                if (!withBalance.contains(entry.getKey())) {
+                    findings.add(new Finding(entry.getKey(), "transactions with no balance", entry.getValue(), null));
+                }
+            }
+        }
+        findings.sort(Comparator.comparing(f -> f.account));
+        return findings;
+    }
+
+    public long lines() {
+        return lineCount.sum();
+    }
+
+    public long accounts() {
+        long n = 0;
+        for (Map<String, Account> partition : partitions) {
+            n += partition.size();
+        }
+        return n;
+    }
+
+    public long malformed() {
+        return malformed.sum();
+    }
+
+    // Reads one log a chunk at a time; each chunk replays after the one
+    // before it, while the next few are parsed
+    private void replay(InputStream in) throws IOException {
+        ArrayDeque<Chunk> pending = new ArrayDeque<>();
+        LineChunk.Reader reader = new LineChunk.Reader(in, CHUNK_SIZE, LEAF_SIZE, read);
+        Chunk previous = null;
+        LineChunk next;
+        while ((next = reader.next()) != null) {
+            Chunk chunk = new Chunk(next, previous);
+            pool.execute(chunk);
+            pending.add(chunk);
+            previous = chunk;
+            if (pending.size() > PENDING_CHUNKS) pending.poll().join();
+        }
+        while (!pending.isEmpty()) {
+            pending.poll().join();
+        }
+    }
+
+    private int partitionOf(String user) {
+        int h = user.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), partitionCount);
+    }
+
+    // Parses its leaves in parallel into per-partition lists, waits for the
+    // chunk before it, then replays each partition's lines in parallel
+    private final class Chunk extends RecursiveAction {
+        private final LineChunk lines;
+        private Chunk previous;
+        // Per leaf, per partition: the leaf's entries in log order
+        private final List<List<List<LogEntry>>> entries;
+
+        Chunk(LineChunk lines, Chunk previous) {
+            this.lines = lines;
+            this.previous = previous;
+            this.entries = new ArrayList<>(Collections.nCopies(lines.leaves(), null));
+        }
+
+        @Override
+        protected void compute() {
+            parseLeaves(0, entries.size());
+            if (previous != null) {
+                previous.join();
+                previous = null;
+            }
+            List<RecursiveAction> replays = new ArrayList<>(partitionCount);
+            for (int p = 0; p < partitionCount; p++) {
+                int partition = p;
+                replays.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        replayPartition(partition);
+                    }
+                });
+            }
+            invokeAll(replays);
+        }
+
+        private void parseLeaves(int from, int to) {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        parseLeaves(from, mid);
+                    }
+                }, new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        parseLeaves(mid, to);
+                    }
+                });
+                return;
+            }
+            List<List<LogEntry>> leaf = new ArrayList<>(Collections.nCopies(partitionCount, null));
+            byte[] buffer = lines.buffer;
+            int lineStart = lines.leafStart(from);
+            int end = lines.leafEnd(from);
+            for (int i = lineStart; i < end; i++) {
+                if (buffer[i] != '\n') continue;
+                LogEntry entry = LogEntry.parse(lines.line(lineStart, i));
+                lineStart = i + 1;
+                if (entry == null || entry.kind() == LogEntry.OTHER) {
+                    malformed.increment();
+                    continue;
+                }
+                int p = partitionOf(entry.user);
+                if (leaf.get(p) == null) leaf.set(p, new ArrayList<>());
+                leaf.get(p).add(entry);
+            }
+            entries.set(from, leaf);
+        }
+
+        private void replayPartition(int partition) {
+            Map<String, Account> accounts = partitions.get(partition);
+            long n = 0;
+            for (List<List<LogEntry>> leaf : entries) {
+                List<LogEntry> list = leaf.get(partition);
+                if (list == null) continue;
+                for (LogEntry entry : list) {
+                    accounts.computeIfAbsent(entry.user, u -> new Account()).apply(entry);
+                }
+                n += list.size();
+            }
+            lineCount.add(n);
+        }
+    }
+
+    // One CSV row per finding
+    public static void writeReport(List<Finding> findings, File file) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+            out.write("Account,Problem,Lines,Replayed,Last Logged,Balance,Breaks,First Break");
+            out.newLine();
+            for (Finding f : findings) {
+                out.write(f.account + "," + f.problem + "," + f.lines + "," + Money.format(f.replayed) + "," + Money.format(f.logged) + ","
+                        + (f.balance != null ? Money.format(f.balance) : "") + "," + f.breaks + ","
+                        + (f.firstBreak != null ? "\"" + f.firstBreak + "\"" : ""));
+                out.newLine();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        File report = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                switch (args[i]) {
+                    case "--threads": threads = Integer.parseInt(value); i++; break;
+                    case "--report": report = new File(Objects.requireNonNull(value)); i++; break;
+                    default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            if (threads < 1) throw new IllegalArgumentException("Counts must be positive");
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: Reconcile [--threads <n>] [--report <file.csv>]");
+            System.exit(2);
+            return;
+        }
+
+        Closeable offline = DepositorStore.lockOffline(new File("Depositor.dat"));
+        if (offline == null) {
+            System.err.println("The bank is in use; close every terminal, Admin and BankServer first.");
+            System.exit(1);
+        }
+        Shards shards = Shards.open();
+        Reconcile reconcile = new Reconcile(shards, threads);
+        long start = System.nanoTime();
+        List<Finding> findings;
+        try {
+            findings = reconcile.run();
+        } finally {
+            shards.close();
+            offline.close();
+        }
+        System.out.printf("Replayed %d lines of %d accounts in %.1f s on %d threads%n",
+                reconcile.lines(), reconcile.accounts(), (System.nanoTime() - start) / 1e9, threads);
+        if (reconcile.malformed() > 0) System.out.printf("Skipped %d malformed lines%n", reconcile.malformed());
+        if (findings.isEmpty()) {
+            System.out.println("Every balance agrees with the log.");
+            System.exit(0);
+        }
+        System.out.println(findings.size() + " account(s) disagree:");
+        for (Finding f : findings.subList(0, Math.min(MAX_PRINTED, findings.size()))) {
+            System.out.printf("  %-20s %s: replayed %s, balance %s%n", f.account, f.problem, Money.format(f.replayed),
+                    f.balance != null ? Money.format(f.balance) : "none");
+            if (f.firstBreak != null) System.out.println("      " + f.breaks + " break(s); first at " + f.firstBreak);
+        }
+        if (report != null) {
+            writeReport(findings, report);
+            System.out.println("All of them are in " + report.getPath());
+        } else if (findings.size() > MAX_PRINTED) {
+            System.out.println("  ... use --report <file.csv> for the rest");
+        }
+        System.exit(3);
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+// Offline tool that changes the number of shards (see Shards):
+//   java Reshard --shards <n>
+// It refuses to run while any process has the bank open, and keeps new ones
+// out until it is done. Each old log is compacted first so deleted accounts
+// are not carried over; then every balance is written to the checkpoint of
+// its new shard, and the old logs are merged by time into the new ones
+// (their indexes are rebuilt on first read). Shards.properties is switched
+// last, so a run that fails part way leaves the old layout in use, and the
+// old files are moved to Reshard.backup.
+public class Reshard {
+    private static final String BACKUP = "Reshard.backup";
+
+    // Balance files of one shard, moved aside with its log's files (see
+    // TransactionLog.files) when the shard is the working directory itself
+    private static final String[] BALANCE_FILES = {
+            "Balance.txt", "Balance.ckpt", "Balance.journal", "Balance.journal.compacting", "Balance.lock"
+    };
+
+    // One old log being merged: its next line and that line's time
+    private static final class Source {
+        final BufferedReader in;
+        final int order;
+        final LogEntry.TimestampParser timestamps = new LogEntry.TimestampParser();
+        String line;
+        LogEntry entry;
+        long time;
+
+        Source(BufferedReader in, int order) {
+            this.in = in;
+            this.order = order;
+        }
+
+        // Moves to the next transaction line; false at the end
+        boolean advance() throws IOException {
+            while ((line = in.readLine()) != null) {
+                entry = LogEntry.parse(line);
+                if (entry != null) {
+                    time = timestamps.parse(entry.timestamp);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final File dir;
+    private int accounts;
+    private long lines;
+
+    public Reshard(File dir) {
+        this.dir = dir;
+    }
+
+    // Moves the bank in dir from its current shard count to count. Returns
+    // where the old files went, or null if there was nothing to do.
+    public File run(int count) throws IOException, InterruptedException {
+        int oldCount = Shards.readCount(dir);
+        if (count == oldCount) return null;
+        File newRoot = count == 1 ? dir : new File(dir, "shards-" + count);
+        if (count == 1) {
+            List<File> leftover = rootFiles();
+            if (!leftover.isEmpty()) {
+                throw new IOException(leftover.get(0).getName() + " is left over from an earlier layout; move it away first");
+            }
+        } else if (newRoot.exists()) {
+            throw new IOException(newRoot + " is left over from an earlier run; move it away first");
+        }
+
+        Shards old = Shards.open(dir, oldCount);
+        try {
+            // Drops deleted accounts' lines (and converts old stamps) first
+            old.compactLogs(null);
+            old.forEach(shard -> {
+                if (old.log(shard).hasTombstones()) throw new IOException("Could not compact shard " + shard + "'s log");
+            });
+            old.loadBalances();
+            writeBalances(old, count);
+            mergeLogs(old, count);
+        } finally {
+            old.close();
+        }
+
+        writeCount(count);
+        return backUp(oldCount);
+    }
+
+    // Each account's balance goes to the checkpoint of its new shard
+    private void writeBalances(Shards old, int count) throws IOException {
+        AccountBalanceMap[] split = new AccountBalanceMap[count];
+        for (int i = 0; i < count; i++) {
+            split[i] = new AccountBalanceMap();
+        }
+        for (int i = 0; i < old.count(); i++) {
+            BalanceJournal journal = old.balances(i);
+            for (String name : journal.names()) {
+                split[Shards.shardOf(name, count)].put(name, journal.get(name));
+                accounts++;
+            }
+        }
+        Shards shards = Shards.open(dir, count);
+        try {
+            for (int i = 0; i < count; i++) {
+                Shards.directory(dir, count, i).mkdirs();
+                shards.balances(i).create(split[i]);
+            }
+        } finally {
+            shards.close();
+        }
+    }
+
+    // Merges the old logs by time (each old log keeps its own order) and
+    // writes every line to the log of its account's new shard
+    private void mergeLogs(Shards old, int count) throws IOException {
+        int oldCount = old.count();
+        List<Source> sources = new ArrayList<>();
+        Writer[] out = new Writer[count];
+        FileOutputStream[] files = new FileOutputStream[count];
+        try {
+            PriorityQueue<Source> heads = new PriorityQueue<>(Comparator.<Source>comparingLong(s -> s.time).thenComparingInt(s -> s.order));
+            for (int i = 0; i < oldCount; i++) {
+                Source source = new Source(new BufferedReader(new InputStreamReader(old.log(i).openStream()), 1 << 16), i);
+                sources.add(source);
+                if (source.advance()) heads.add(source);
+            }
+            for (int i = 0; i < count; i++) {
+                files[i] = new FileOutputStream(new File(Shards.directory(dir, count, i), "TransactionLog.txt"));
+                out[i] = new BufferedWriter(new OutputStreamWriter(files[i]), 1 << 16);
+            }
+            String separator = System.lineSeparator();
+            Source source;
+            while ((source = heads.poll()) != null) {
+                Writer writer = out[Shards.shardOf(source.entry.user, count)];
+                writer.write(source.line);
+                writer.write(separator);
+                lines++;
+                if (source.advance()) heads.add(source);
+            }
+            for (int i = 0; i < count; i++) {
+                out[i].flush();
+                files[i].getFD().sync();
+            }
+        } finally {
+            for (Source source : sources) {
+                source.in.close();
+            }
+            for (Writer writer : out) {
+                if (writer != null) writer.close();
+            }
+        }
+    }
+
+    // Balance and log files of a single-shard layout in the working directory
+    private List<File> rootFiles() throws IOException {
+        List<File> files = new ArrayList<>();
+        for (String name : BALANCE_FILES) {
+            File file = new File(dir, name);
+            if (file.exists()) files.add(file);
+        }
+        Shards root = Shards.open(dir, 1);
+        try {
+            files.addAll(root.log(0).files());
+        } finally {
+            root.close();
+        }
+        return files;
+    }
+
+    // Switches to the new layout in one rename
+    private void writeCount(int count) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("count", String.valueOf(count));
+        File tmp = new File(dir, Shards.PROPERTIES + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, "Number of balance and log shards; change it only with Reshard");
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), new File(dir, Shards.PROPERTIES).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Moves the old layout's files under Reshard.backup
+    private File backUp(int oldCount) throws IOException {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File backup = new File(new File(dir, BACKUP), stamp + "-from-" + oldCount);
+        backup.mkdirs();
+        if (oldCount == 1) {
+            for (File file : rootFiles()) {
+                Files.move(file.toPath(), new File(backup, file.getName()).toPath());
+            }
+        } else {
+            Files.move(new File(dir, "shards-" + oldCount).toPath(), new File(backup, "shards-" + oldCount).toPath());
+        }
+        return backup;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = 0;
+        try {
+            if (args.length != 2 || !args[0].equals("--shards")) throw new IllegalArgumentException("Missing --shards");
+            count = Integer.parseInt(args[1]);
+            if (count < 1 || count > Shards.MAX_SHARDS) throw new IllegalArgumentException("Shard count must be 1 to " + Shards.MAX_SHARDS);
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: Reshard --shards <n>");
+            System.exit(2);
+        }
+
+        File dir = new File(".");
+        Closeable offline = DepositorStore.lockOffline(new File(dir, "Depositor.dat"));
+        if (offline == null) {
+            System.err.println("The bank is in use; close every terminal, Admin and BankServer first.");
+            System.exit(1);
+        }
+        Reshard reshard = new Reshard(dir);
+        File backup;
+        try {
+            backup = reshard.run(count);
+        } finally {
+            offline.close();
+        }
+        if (backup == null) {
+            System.out.println("Already " + count + " shard(s); nothing to do.");
+        } else {
+            System.out.println("Moved " + reshard.accounts + " balances and " + reshard.lines + " log lines into " + count + " shard(s).");
+            System.out.println("Old files are in " + backup.getPath());
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded lock-free queue for many producers and a single consumer. Each slot
+// carries a sequence number: producers claim a position with one CAS on the
+// tail and publish by advancing the slot's sequence; the consumer takes slots
+// in order once they are published.
+public class RingBuffer<E> {
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Only touched by the consumer thread
+    private long head;
+
+    public RingBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity) size <<= 1;
+        elements = new Object[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    // Adds an element, or returns false if the buffer is full
+    public boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int slot = (int) position & mask;
+            long diff = sequences.get(slot) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements[slot] = element;
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+            // Another producer claimed this position first; try the next one
+        }
+    }
+
+    // Removes the oldest published element, or returns null if there is none (consumer only)
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        int slot = (int) head & mask;
+        if (sequences.get(slot) != head + 1) return null;
+        E element = (E) elements[slot];
+        elements[slot] = null;
+        sequences.set(slot, head + elements.length);
+        head++;
+        return element;
+    }
+
+    // True if nothing is published or being published (consumer only)
+    public boolean isEmpty() {
+        return tail.get() == head;
+    }
+}
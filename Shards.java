@@ -0,0 +1,208 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Splits balances and the transaction log into shards by a hash of the
+// account name, so a deposit appends to one balance journal and one log and
+// a busy bank no longer funnels every change through the same two files.
+// Each shard is a BalanceJournal and a TransactionLog in its own directory
+// (shards-N/00, shards-N/01, ...); with one shard (the default) they are the
+// original files next to Depositor.dat. Shards.properties holds the count,
+// which only Reshard changes, offline.
+//
+// Depositor.dat is not split: it is already changed a record at a time under
+// per-record locks, and the Admin table and the name index address accounts
+// by record number across the whole bank.
+public final class Shards {
+    public static final String PROPERTIES = "Shards.properties";
+    public static final int MAX_SHARDS = 256;
+
+    // What runs once per shard in forEach
+    public interface Task {
+        void run(int shard) throws IOException, InterruptedException;
+    }
+
+    private final File dir;
+    private final BalanceJournal[] balances;
+    private final TransactionLog[] logs;
+
+    private Shards(File dir, BalanceJournal[] balances, TransactionLog[] logs) {
+        this.dir = dir;
+        this.balances = balances;
+        this.logs = logs;
+    }
+
+    // The shards of the bank in the working directory
+    public static Shards open() throws IOException {
+        return open(new File("."));
+    }
+
+    public static Shards open(File dir) throws IOException {
+        return open(dir, readCount(dir));
+    }
+
+    // count shards laid out in dir, whatever Shards.properties says (Reshard
+    // builds the new layout before switching to it)
+    public static Shards open(File dir, int count) {
+        BalanceJournal[] balances = new BalanceJournal[count];
+        TransactionLog[] logs = new TransactionLog[count];
+        for (int i = 0; i < count; i++) {
+            File shardDir = directory(dir, count, i);
+            balances[i] = new BalanceJournal(new File(shardDir, "Balance.txt"), new File(shardDir, "Balance.journal"));
+            logs[i] = new TransactionLog(new File(shardDir, "TransactionLog.txt"), new File(shardDir, "TransactionLog.idx"));
+        }
+        return new Shards(dir, balances, logs);
+    }
+
+    // A single shard made of the given stores (see AccountService)
+    public static Shards of(BalanceJournal balances, TransactionLog log) {
+        return new Shards(new File("."), new BalanceJournal[]{balances}, new TransactionLog[]{log});
+    }
+
+    // Shard count from Shards.properties, or 1 if there is none
+    public static int readCount(File dir) throws IOException {
+        File file = new File(dir, PROPERTIES);
+        if (!file.exists()) return 1;
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        try {
+            int count = Integer.parseInt(properties.getProperty("count", "1").trim());
+            if (count >= 1 && count <= MAX_SHARDS) return count;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IOException("Bad shard count in " + PROPERTIES + ": " + properties.getProperty("count"));
+    }
+
+    // Where shard i of count keeps its files
+    public static File directory(File dir, int count, int shard) {
+        if (count == 1) return dir;
+        return new File(new File(dir, "shards-" + count), String.format("%02d", shard));
+    }
+
+    // Stable across processes and runs (String.hashCode is specified)
+    public static int shardOf(String user, int count) {
+        int h = user.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), count);
+    }
+
+    public int count() {
+        return logs.length;
+    }
+
+    public File directory() {
+        return dir;
+    }
+
+    public int shardOf(String user) {
+        return shardOf(user, logs.length);
+    }
+
+    public BalanceJournal balances(int shard) {
+        return balances[shard];
+    }
+
+    public BalanceJournal balances(String user) {
+        return balances[shardOf(user)];
+    }
+
+    // A fresh BalanceJournal on the user's shard files, for a one-off change
+    // by a process that keeps no balances loaded (Admin's delete)
+    public BalanceJournal openBalances(String user) {
+        File shardDir = directory(dir, count(), shardOf(user));
+        return new BalanceJournal(new File(shardDir, "Balance.txt"), new File(shardDir, "Balance.journal"));
+    }
+
+    public TransactionLog log(int shard) {
+        return logs[shard];
+    }
+
+    public TransactionLog log(String user) {
+        return logs[shardOf(user)];
+    }
+
+    // Runs task for every shard at once (in the background pool) and waits
+    // for all of them; the first failure is rethrown
+    public void forEach(Task task) throws IOException, InterruptedException {
+        if (logs.length == 1) {
+            task.run(0);
+            return;
+        }
+        CompletableFuture<?>[] runs = new CompletableFuture<?>[logs.length];
+        for (int i = 0; i < logs.length; i++) {
+            int shard = i;
+            runs[i] = Background.submit(() -> {
+                task.run(shard);
+                return null;
+            });
+        }
+        try {
+            CompletableFuture.allOf(runs).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    // Loads every shard's balances in parallel
+    public void loadBalances() throws IOException {
+        try {
+            forEach(shard -> balances[shard].load());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted loading balances");
+        }
+    }
+
+    // Folds every shard's balance journal into its checkpoint in parallel;
+    // the compactor still holds them all to one rate together
+    public void compactBalances(Compactor compactor) throws IOException, InterruptedException {
+        forEach(shard -> balances[shard].compact(compactor));
+    }
+
+    // Rewrites, in parallel, each shard's log that holds deleted accounts or
+    // (once) old Date.toString() stamps
+    public void compactLogs(Compactor compactor) throws IOException, InterruptedException {
+        forEach(shard -> {
+            TransactionLog log = logs[shard];
+            if (log.hasTombstones() || log.hasLegacyTimestamps()) log.compact(compactor);
+        });
+    }
+
+    // Every live line stamped in [fromMillis, toMillis) across the bank,
+    // read from all shards in parallel and merged by time
+    public List<LogEntry> activityBetween(long fromMillis, long toMillis) throws IOException {
+        List<List<LogEntry>> parts = new ArrayList<>(Collections.nCopies(logs.length, null));
+        try {
+            forEach(shard -> parts.set(shard, logs[shard].activityBetween(fromMillis, toMillis)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading the log");
+        }
+        if (parts.size() == 1) return parts.get(0);
+        List<LogEntry> entries = new ArrayList<>();
+        for (List<LogEntry> part : parts) {
+            entries.addAll(part);
+        }
+        // Stable, so each shard's lines keep their log order within a millisecond
+        LogEntry.TimestampParser timestamps = new LogEntry.TimestampParser();
+        entries.sort(Comparator.comparingLong(entry -> timestamps.parse(entry.timestamp)));
+        return entries;
+    }
+
+    // Writes and syncs every shard's queued log lines and closes its files
+    public void close() {
+        for (TransactionLog log : logs) {
+            log.close();
+        }
+        for (BalanceJournal journal : balances) {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,474 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Month-end export: a CSV statement for every account, with running totals,
+// from one pass over each shard's log:
+//   java StatementExport [--out <dir>] [--threads <n>]
+// It reads the logs as they are when it starts, so the bank can stay open.
+//
+// The reader cuts a log into chunks at line ends, and a fork/join pool
+// parses each chunk in parallel into statement rows. Chunks are taken back
+// in log order and their rows appended to one of a fixed number of bucket
+// files by a hash of the account name, so every account's rows end up in
+// one bucket, in order. Then the buckets become statements in parallel:
+// a bucket's rows are grouped by account in memory and written out with
+// the totals. A bucket too big for that is split again by another hash
+// (one that holds a single account is written straight from the file).
+// Memory is a few chunks and buckets per thread, however many accounts or
+// rows there are.
+public class StatementExport {
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    // Parsed as one fork/join leaf
+    private static final int LEAF_SIZE = 256 * 1024;
+    // Chunks parsed or waiting to be written at once; each has enough
+    // leaves to keep the pool busy
+    private static final int PENDING_CHUNKS = 4;
+    // Largest bucket grouped in memory
+    private static final long BUCKET_BYTES = 8L * 1024 * 1024;
+    private static final int MAX_BUCKETS = 256;
+    private static final int SPLIT_WAYS = 16;
+    private static final int MAX_DEPTH = 4;
+    private static final String HEADER = "Date,Type,Amount,Balance,Details,Total In,Total Out";
+
+    private final Shards shards;
+    private final File out;
+    private final int threads;
+    private final File bucketDir;
+    private int bucketCount;
+
+    // Log bytes read and bucket bytes grouped so far, against their totals
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong grouped = new AtomicLong();
+    private volatile long logBytes;
+    private final AtomicLong bucketBytes = new AtomicLong(-1);
+
+    private final LongAdder accounts = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+
+    public StatementExport(Shards shards, File out, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Need at least one thread: " + threads);
+        this.shards = shards;
+        this.out = out;
+        this.threads = threads;
+        this.bucketDir = new File(out, ".buckets");
+    }
+
+    // Writes the statements into out, which must be new or empty
+    public void run() throws IOException {
+        String[] existing = out.list();
+        if (existing != null && existing.length > 0) throw new IOException(out + " is not empty");
+        if (!bucketDir.mkdirs()) throw new IOException("Could not create " + bucketDir);
+
+        long total = 0;
+        for (int i = 0; i < shards.count(); i++) {
+            total += shards.log(i).length();
+        }
+        logBytes = total;
+        bucketCount = (int) Math.max(1, Math.min(MAX_BUCKETS, total / BUCKET_BYTES + 1));
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            FileOutputStream[] buckets = new FileOutputStream[bucketCount];
+            try {
+                for (int b = 0; b < bucketCount; b++) {
+                    buckets[b] = new FileOutputStream(bucketFile(bucketDir, b));
+                }
+                for (int i = 0; i < shards.count(); i++) {
+                    try (InputStream in = shards.log(i).openLiveStream()) {
+                        partition(pool, in, buckets);
+                    }
+                }
+            } finally {
+                for (FileOutputStream bucket : buckets) {
+                    if (bucket != null) bucket.close();
+                }
+            }
+
+            List<Group> groups = new ArrayList<>();
+            long size = 0;
+            for (int b = 0; b < bucketCount; b++) {
+                File file = bucketFile(bucketDir, b);
+                size += file.length();
+                groups.add(new Group(file, 0));
+            }
+            bucketBytes.set(size);
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(groups)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+            deleteBuckets();
+        }
+    }
+
+    // Done so far, 0 to 1: reading counts for the first half, grouping for
+    // the second
+    public double progress() {
+        long logTotal = logBytes;
+        long bucketTotal = bucketBytes.get();
+        double reading = logTotal > 0 ? Math.min(1.0, (double) read.get() / logTotal) : 0;
+        if (bucketTotal < 0) return reading / 2;
+        double grouping = bucketTotal > 0 ? Math.min(1.0, (double) grouped.get() / bucketTotal) : 1;
+        return 0.5 + grouping / 2;
+    }
+
+    public long accounts() {
+        return accounts.sum();
+    }
+
+    public long rows() {
+        return rows.sum();
+    }
+
+    public long malformed() {
+        return malformed.sum();
+    }
+
+    // Reads one log in chunks, parses up to a few chunks at once and appends
+    // their rows to the buckets in log order
+    private void partition(ForkJoinPool pool, InputStream in, FileOutputStream[] buckets) throws IOException {
+        ArrayDeque<Chunk> pending = new ArrayDeque<>();
+        LineChunk.Reader reader = new LineChunk.Reader(in, CHUNK_SIZE, LEAF_SIZE, read);
+        LineChunk lines;
+        while ((lines = reader.next()) != null) {
+            Chunk chunk = new Chunk(lines);
+            pool.execute(chunk);
+            pending.add(chunk);
+            if (pending.size() > PENDING_CHUNKS) drain(pending.poll(), buckets);
+        }
+        while (!pending.isEmpty()) {
+            drain(pending.poll(), buckets);
+        }
+    }
+
+    private void drain(Chunk chunk, FileOutputStream[] buckets) throws IOException {
+        chunk.join();
+        for (ByteArrayOutputStream[] leaf : chunk.rows) {
+            for (int b = 0; b < bucketCount; b++) {
+                if (leaf[b] != null) leaf[b].writeTo(buckets[b]);
+            }
+        }
+    }
+
+    // One chunk, parsed a leaf at a time in parallel. Each leaf keeps its
+    // rows per bucket so they can be written in order.
+    private final class Chunk extends RecursiveAction {
+        final LineChunk lines;
+        final ByteArrayOutputStream[][] rows;
+
+        Chunk(LineChunk lines) {
+            this.lines = lines;
+            this.rows = new ByteArrayOutputStream[lines.leaves()][];
+        }
+
+        @Override
+        protected void compute() {
+            parseLeaves(0, rows.length);
+        }
+
+        private void parseLeaves(int from, int to) {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        parseLeaves(from, mid);
+                    }
+                }, new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        parseLeaves(mid, to);
+                    }
+                });
+                return;
+            }
+            ByteArrayOutputStream[] leaf = new ByteArrayOutputStream[bucketCount];
+            byte[] buffer = lines.buffer;
+            int lineStart = lines.leafStart(from);
+            int end = lines.leafEnd(from);
+            for (int i = lineStart; i < end; i++) {
+                if (buffer[i] != '\n') continue;
+                LogEntry entry = LogEntry.parse(lines.line(lineStart, i));
+                lineStart = i + 1;
+                if (entry == null) {
+                    malformed.increment();
+                    continue;
+                }
+                int b = bucketOf(entry.user, bucketCount, 0);
+                if (leaf[b] == null) leaf[b] = new ByteArrayOutputStream(1024);
+                byte[] row = row(entry).getBytes();
+                leaf[b].write(row, 0, row.length);
+            }
+            rows[from] = leaf;
+        }
+    }
+
+    // A bucket row: "user,signed amount in centavos,statement columns\n",
+    // where the columns are all but the running totals
+    private static String row(LogEntry entry) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(entry.user).append(',').append(entry.change()).append(',');
+        sb.append(entry.displayTime()).append(',').append(entry.type).append(',');
+        Money.appendTo(sb, entry.amount);
+        sb.append(',');
+        Money.appendTo(sb, entry.balance);
+        sb.append(',');
+        if (entry.counterparty != null) sb.append(entry.counterparty);
+        return sb.append('\n').toString();
+    }
+
+    private static String userOf(String row) {
+        return row.substring(0, row.indexOf(','));
+    }
+
+    // Buckets by a hash of the name; each level of splitting mixes it
+    // differently so a split spreads the accounts of an oversized bucket
+    private static int bucketOf(String user, int count, int depth) {
+        int h = user.hashCode() + depth * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, count);
+    }
+
+    // Turns one bucket file into statements, splitting it first if it is
+    // too big to group in memory
+    private final class Group extends RecursiveAction {
+        final File file;
+        final int depth;
+
+        Group(File file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                long length = file.length();
+                if (length <= BUCKET_BYTES) {
+                    groupInMemory();
+                } else if (depth == MAX_DEPTH || !split()) {
+                    // A few accounts whose names hash alike, or one huge one
+                    writeStreaming();
+                }
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void groupInMemory() throws IOException {
+            Map<String, List<String>> byUser = new LinkedHashMap<>();
+            try (BufferedReader in = new BufferedReader(new FileReader(file), 1 << 16)) {
+                String row;
+                while ((row = in.readLine()) != null) {
+                    byUser.computeIfAbsent(userOf(row), u -> new ArrayList<>()).add(row);
+                    grouped.addAndGet(row.length() + 1);
+                }
+            }
+            for (Map.Entry<String, List<String>> entry : byUser.entrySet()) {
+                try (Statement statement = new Statement(entry.getKey())) {
+                    for (String row : entry.getValue()) {
+                        statement.add(row);
+                    }
+                }
+            }
+        }
+
+        // Spreads the rows over smaller buckets and groups those; false
+        // (and nothing split) if the bucket holds one account only
+        private boolean split() throws IOException {
+            File[] parts = new File[SPLIT_WAYS];
+            Writer[] writers = new Writer[SPLIT_WAYS];
+            String first = null;
+            boolean oneUser = true;
+            try (BufferedReader in = new BufferedReader(new FileReader(file), 1 << 16)) {
+                for (int i = 0; i < SPLIT_WAYS; i++) {
+                    parts[i] = new File(file.getPath() + "." + i);
+                    writers[i] = new BufferedWriter(new FileWriter(parts[i]), 1 << 16);
+                }
+                String row;
+                while ((row = in.readLine()) != null) {
+                    String user = userOf(row);
+                    if (first == null) first = user;
+                    oneUser &= user.equals(first);
+                    grouped.addAndGet(row.length() + 1);
+                    Writer writer = writers[bucketOf(user, SPLIT_WAYS, depth + 1)];
+                    writer.write(row);
+                    writer.write('\n');
+                }
+            } finally {
+                for (Writer writer : writers) {
+                    if (writer != null) writer.close();
+                }
+            }
+            if (oneUser) {
+                for (File part : parts) {
+                    Files.deleteIfExists(part.toPath());
+                }
+                bucketBytes.addAndGet(file.length());
+                return false;
+            }
+            List<Group> groups = new ArrayList<>();
+            long size = 0;
+            for (File part : parts) {
+                size += part.length();
+                groups.add(new Group(part, depth + 1));
+            }
+            // The split rows are read again, so they count twice
+            bucketBytes.addAndGet(size);
+            invokeAll(groups);
+            return true;
+        }
+
+        private void writeStreaming() throws IOException {
+            Map<String, Statement> open = new HashMap<>();
+            try (BufferedReader in = new BufferedReader(new FileReader(file), 1 << 16)) {
+                String row;
+                while ((row = in.readLine()) != null) {
+                    String user = userOf(row);
+                    Statement statement = open.get(user);
+                    if (statement == null) {
+                        statement = new Statement(user);
+                        open.put(user, statement);
+                    }
+                    statement.add(row);
+                    grouped.addAndGet(row.length() + 1);
+                }
+            } finally {
+                for (Statement statement : open.values()) {
+                    statement.close();
+                }
+            }
+        }
+    }
+
+    // One account's CSV file, with the totals so far on every row
+    private final class Statement implements Closeable {
+        private final BufferedWriter writer;
+        private long totalIn;
+        private long totalOut;
+
+        Statement(String user) throws IOException {
+            writer = new BufferedWriter(new FileWriter(new File(out, fileName(user))), 1 << 16);
+            writer.write(HEADER);
+            writer.newLine();
+            accounts.increment();
+        }
+
+        // Writes a bucket row with its totals
+        void add(String row) throws IOException {
+            int userEnd = row.indexOf(',');
+            int amountEnd = row.indexOf(',', userEnd + 1);
+            long signed = Long.parseLong(row.substring(userEnd + 1, amountEnd));
+            if (signed > 0) {
+                totalIn += signed;
+            } else {
+                totalOut -= signed;
+            }
+            StringBuilder sb = new StringBuilder(row.length() + 32);
+            sb.append(row, amountEnd + 1, row.length()).append(',');
+            Money.appendTo(sb, totalIn);
+            sb.append(',');
+            Money.appendTo(sb, totalOut);
+            writer.write(sb.toString());
+            writer.newLine();
+            rows.increment();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    // The account name as a file name: letters, digits, '-' and '_' as they
+    // are, anything else as %XX of its UTF-8 bytes
+    static String fileName(String user) {
+        StringBuilder sb = new StringBuilder(user.length() + 4);
+        for (byte b : user.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16))).append(Character.toUpperCase(Character.forDigit(c & 15, 16)));
+            }
+        }
+        return sb.append(".csv").toString();
+    }
+
+    private static File bucketFile(File dir, int bucket) {
+        return new File(dir, String.format("bucket-%03d", bucket));
+    }
+
+    private void deleteBuckets() {
+        File[] files = bucketDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        bucketDir.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        File out = new File("Statements", new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()));
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                switch (args[i]) {
+                    case "--out": out = new File(Objects.requireNonNull(value)); i++; break;
+                    case "--threads": threads = Integer.parseInt(value); i++; break;
+                    default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            if (threads < 1) throw new IllegalArgumentException("Counts must be positive");
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: StatementExport [--out <dir>] [--threads <n>]");
+            System.exit(2);
+            return;
+        }
+
+        Shards shards = Shards.open();
+        StatementExport export = new StatementExport(shards, out, threads);
+        Thread progress = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(1000);
+                    System.err.printf("\rExporting... %3d%%", (int) (export.progress() * 100));
+                }
+            } catch (InterruptedException e) {
+                // Done
+            }
+        }, "export-progress");
+        progress.setDaemon(true);
+        long start = System.nanoTime();
+        progress.start();
+        try {
+            export.run();
+        } finally {
+            progress.interrupt();
+            progress.join();
+            System.err.println();
+            shards.close();
+        }
+        System.out.printf("Wrote %d statements (%d rows) to %s in %.1f s%n",
+                export.accounts(), export.rows(), out.getPath(), (System.nanoTime() - start) / 1e9);
+        if (export.malformed() > 0) System.out.printf("Skipped %d malformed lines%n", export.malformed());
+        System.exit(0);
+    }
+}
@@ -0,0 +1,1820 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Inflater;
+
+// TransactionLog.txt plus TransactionLog.idx, a persistent secondary index
+// mapping each account to the byte offsets of its log lines. Reading one
+// user's history seeks straight to those lines instead of scanning the log.
+// Appends go through a bounded ring buffer to one writer thread, which writes
+// whatever has queued up as a single batch (group commit) and fsyncs according
+// to the FlushPolicy.
+//
+// Deleting an account appends a tombstone (account, log offset) to
+// TransactionLog.del; readers drop that account's lines before the offset at
+// once, and compact() later rewrites the log without them. Appends and reads
+// hold a shared lock on TransactionLog.lock, and compaction swaps the file in
+// under an exclusive one, so other processes never write into a replaced log.
+//
+// Each index entry also carries the line's kind, amount and time, so every
+// account's running totals (see summary) are kept up to date as lines are
+// indexed, and statement() finds a date range by binary search. Neither reads
+// the log beyond the rows asked for. A sparse time index (the first line of
+// every minute) lets activityBetween() seek to a time range across accounts.
+//
+// The index is one append-only file for all accounts, read in full when the
+// log is first used, so that first read still takes time in proportion to
+// the whole log. The heap it takes is capped: an indexed line costs about 40
+// bytes (up to twice that while its account's arrays have room to grow), and
+// once more than -Dbank.log.indexLines lines (default 2 million) are held,
+// the least recently used accounts are dropped from memory. Such an account
+// is read back from TransactionLog.idx (and the log lines after it) the
+// next time it is asked for.
+//
+// Lines are stamped in epoch millis. Old Date.toString() stamps still read
+// fine, and compact() rewrites them as epoch millis (a one-time migration
+// run by the compactor while hasLegacyTimestamps()).
+//
+// TransactionLog.txt only holds the newest lines. Once it reaches
+// -Dbank.log.segmentMB megabytes (default 64) or its first line is
+// -Dbank.log.segmentDays days old (default 31), it is renamed to a segment
+// (TransactionLog.<offset>.raw) and a new one started; a background thread
+// then seals the segment into Deflater-compressed blocks with a block index
+// (TransactionLog.<offset>.seg, see LogSegment). Offsets run on across
+// segments, so the index and tombstones never change when the log rolls, and
+// reading a line inflates just its block. TransactionLog.lock counts rolls
+// and seals, and compactions (which move lines), so other processes notice
+// either.
+public class TransactionLog {
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_NANOS = 50_000_000L;
+    // First bytes of TransactionLog.idx; an index without them is rebuilt
+    private static final int INDEX_MAGIC = 0x54495833; // "TIX3"
+    private static final long TIME_BUCKET_MILLIS = 60_000L;
+    // How far out of time order lines can land in the file: they are stamped
+    // before they are queued, so another thread's line can overtake them
+    private static final long TIME_SLACK_MILLIS = 5_000L;
+    private static final long SEGMENT_BYTES = Long.getLong("bank.log.segmentMB", 64) << 20;
+    private static final long SEGMENT_MILLIS = Long.getLong("bank.log.segmentDays", 31) * 86_400_000L;
+    private static final long MAX_INDEXED_LINES = Long.getLong("bank.log.indexLines", 2_000_000);
+
+    private static final Metrics.Counter BYTES_READ = Metrics.bytesRead("transactionLog");
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.bytesWritten("transactionLog");
+    private static final Metrics.Timer FSYNC = Metrics.timer("transactionLog.fsync");
+
+    private final File logFile;
+    private final File indexFile;
+    private final File tombstoneFile;
+    private final File lockFile;
+    private final File dir;
+    private final String baseName;
+    private final Pattern segmentName;
+    private final FlushPolicy policy;
+
+    private final RingBuffer<Commit> queue = new RingBuffer<>(QUEUE_CAPACITY);
+    private Thread writer;
+    private Thread shutdownHook;
+    private volatile boolean writerParked;
+    private volatile boolean closed;
+    // Written by the writer thread only
+    private FileChannel channel;
+    private Object channelKey;
+    private FileChannel lockChannel;
+
+    // Every indexed line per account, in log order, with the account's
+    // totals; least recently used first, and only the accounts not evicted
+    private final Map<String, History> index = new LinkedHashMap<>(16, 0.75f, true);
+    // Accounts whose lines were indexed but dropped from index, the lines
+    // index holds, and whether TransactionLog.idx can bring them back
+    private final Set<String> evicted = new HashSet<>();
+    private long heldLines;
+    private boolean indexFileUsable;
+    private final TimeIndex timeIndex = new TimeIndex();
+    // Log position up to which the index is complete, and the last offset in it
+    private long indexedEnd;
+    // Where the running catch-up scan is, and where it stops (0 when idle)
+    private volatile long scanPosition;
+    private volatile long scanEnd;
+    private long lastOffset = -1;
+    private boolean loaded;
+    // False when the index file on disk is behind the one in memory (loaded
+    // without writing); a writer then loads again before appending to it
+    private boolean indexPersisted;
+    private DataOutputStream indexOut;
+    private final LogEntry.TimestampParser timestamps = new LogEntry.TimestampParser();
+
+    // Rolled segments, oldest first, and the offset TransactionLog.txt starts at
+    private List<LogSegment> segments = new ArrayList<>();
+    private long activeBase;
+    // Counters from TransactionLog.lock as last read: layout changes (rolls,
+    // seals, compactions) and compactions alone; and the compaction count
+    // the index was built at
+    private long layout = -1;
+    private long rewrites = -1;
+    private long indexedRewrites = -1;
+    // Held while sealing rolled segments, so one thread at a time does it
+    private final Object sealing = new Object();
+    private Thread sealer;
+
+    // Account -> log offset; the account's lines before it are deleted
+    private final Map<String, Long> tombstones = new HashMap<>();
+    private long tombstonesRead;
+
+    public TransactionLog() {
+        this(new File("TransactionLog.txt"), new File("TransactionLog.idx"));
+    }
+
+    public TransactionLog(File logFile, File indexFile) {
+        this(logFile, indexFile, FlushPolicy.fromSystemProperty());
+    }
+
+    public TransactionLog(File logFile, File indexFile, FlushPolicy policy) {
+        this.logFile = logFile;
+        this.indexFile = indexFile;
+        String base = logFile.getPath();
+        if (base.endsWith(".txt")) base = base.substring(0, base.length() - 4);
+        this.tombstoneFile = new File(base + ".del");
+        this.lockFile = new File(base + ".lock");
+        this.dir = logFile.getAbsoluteFile().getParentFile();
+        this.baseName = new File(base).getName();
+        this.segmentName = Pattern.compile(Pattern.quote(baseName) + "\\.(\\d{19})\\.(seg|raw)");
+        this.policy = policy;
+    }
+
+    // Appends one line for one account; see append(String[], String[])
+    public CompletableFuture<Void> append(String user, String line) {
+        return append(new String[]{user}, new String[]{line});
+    }
+
+    // Queues lines that must be written together (e.g. both legs of a transfer)
+    // for the writer thread. The future completes once they are on disk under
+    // the flush policy, or completes exceptionally if the write failed. Blocks
+    // only while the ring buffer is full.
+    public CompletableFuture<Void> append(String[] users, String[] lines) {
+        StringBuilder text = new StringBuilder(lines.length * 96);
+        for (String line : lines) {
+            text.append(line).append(System.lineSeparator());
+        }
+        return enqueue(new Commit(users, lines, text.toString().getBytes(), false));
+    }
+
+    // Deletes an account's history: its lines up to now disappear from
+    // readEntries immediately and from the file at the next compact()
+    public CompletableFuture<Void> delete(String user) {
+        return enqueue(new Commit(new String[]{user}, new String[0], new byte[0], true));
+    }
+
+    private CompletableFuture<Void> enqueue(Commit commit) {
+        if (closed) {
+            commit.done.completeExceptionally(new IOException(logFile.getName() + " is closed"));
+            return commit.done;
+        }
+        startWriter();
+        int spins = 0;
+        while (!queue.offer(commit)) {
+            if (closed) {
+                commit.done.completeExceptionally(new IOException(logFile.getName() + " is closed"));
+                return commit.done;
+            }
+            // Full: let the writer catch up
+            if (++spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(50_000);
+            }
+            wakeWriter();
+        }
+        wakeWriter();
+        return commit.done;
+    }
+
+    private synchronized void startWriter() {
+        if (writer != null || closed) return;
+        writer = new Thread(this::runWriter, "transaction-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // Daemon threads die with the JVM; drain what is queued first
+        shutdownHook = new Thread(this::close, "transaction-log-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    private void wakeWriter() {
+        if (writerParked && writer != null) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    // The single writer: drains the ring buffer in batches, writes each batch
+    // with one system call and fsyncs according to the flush policy
+    private void runWriter() {
+        List<Commit> batch = new ArrayList<>();
+        List<Commit> unsynced = new ArrayList<>();
+        int unsyncedRecords = 0;
+        long lastSync = System.nanoTime();
+        while (true) {
+            Commit commit;
+            while (batch.size() < MAX_BATCH && (commit = queue.poll()) != null) {
+                batch.add(commit);
+            }
+            boolean idle = false;
+            if (batch.isEmpty()) {
+                if (closed && queue.isEmpty()) break;
+                if (unsynced.isEmpty()) {
+                    park(IDLE_NANOS);
+                    continue;
+                }
+                park(policy.maxIdleNanos(System.nanoTime() - lastSync));
+                if (!queue.isEmpty()) continue;
+                idle = true;
+            } else {
+                try {
+                    writeBatch(batch);
+                    unsynced.addAll(batch);
+                    for (Commit c : batch) {
+                        // A tombstone is a record too (already synced, but its future waits here)
+                        unsyncedRecords += c.tombstone ? 1 : c.lines.length;
+                    }
+                } catch (IOException e) {
+                    for (Commit c : batch) c.done.completeExceptionally(e);
+                }
+                batch.clear();
+                if (rollDue()) {
+                    // Syncs what is written first, so the rolled file is complete on disk
+                    try {
+                        if (channel != null) channel.force(false);
+                        roll(false);
+                    } catch (IOException e) {
+                        // Ignore error for now; tried again after the next batch
+                    }
+                }
+            }
+
+            long sinceSync = System.nanoTime() - lastSync;
+            if (policy.shouldSync(unsyncedRecords, sinceSync, idle) || (closed && queue.isEmpty())) {
+                IOException failure = null;
+                try {
+                    if (channel != null) {
+                        long start = FSYNC.start();
+                        channel.force(false);
+                        FSYNC.stop(start);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+                for (Commit c : unsynced) {
+                    if (failure == null) {
+                        c.done.complete(null);
+                    } else {
+                        c.done.completeExceptionally(failure);
+                    }
+                }
+                unsynced.clear();
+                unsyncedRecords = 0;
+                lastSync = System.nanoTime();
+            }
+        }
+    }
+
+    private void park(long nanos) {
+        writerParked = true;
+        if (queue.isEmpty() && !closed) {
+            LockSupport.parkNanos(this, nanos);
+        }
+        writerParked = false;
+    }
+
+    // Writes one batch at the end of the log and indexes every line in it.
+    // The append lock keeps other processes from appending between reading
+    // the end of the file and writing there, so the offsets are our own.
+    private synchronized void writeBatch(List<Commit> batch) throws IOException {
+        FileLock lock = lockShared();
+        try {
+            FileLock append = lockAppend();
+            try {
+                writeBatchLocked(batch);
+            } finally {
+                if (append != null) append.release();
+            }
+        } finally {
+            if (lock != null) lock.release();
+        }
+    }
+
+    private void writeBatchLocked(List<Commit> batch) throws IOException {
+        if (!loaded || !indexPersisted) {
+            load(true);
+        }
+        // Lines written by other processes since we last looked
+        catchUp(true);
+        if (channel != null && !Objects.equals(channelKey, fileKey(logFile))) {
+            // Another process compacted the log; append to the new file
+            channel.close();
+            channel = null;
+        }
+        if (channel == null) {
+            channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            channelKey = fileKey(logFile);
+        }
+
+        int size = 0;
+        for (Commit c : batch) size += c.bytes.length;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Commit c : batch) buffer.put(c.bytes);
+        buffer.flip();
+
+        // Nobody else appends while we hold the append lock, so this is
+        // where our bytes land
+        long offset = activeBase + channel.size();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        BYTES_WRITTEN.add(size);
+        for (Commit c : batch) {
+            long lineOffset = offset;
+            if (c.tombstone) {
+                addTombstone(c.users[0], offset);
+            }
+            for (int i = 0; i < c.lines.length; i++) {
+                addToIndex(c.users[i], lineOffset, c.lines[i], true);
+                lineOffset += c.lines[i].getBytes().length + System.lineSeparator().length();
+            }
+            offset += c.bytes.length;
+        }
+        if (indexOut != null) indexOut.flush();
+        indexedEnd = offset;
+    }
+
+    // Returns the log lines of one account, in the order they were written
+    public synchronized List<String> readEntries(String user) throws IOException {
+        FileLock lock = lockShared();
+        try {
+            if (!loaded) {
+                load(false);
+            }
+            catchUp(false);
+
+            List<String> lines = new ArrayList<>();
+            History history = history(user);
+            if (history == null) return lines;
+            try (Cursor cursor = new Cursor()) {
+                for (int i = 0; i < history.size; i++) {
+                    String line = cursor.readLine(history.offsets[i]);
+                    if (line != null) lines.add(line);
+                }
+            }
+            return lines;
+        } finally {
+            if (lock != null) lock.release();
+        }
+    }
+
+    // The account's running totals, from the index alone
+    public synchronized Summary summary(String user) throws IOException {
+        FileLock lock = lockShared();
+        try {
+            if (!loaded) {
+                load(false);
+            }
+            catchUp(false);
+            History history = history(user);
+            if (history == null) return new Summary(0, 0, 0, 0, 0, -1);
+            return new Summary(history.size, history.deposited, history.withdrawn,
+                    history.transferredIn, history.transferredOut, history.lastActivity());
+        } finally {
+            if (lock != null) lock.release();
+        }
+    }
+
+    // How far the log scan that builds the index has got (0..1), or -1 when
+    // none is running. Safe to call from any thread while another reads.
+    public double indexingProgress() {
+        long end = scanEnd;
+        if (end <= 0) return -1;
+        return Math.min(1.0, (double) scanPosition / end);
+    }
+
+    // One page of the account's lines stamped in [fromMillis, toMillis): the
+    // first skip of them are passed over and at most limit returned. Only
+    // those lines are read from the log; running totals come from the index.
+    public synchronized Statement statement(String user, long fromMillis, long toMillis, int skip, int limit) throws IOException {
+        FileLock lock = lockShared();
+        try {
+            if (!loaded) {
+                load(false);
+            }
+            catchUp(false);
+            History history = history(user);
+            if (history == null) return new Statement(0, new ArrayList<>());
+            int first = history.firstAtOrAfter(fromMillis);
+            int end = Math.max(first, history.firstAtOrAfter(toMillis));
+            int start = first + Math.min(Math.max(skip, 0), end - first);
+            int stop = Math.min(end, start + Math.max(limit, 0));
+
+            long deposited = start < history.size ? history.depositedBefore[start] : history.deposited;
+            long withdrawn = start < history.size ? history.withdrawnBefore[start] : history.withdrawn;
+            List<Statement.Row> rows = new ArrayList<>(stop - start);
+            try (Cursor cursor = new Cursor()) {
+                for (int i = start; i < stop; i++) {
+                    if (history.kinds[i] == LogEntry.DEPOSIT) deposited += history.amounts[i];
+                    else if (history.kinds[i] == LogEntry.WITHDRAW) withdrawn += history.amounts[i];
+                    String line = cursor.readLine(history.offsets[i]);
+                    LogEntry entry = line != null ? LogEntry.parse(line) : null;
+                    if (entry != null) rows.add(new Statement.Row(i - first + 1, entry, deposited, withdrawn));
+                }
+            }
+            return new Statement(end - first, rows);
+        } finally {
+            if (lock != null) lock.release();
+        }
+    }
+
+    // Every live line, of any account, stamped in [fromMillis, toMillis), in
+    // log order. Reading starts at the time index entry before fromMillis and
+    // stops once lines are past toMillis, so only that stretch of the log
+    // (and only those blocks of sealed segments) is read.
+    public synchronized List<LogEntry> activityBetween(long fromMillis, long toMillis) throws IOException {
+        FileLock lock = lockShared();
+        try {
+            if (!loaded) {
+                load(false);
+            }
+            catchUp(false);
+            List<LogEntry> entries = new ArrayList<>();
+            long seekTime = fromMillis > Long.MIN_VALUE + TIME_SLACK_MILLIS ? fromMillis - TIME_SLACK_MILLIS : Long.MIN_VALUE;
+            long stopTime = toMillis < Long.MAX_VALUE - TIME_SLACK_MILLIS ? toMillis + TIME_SLACK_MILLIS : Long.MAX_VALUE;
+            scan(timeIndex.offsetBefore(seekTime), indexedEnd, null, (buffer, start, end, offset) -> {
+                LogEntry entry = LogEntry.parse(stripCarriageReturn(new String(buffer, start, end - start)));
+                if (entry == null) return true;
+                long time = timestamps.parse(entry.timestamp);
+                if (time >= stopTime) return false;
+                if (time >= fromMillis && time < toMillis && !isDeleted(entry.user, offset)) {
+                    entries.add(entry);
+                }
+                return true;
+            });
+            return entries;
+        } finally {
+            if (lock != null) lock.release();
+        }
+    }
+
+    // True while the log still starts with an old Date.toString() stamp;
+    // compact() converts them
+    public synchronized boolean hasLegacyTimestamps() throws IOException {
+        String line;
+        FileLock lock = lockShared();
+        try (Cursor cursor = new Cursor()) {
+            refreshLayout();
+            line = cursor.readLine(segments.isEmpty() ? activeBase : segments.get(0).start);
+        } finally {
+            if (lock != null) lock.release();
+        }
+        LogEntry entry = line != null ? LogEntry.parse(line) : null;
+        return entry != null && !LogEntry.isEpoch(entry.timestamp) && timestamps.parse(entry.timestamp) >= 0;
+    }
+
+    // True if some deleted account still has lines in the file
+    public synchronized boolean hasTombstones() throws IOException {
+        readTombstones();
+        return !tombstones.isEmpty();
+    }
+
+    // Rewrites the log without the lines of deleted accounts, and with any old
+    // Date.toString() stamps as epoch millis, rebuilding the index as it goes.
+    // The live file is rolled first, so this only rewrites sealed segments:
+    // each keeps its place in the log (shrinking leaves a gap before the next)
+    // and is only rewritten if it holds such lines. The copying runs without
+    // blocking appends and is paced by the compactor; only the final swap
+    // holds the lock. Returns the bytes of lines dropped or shortened (0 if
+    // there was nothing to do or the tombstones changed meanwhile, in which
+    // case the next run tries again).
+    public long compact(Compactor compactor) throws IOException, InterruptedException {
+        synchronized (this) {
+            FileLock lock = lockShared();
+            try {
+                if (!loaded) load(true);
+                catchUp(true);
+            } finally {
+                if (lock != null) lock.release();
+            }
+            if (tombstones.isEmpty() && !hasLegacyTimestamps()) return 0;
+        }
+        roll(true);
+        sealPending();
+
+        Map<String, Long> dead;
+        List<LogSegment> sealed;
+        long expectedRewrites;
+        synchronized (this) {
+            FileLock lock = lockShared();
+            try {
+                catchUp(true);
+            } finally {
+                if (lock != null) lock.release();
+            }
+            dead = new HashMap<>(tombstones);
+            for (long deletedBefore : dead.values()) {
+                // Not rolled (another TransactionLog in this JVM holds the lock); next time
+                if (deletedBefore > activeBase) return 0;
+            }
+            sealed = new ArrayList<>(segments);
+            expectedRewrites = rewrites;
+        }
+
+        File tmpIndex = new File(indexFile.getPath() + ".compact");
+        Rewrite rewrite = new Rewrite(tmpIndex, dead, expectedRewrites + 1);
+        Map<LogSegment, File> replaced = new LinkedHashMap<>();
+        try {
+            for (LogSegment segment : sealed) {
+                boolean stale = !segment.compressed || scan(segment, 0, segment.length, compactor, rewrite::isCurrent) == -1;
+                File tmp = stale ? File.createTempFile(baseName + ".", ".seg.tmp", dir) : null;
+                if (tmp != null) replaced.put(segment, tmp);
+                rewrite.copy(segment, tmp, compactor);
+            }
+
+            synchronized (this) {
+                FileLock lock = lockExclusive();
+                // Another TransactionLog in this JVM is using the file; next time
+                if (lock == null) return 0;
+                try {
+                    readTombstones();
+                    long[] counters = readCounters();
+                    if (!tombstones.equals(dead) || counters[1] != expectedRewrites) {
+                        return 0;
+                    }
+                    // Lines move from the first swap on, so every index (and
+                    // the one on disk) is stale from here
+                    writeCounters(counters[0] + 1, counters[1] + 1);
+                    for (Map.Entry<LogSegment, File> entry : replaced.entrySet()) {
+                        LogSegment segment = entry.getKey();
+                        Files.move(entry.getValue().toPath(), segmentFile(segment.start, "seg").toPath(),
+                                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        if (!segment.compressed) Files.deleteIfExists(segment.file.toPath());
+                    }
+                    rewrite.finish();
+                    closeIndex();
+                    Files.move(tmpIndex.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    try (FileOutputStream out = new FileOutputStream(tombstoneFile)) {
+                        out.getFD().sync();
+                    }
+                    tombstones.clear();
+                    tombstonesRead = 0;
+
+                    // From the new index file, within the heap cap; then the
+                    // segments rolled while we copied, and the live file
+                    load(true);
+                    return rewrite.dropped;
+                } finally {
+                    lock.release();
+                }
+            }
+        } finally {
+            rewrite.close();
+            tmpIndex.delete();
+            for (File tmp : replaced.values()) tmp.delete();
+        }
+    }
+
+    // Drops the index (it is rebuilt from the log on the next read)
+    public synchronized void invalidateIndex() {
+        closeIndex();
+        clearIndex();
+        timeIndex.clear();
+        indexedEnd = 0;
+        lastOffset = -1;
+        loaded = false;
+        indexedRewrites = -1;
+        indexFile.delete();
+    }
+
+    // Writes everything still queued, then stops the writer for good
+    public void close() {
+        Thread w;
+        synchronized (this) {
+            closed = true;
+            w = writer;
+        }
+        if (w != null && w != Thread.currentThread()) {
+            LockSupport.unpark(w);
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException e) {
+                    // Already shutting down
+                }
+            }
+            shutdownHook = null;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignore error for now
+                }
+                channel = null;
+            }
+            closeIndex();
+            if (lockChannel != null) {
+                try {
+                    lockChannel.close();
+                } catch (IOException e) {
+                    // Ignore error for now
+                }
+                lockChannel = null;
+            }
+        }
+    }
+
+    private FileChannel lockChannel() throws IOException {
+        if (lockChannel == null) {
+            lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return lockChannel;
+    }
+
+    // Shared lock held while reading or appending, or null if another
+    // TransactionLog in this JVM already holds one on the same file
+    private FileLock lockShared() throws IOException {
+        try {
+            return lockChannel().lock(0, 1, true);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    // Exclusive lock held while rolling, sealing or compacting, or null if
+    // another TransactionLog in this JVM holds a lock on the same file
+    private FileLock lockExclusive() throws IOException {
+        try {
+            return lockChannel().lock(0, 1, false);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    // Exclusive lock on the second byte, held (inside the shared lock) while
+    // appending, or null if another TransactionLog in this JVM holds it
+    private FileLock lockAppend() throws IOException {
+        try {
+            return lockChannel().lock(1, 1, false);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    // Reads the layout counters from TransactionLog.lock and, if another
+    // process (or thread) rolled, sealed or compacted since, the segment list.
+    // Called under the lock.
+    private void refreshLayout() throws IOException {
+        long[] counters = readCounters();
+        if (counters[0] == layout && counters[1] == rewrites) return;
+        loadSegments(counters[1] == rewrites);
+        layout = counters[0];
+        rewrites = counters[1];
+    }
+
+    // Lists the segment files; a raw segment whose sealed copy is already
+    // in place is about to be deleted. Unless lines moved (keep is false),
+    // segments seen before are reused with their block indexes.
+    private void loadSegments(boolean keep) throws IOException {
+        Map<Long, LogSegment> known = new HashMap<>();
+        if (keep) {
+            for (LogSegment segment : segments) known.put(segment.start, segment);
+        }
+        TreeMap<Long, LogSegment> found = new TreeMap<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher m = segmentName.matcher(file.getName());
+                if (!m.matches()) continue;
+                long start = Long.parseLong(m.group(1));
+                boolean compressed = m.group(2).equals("seg");
+                LogSegment existing = found.get(start);
+                if (existing != null && existing.compressed) continue;
+                LogSegment old = known.get(start);
+                if (old != null && old.compressed == compressed && old.file.equals(file)) {
+                    found.put(start, old);
+                } else {
+                    found.put(start, compressed ? LogSegment.sealed(file) : LogSegment.raw(file, start));
+                }
+            }
+        }
+        segments = new ArrayList<>(found.values());
+        activeBase = found.isEmpty() ? 0 : found.lastEntry().getValue().end;
+    }
+
+    private File segmentFile(long start, String kind) {
+        return new File(dir, String.format("%s.%019d.%s", baseName, start, kind));
+    }
+
+    // Rolls and seals so far, and compactions so far (zeros for a new file)
+    private long[] readCounters() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        FileChannel channel = lockChannel();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) break;
+        }
+        return new long[]{buffer.getLong(0), buffer.getLong(8)};
+    }
+
+    private void writeCounters(long layoutCount, long rewriteCount) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16).putLong(0, layoutCount).putLong(8, rewriteCount);
+        FileChannel channel = lockChannel();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    // True once TransactionLog.txt is big or old enough to roll
+    private synchronized boolean rollDue() {
+        long length = indexedEnd - activeBase;
+        if (length <= 0) return false;
+        if (length >= SEGMENT_BYTES) return true;
+        long first = timeIndex.timeAtOrAfter(activeBase);
+        return first >= 0 && System.currentTimeMillis() - first >= SEGMENT_MILLIS;
+    }
+
+    // Renames TransactionLog.txt to the next segment (its lines keep their
+    // offsets) and starts a new one, then seals the segment in the
+    // background. The writer calls this when rollDue(); compact() always.
+    private void roll(boolean always) throws IOException {
+        synchronized (this) {
+            FileLock lock = lockExclusive();
+            // Another TransactionLog in this JVM is using the file; later
+            if (lock == null) return;
+            try {
+                refreshLayout();
+                // Another process may have just rolled it
+                if (logFile.length() == 0 || !(always || rollDue())) return;
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                Files.move(logFile.toPath(), segmentFile(activeBase, "raw").toPath(), StandardCopyOption.ATOMIC_MOVE);
+                try (FileOutputStream out = new FileOutputStream(logFile)) {
+                    out.getFD().sync();
+                }
+                long[] counters = readCounters();
+                writeCounters(counters[0] + 1, counters[1]);
+                refreshLayout();
+            } finally {
+                lock.release();
+            }
+            if (sealer != null && sealer.isAlive()) return;
+            sealer = new Thread(() -> {
+                try {
+                    sealPending();
+                } catch (IOException e) {
+                    // Left raw; the next roll or compaction seals it
+                }
+            }, "transaction-log-sealer");
+            sealer.setDaemon(true);
+            sealer.setPriority(Thread.MIN_PRIORITY);
+            sealer.start();
+        }
+    }
+
+    // Compresses every rolled segment that is still raw
+    private void sealPending() throws IOException {
+        synchronized (sealing) {
+            List<LogSegment> raw = new ArrayList<>();
+            synchronized (this) {
+                if (closed) return;
+                FileLock lock = lockShared();
+                try {
+                    refreshLayout();
+                } finally {
+                    if (lock != null) lock.release();
+                }
+                for (LogSegment segment : segments) {
+                    if (!segment.compressed) raw.add(segment);
+                }
+            }
+            for (LogSegment segment : raw) {
+                seal(segment);
+            }
+        }
+    }
+
+    // Writes the sealed copy of a raw segment next to it, then swaps it in
+    private void seal(LogSegment segment) throws IOException {
+        File tmp = File.createTempFile(baseName + ".", ".seg.tmp", dir);
+        try {
+            try (InputStream in = new FileInputStream(segment.file);
+                 LogSegment.Writer out = new LogSegment.Writer(tmp, segment.start)) {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    BYTES_READ.add(n);
+                    out.write(buffer, 0, n);
+                }
+                out.finish(segment.end);
+                BYTES_WRITTEN.add(out.written);
+            } catch (FileNotFoundException e) {
+                // Sealed by another process meanwhile
+                return;
+            }
+            synchronized (this) {
+                if (closed) return;
+                FileLock lock = lockExclusive();
+                if (lock == null) return;
+                try {
+                    if (!segment.file.exists()) return;
+                    Files.move(tmp.toPath(), segmentFile(segment.start, "seg").toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    Files.delete(segment.file.toPath());
+                    long[] counters = readCounters();
+                    writeCounters(counters[0] + 1, counters[1]);
+                    refreshLayout();
+                } finally {
+                    lock.release();
+                }
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    // Every file this log keeps (Reshard moves them aside)
+    public synchronized List<File> files() throws IOException {
+        List<File> files = new ArrayList<>();
+        if (lockFile.exists()) {
+            FileLock lock = lockShared();
+            try {
+                refreshLayout();
+            } finally {
+                if (lock != null) lock.release();
+            }
+        } else {
+            // Never opened; don't leave a lock file behind
+            loadSegments(false);
+        }
+        for (LogSegment segment : segments) files.add(segment.file);
+        for (File file : new File[]{logFile, indexFile, tombstoneFile, lockFile}) {
+            if (file.exists()) files.add(file);
+        }
+        return files;
+    }
+
+    // The whole log as text, oldest segment first (for offline tools; lines
+    // of deleted accounts are included until compact() drops them)
+    public InputStream openStream() throws IOException {
+        return openStream(false);
+    }
+
+    // Like openStream(), but without the lines of deleted accounts. Both read
+    // the files as they were when opened, so they can run for a long time
+    // without holding up writers, rolls or compaction.
+    public InputStream openLiveStream() throws IOException {
+        return openStream(true);
+    }
+
+    private synchronized InputStream openStream(boolean live) throws IOException {
+        FileLock lock = lockShared();
+        try {
+            refreshLayout();
+            if (live) readTombstones();
+        } finally {
+            if (lock != null) lock.release();
+        }
+        Map<String, Long> dead = live && !tombstones.isEmpty() ? new HashMap<>(tombstones) : null;
+        List<InputStream> parts = new ArrayList<>();
+        try {
+            for (LogSegment segment : segments) {
+                InputStream in = segment.open(BYTES_READ);
+                parts.add(dead == null ? in : new LiveLines(in, segment.start, dead));
+            }
+            if (logFile.exists()) {
+                InputStream in = new FileInputStream(logFile);
+                parts.add(dead == null ? in : new LiveLines(in, activeBase, dead));
+            }
+        } catch (IOException e) {
+            for (InputStream part : parts) part.close();
+            throw e;
+        }
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    // Bytes of text openStream() would read now, for progress
+    public synchronized long length() throws IOException {
+        FileLock lock = lockShared();
+        try {
+            refreshLayout();
+        } finally {
+            if (lock != null) lock.release();
+        }
+        long length = logFile.length();
+        for (LogSegment segment : segments) length += segment.length;
+        return length;
+    }
+
+    // One part of the log (a segment or the live file) without the lines of
+    // accounts deleted after them. Whole lines are passed on; a torn last
+    // line is dropped.
+    private static final class LiveLines extends InputStream {
+        private final InputStream in;
+        private final Map<String, Long> dead;
+        // Log offset of the unread bytes kept at the front of the buffer
+        private long offset;
+        private byte[] buffer = new byte[64 * 1024];
+        // Live lines ready to hand out, then the start and end of a line not
+        // yet finished
+        private int position;
+        private int limit;
+        private int partStart;
+        private int partEnd;
+
+        LiveLines(InputStream in, long offset, Map<String, Long> dead) {
+            this.in = in;
+            this.offset = offset;
+            this.dead = dead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (position == limit) {
+                if (!fill()) return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        // Reads on until at least one more whole line is in; false at the end
+        private boolean fill() throws IOException {
+            int carried = partEnd - partStart;
+            if (carried == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            System.arraycopy(buffer, partStart, buffer, 0, carried);
+            int n = in.read(buffer, carried, buffer.length - carried);
+            if (n < 0) return false;
+            int end = carried + n;
+            // Live lines move down over the dropped ones
+            int kept = 0;
+            int lineStart = 0;
+            for (int i = 0; i < end; i++) {
+                if (buffer[i] != '\n') continue;
+                if (isLive(lineStart, i)) {
+                    System.arraycopy(buffer, lineStart, buffer, kept, i + 1 - lineStart);
+                    kept += i + 1 - lineStart;
+                }
+                lineStart = i + 1;
+            }
+            offset += lineStart;
+            position = 0;
+            limit = kept;
+            partStart = lineStart;
+            partEnd = end;
+            return true;
+        }
+
+        private boolean isLive(int start, int end) {
+            String user = "";
+            for (int i = start; i < end; i++) {
+                if (buffer[i] == ',') {
+                    user = new String(buffer, start, i - start).trim();
+                    break;
+                }
+            }
+            Long deletedBefore = dead.get(user);
+            return deletedBefore == null || offset + start >= deletedBefore;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // Reads lines at log offsets, from whichever segment holds them. Keeps
+    // its files open and the last block inflated, so reading an account's
+    // lines in order inflates each block once. Used under the lock.
+    private final class Cursor implements Closeable {
+        private final Map<LogSegment, RandomAccessFile> files = new HashMap<>();
+        private RandomAccessFile active;
+        private Inflater inflater;
+        private LogSegment cachedSegment;
+        private int cachedBlock;
+        private byte[] cached;
+
+        // The line at offset without its terminator, or null past the end
+        String readLine(long offset) throws IOException {
+            if (offset >= activeBase) {
+                if (offset >= activeBase + logFile.length()) return null;
+                if (active == null) active = new RandomAccessFile(logFile, "r");
+                return readLineAt(active, offset - activeBase);
+            }
+            LogSegment segment = segmentAt(offset);
+            if (segment == null) return null;
+            RandomAccessFile raf = files.get(segment);
+            if (raf == null) {
+                raf = new RandomAccessFile(segment.file, "r");
+                files.put(segment, raf);
+            }
+            long local = offset - segment.start;
+            if (!segment.compressed) return readLineAt(raf, local);
+            int block = segment.blockOf(raf, local);
+            if (segment != cachedSegment || block != cachedBlock) {
+                if (inflater == null) inflater = new Inflater();
+                cached = segment.readBlock(raf, block, inflater, BYTES_READ);
+                cachedSegment = segment;
+                cachedBlock = block;
+            }
+            int start = (int) (local - segment.blockStart(raf, block));
+            int end = start;
+            while (end < cached.length && cached[end] != '\n') end++;
+            return stripCarriageReturn(new String(cached, start, end - start));
+        }
+
+        private LogSegment segmentAt(long offset) {
+            int low = 0;
+            int high = segments.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                LogSegment segment = segments.get(mid);
+                if (offset < segment.start) {
+                    high = mid - 1;
+                } else if (offset >= segment.end) {
+                    low = mid + 1;
+                } else {
+                    return segment.contains(offset) ? segment : null;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (inflater != null) inflater.end();
+            if (active != null) active.close();
+            for (RandomAccessFile raf : files.values()) raf.close();
+        }
+    }
+
+    // Identity of the file (device and inode where available), or null
+    private static Object fileKey(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Records a delete: the account's lines before offset are gone
+    private void addTombstone(String user, long offset) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(tombstoneFile, true)) {
+            out.write((user + "," + offset + System.lineSeparator()).getBytes());
+            out.getFD().sync();
+        }
+        applyTombstone(user, offset);
+    }
+
+    private void applyTombstone(String user, long offset) {
+        tombstones.merge(user, offset, Math::max);
+        History history = index.get(user);
+        if (history != null) {
+            int held = history.size;
+            history.dropBefore(offset);
+            heldLines -= held - history.size;
+            if (history.size == 0) index.remove(user);
+        }
+    }
+
+    // Applies tombstones written since we last looked (by us or another process)
+    private void readTombstones() throws IOException {
+        long length = tombstoneFile.length();
+        if (length < tombstonesRead) {
+            // Emptied by a compaction; the log was replaced as well
+            tombstones.clear();
+            tombstonesRead = 0;
+        }
+        if (length == tombstonesRead) return;
+        byte[] bytes;
+        try (RandomAccessFile raf = new RandomAccessFile(tombstoneFile, "r")) {
+            raf.seek(tombstonesRead);
+            bytes = new byte[(int) (length - tombstonesRead)];
+            raf.readFully(bytes);
+        }
+        int lineStart = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') continue;
+            String line = stripCarriageReturn(new String(bytes, lineStart, i - lineStart));
+            lineStart = i + 1;
+            int comma = line.lastIndexOf(',');
+            if (comma <= 0) continue;
+            try {
+                applyTombstone(line.substring(0, comma), Long.parseLong(line.substring(comma + 1).trim()));
+            } catch (NumberFormatException e) {
+                // Torn or foreign line; skip it
+            }
+        }
+        // A partial last line is read again next time
+        tombstonesRead += lineStart;
+    }
+
+    // Reads the persisted index and checks it still matches the log.
+    // Only the writing side (persist = true) writes rebuilt entries back to disk.
+    private void load(boolean persist) throws IOException {
+        clearIndex();
+        indexFileUsable = true;
+        timeIndex.clear();
+        tombstones.clear();
+        tombstonesRead = 0;
+        readTombstones();
+        indexedEnd = 0;
+        lastOffset = -1;
+        refreshLayout();
+        indexedRewrites = rewrites;
+        String lastUser = null;
+        if (indexFile.exists()) {
+            boolean stale = false;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                if (in.readInt() != INDEX_MAGIC || in.readLong() != rewrites) {
+                    // Written by an older version, or before a compaction moved lines; rebuild it
+                    stale = true;
+                } else {
+                    while (true) {
+                        String user = in.readUTF();
+                        long offset = in.readLong();
+                        byte kind = in.readByte();
+                        long amount = in.readLong();
+                        long time = in.readLong();
+                        // Entries must grow; anything else was left by a racing writer
+                        if (offset <= lastOffset) continue;
+                        lastUser = user;
+                        lastOffset = offset;
+                        timeIndex.add(offset, time);
+                        if (isDeleted(user, offset)) continue;
+                        indexLine(user, offset, kind, amount, time);
+                    }
+                }
+            } catch (EOFException e) {
+                // End of index (a torn last record is simply dropped)
+            }
+            // Deleted once closed
+            if (stale && persist) indexFile.delete();
+        }
+
+        if (lastUser != null) {
+            String line;
+            try (Cursor cursor = new Cursor()) {
+                line = cursor.readLine(lastOffset);
+            }
+            if (line != null && line.startsWith(lastUser + ",")) {
+                // Resume at the last indexed line; addToIndex skips it
+                indexedEnd = lastOffset;
+            } else {
+                // The log was rewritten behind our back; start over
+                clearIndex();
+                indexFileUsable = persist;
+                timeIndex.clear();
+                lastOffset = -1;
+                if (persist) indexFile.delete();
+            }
+        }
+        loaded = true;
+        indexPersisted = persist;
+        catchUp(persist);
+    }
+
+    // Indexes lines appended to the log after indexedEnd
+    private void catchUp(boolean persist) throws IOException {
+        readTombstones();
+        refreshLayout();
+        long length = activeBase + logFile.length();
+        if (length < indexedEnd || rewrites != indexedRewrites) {
+            // Lines moved (compacted); rebuild from scratch
+            indexedRewrites = rewrites;
+            clearIndex();
+            timeIndex.clear();
+            indexedEnd = 0;
+            lastOffset = -1;
+            if (persist) {
+                closeIndex();
+                indexFile.delete();
+            }
+        }
+        if (length == indexedEnd) return;
+
+        scanEnd = length;
+        try {
+            indexedEnd = scan(indexedEnd, length, null, (buffer, start, end, offset) -> {
+                addLine(buffer, start, end, offset, persist);
+                return true;
+            });
+        } finally {
+            scanEnd = 0;
+        }
+        if (persist && indexOut != null) indexOut.flush();
+    }
+
+    // Called by scan with each whole line (buffer[start, end), without the
+    // '\n' at end) and its offset in the log; false stops the scan
+    private interface LineVisitor {
+        boolean visit(byte[] buffer, int start, int end, long offset) throws IOException;
+    }
+
+    // Visits every whole line starting in [from, to), in log order, reading
+    // only the segments and blocks the range touches (paced by compactor if
+    // given). Returns -1 if the visitor stopped, else where the next scan
+    // should start: a partial last line of the live file is left for then.
+    private long scan(long from, long to, Compactor compactor, LineVisitor visitor) throws IOException {
+        long position = from;
+        for (LogSegment segment : segments) {
+            if (segment.start + segment.length <= position) continue;
+            if (segment.start >= to) return position;
+            long end = scan(segment, Math.max(position - segment.start, 0), Math.min(to - segment.start, segment.length), compactor, visitor);
+            if (end < 0) return -1;
+            // A torn line at the end of a segment is skipped
+            position = Math.max(position, Math.min(to, segment.end));
+        }
+        if (to <= activeBase) return Math.max(position, to);
+        long activeFrom = Math.max(position, activeBase) - activeBase;
+        try (FileInputStream in = new FileInputStream(logFile)) {
+            long end = scanStream(in, activeFrom, to - activeBase, activeBase, compactor, visitor);
+            return end < 0 ? -1 : activeBase + end;
+        } catch (FileNotFoundException e) {
+            // Not created yet
+            return Math.max(position, activeBase);
+        }
+    }
+
+    // scan() within one segment; from and to are offsets from its start
+    private long scan(LogSegment segment, long from, long to, Compactor compactor, LineVisitor visitor) throws IOException {
+        if (!segment.compressed) {
+            try (FileInputStream in = new FileInputStream(segment.file)) {
+                return scanStream(in, from, to, segment.start, compactor, visitor);
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(segment.file, "r")) {
+            Inflater inflater = new Inflater();
+            try {
+                // Blocks end at line ends, so each is scanned on its own
+                for (int b = segment.blockCount() == 0 ? 0 : segment.blockOf(raf, from); b < segment.blockCount(); b++) {
+                    long blockStart = segment.blockStart(raf, b);
+                    if (blockStart >= to) break;
+                    byte[] block = segment.readBlock(raf, b, inflater, BYTES_READ);
+                    if (compactor != null) throttle(compactor, block.length);
+                    int lineStart = 0;
+                    for (int i = 0; i < block.length; i++) {
+                        if (block[i] != '\n') continue;
+                        long local = blockStart + lineStart;
+                        if (local >= to) return to;
+                        if (local >= from && !visitor.visit(block, lineStart, i, segment.start + local)) return -1;
+                        lineStart = i + 1;
+                    }
+                    scanPosition = segment.start + blockStart + block.length;
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+        return to;
+    }
+
+    // Visits the lines of a plain file from offset from to to; base is the
+    // file's offset in the log
+    private long scanStream(FileInputStream in, long from, long to, long base, Compactor compactor, LineVisitor visitor) throws IOException {
+        in.getChannel().position(from);
+        byte[] buffer = new byte[64 * 1024];
+        long bufferStart = from;
+        int carried = 0;
+        int n;
+        while (bufferStart + carried < to
+                && (n = in.read(buffer, carried, (int) Math.min(buffer.length - carried, to - bufferStart - carried))) > 0) {
+            BYTES_READ.add(n);
+            if (compactor != null) throttle(compactor, n);
+            int end = carried + n;
+            int lineStart = 0;
+            for (int i = 0; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    if (!visitor.visit(buffer, lineStart, i, base + bufferStart + lineStart)) return -1;
+                    lineStart = i + 1;
+                }
+            }
+            // Keep the unfinished line for the next read
+            carried = end - lineStart;
+            if (carried == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            System.arraycopy(buffer, lineStart, buffer, 0, carried);
+            bufferStart += lineStart;
+            scanPosition = base + bufferStart;
+        }
+        return bufferStart;
+    }
+
+    private static void throttle(Compactor compactor, long bytes) throws IOException {
+        try {
+            compactor.throttle(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compaction interrupted");
+        }
+    }
+
+    // Adds a line to its account's history, unless the account was evicted
+    // (all of its lines are read back when it is next asked for)
+    private void indexLine(String user, long offset, byte kind, long amount, long time) {
+        if (evicted.contains(user)) return;
+        index.computeIfAbsent(user, k -> new History()).add(offset, kind, amount, time);
+        if (++heldLines > MAX_INDEXED_LINES) evictIfOver();
+    }
+
+    private void clearIndex() {
+        index.clear();
+        evicted.clear();
+        heldLines = 0;
+    }
+
+    // Drops the least recently used accounts until the cap is met again,
+    // always keeping the most recent one
+    private void evictIfOver() {
+        Iterator<Map.Entry<String, History>> it = index.entrySet().iterator();
+        while (heldLines > MAX_INDEXED_LINES && index.size() > 1) {
+            Map.Entry<String, History> eldest = it.next();
+            heldLines -= eldest.getValue().size;
+            evicted.add(eldest.getKey());
+            it.remove();
+        }
+    }
+
+    // The account's indexed lines, read back first if it was evicted; null
+    // if it has none
+    private History history(String user) throws IOException {
+        History history = index.get(user);
+        if (history != null || !evicted.contains(user)) return history;
+        history = reload(user);
+        evicted.remove(user);
+        if (history.size == 0) return null;
+        index.put(user, history);
+        heldLines += history.size;
+        evictIfOver();
+        return history;
+    }
+
+    // An evicted account's lines up to lastOffset: its records in
+    // TransactionLog.idx, then its lines in the log after the last record
+    // there (all of the log if the file does not match it)
+    private History reload(String user) throws IOException {
+        History history = new History();
+        long fileEnd = -1;
+        if (indexFileUsable && indexFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                if (in.readInt() == INDEX_MAGIC && in.readLong() == indexedRewrites) {
+                    while (true) {
+                        String name = in.readUTF();
+                        long offset = in.readLong();
+                        byte kind = in.readByte();
+                        long amount = in.readLong();
+                        long time = in.readLong();
+                        // Skipped as load() skips them
+                        if (offset <= fileEnd) continue;
+                        if (offset > lastOffset) break;
+                        fileEnd = offset;
+                        if (name.equals(user) && !isDeleted(user, offset)) history.add(offset, kind, amount, time);
+                    }
+                }
+            } catch (EOFException e) {
+                // End of index
+            }
+        }
+        if (fileEnd < lastOffset) {
+            long after = fileEnd;
+            scan(Math.max(after, 0), indexedEnd, null, (buffer, start, end, offset) -> {
+                if (offset <= after || offset > lastOffset) return true;
+                int comma = start;
+                while (comma < end && buffer[comma] != ',') comma++;
+                if (comma == end || !new String(buffer, start, comma - start).trim().equals(user) || isDeleted(user, offset)) return true;
+                LogEntry entry = LogEntry.parse(stripCarriageReturn(new String(buffer, start, end - start)));
+                history.add(offset, entry != null ? entry.kind() : LogEntry.OTHER, entry != null ? entry.amount : 0,
+                        entry != null ? timestamps.parse(entry.timestamp) : -1);
+                return true;
+            });
+        }
+        return history;
+    }
+
+    // Indexes one line by its first field (the account name)
+    private void addLine(byte[] buffer, int start, int end, long offset, boolean persist) throws IOException {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == ',') {
+                String user = new String(buffer, start, i - start).trim();
+                if (!user.isEmpty()) addToIndex(user, offset, stripCarriageReturn(new String(buffer, start, end - start)), persist);
+                return;
+            }
+        }
+    }
+
+    private void addToIndex(String user, long offset, String line, boolean persist) throws IOException {
+        if (offset <= lastOffset) return;
+        lastOffset = offset;
+        LogEntry entry = LogEntry.parse(line);
+        byte kind = entry != null ? entry.kind() : LogEntry.OTHER;
+        long amount = entry != null ? entry.amount : 0;
+        long time = entry != null ? timestamps.parse(entry.timestamp) : -1;
+        timeIndex.add(offset, time);
+        if (isDeleted(user, offset)) return;
+        indexLine(user, offset, kind, amount, time);
+        if (persist) {
+            if (indexOut == null) {
+                boolean empty = indexFile.length() == 0;
+                indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+                if (empty) {
+                    indexOut.writeInt(INDEX_MAGIC);
+                    indexOut.writeLong(indexedRewrites);
+                }
+            }
+            writeIndexEntry(indexOut, user, offset, kind, amount, time);
+        }
+    }
+
+    private static void writeIndexEntry(DataOutputStream out, String user, long offset, byte kind, long amount, long time) throws IOException {
+        out.writeUTF(user);
+        out.writeLong(offset);
+        out.writeByte(kind);
+        out.writeLong(amount);
+        out.writeLong(time);
+    }
+
+    private boolean isDeleted(String user, long offset) {
+        Long deletedBefore = tombstones.get(user);
+        return deletedBefore != null && offset < deletedBefore;
+    }
+
+    private void closeIndex() {
+        if (indexOut != null) {
+            try {
+                indexOut.close();
+            } catch (IOException e) {
+                // Ignore error for now
+            }
+            indexOut = null;
+        }
+    }
+
+    // Reads the line starting at offset, without its line terminator
+    private static String readLineAt(RandomAccessFile raf, long offset) throws IOException {
+        raf.seek(offset);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        byte[] chunk = new byte[256];
+        int n;
+        while ((n = raf.read(chunk)) > 0) {
+            BYTES_READ.add(n);
+            for (int i = 0; i < n; i++) {
+                if (chunk[i] == '\n') {
+                    line.write(chunk, 0, i);
+                    return stripCarriageReturn(line.toString());
+                }
+            }
+            line.write(chunk, 0, n);
+        }
+        return line.size() > 0 ? stripCarriageReturn(line.toString()) : null;
+    }
+
+    private static String stripCarriageReturn(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    // An account's totals over all its lines still in the log
+    public static final class Summary {
+        public final int transactions;
+        public final long deposited;
+        public final long withdrawn;
+        public final long transferredIn;
+        public final long transferredOut;
+        // Epoch millis of the latest line, or -1 if there is none
+        public final long lastActivity;
+
+        Summary(int transactions, long deposited, long withdrawn, long transferredIn, long transferredOut, long lastActivity) {
+            this.transactions = transactions;
+            this.deposited = deposited;
+            this.withdrawn = withdrawn;
+            this.transferredIn = transferredIn;
+            this.transferredOut = transferredOut;
+            this.lastActivity = lastActivity;
+        }
+    }
+
+    // One page of a date-range statement
+    public static final class Statement {
+        // Lines in the whole range, for paging
+        public final int total;
+        public final List<Row> rows;
+
+        Statement(int total, List<Row> rows) {
+            this.total = total;
+            this.rows = rows;
+        }
+
+        // A line with its position in the range and the account's deposits
+        // and withdrawals up to and including it
+        public static final class Row {
+            public final int number;
+            public final LogEntry entry;
+            public final long totalDeposited;
+            public final long totalWithdrawn;
+
+            Row(int number, LogEntry entry, long totalDeposited, long totalWithdrawn) {
+                this.number = number;
+                this.entry = entry;
+                this.totalDeposited = totalDeposited;
+                this.totalWithdrawn = totalWithdrawn;
+            }
+        }
+    }
+
+    // Lines queued for the writer, already encoded, with the future to complete.
+    // A tombstone commit carries no lines, only the deleted account.
+    private static class Commit {
+        final String[] users;
+        final String[] lines;
+        final byte[] bytes;
+        final boolean tombstone;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Commit(String[] users, String[] lines, byte[] bytes, boolean tombstone) {
+            this.users = users;
+            this.lines = lines;
+            this.bytes = bytes;
+            this.tombstone = tombstone;
+        }
+    }
+
+    // The compacted index, and the compacted copies of the segments that
+    // need one, written side by side
+    private final class Rewrite implements Closeable {
+        final Map<String, Long> dead;
+        final LogEntry.TimestampParser timestamps = new LogEntry.TimestampParser();
+        final FileOutputStream indexFile;
+        final DataOutputStream indexOut;
+        // Bytes of lines dropped or shortened
+        long dropped;
+        private LogSegment.Writer out;
+        private LogSegment segment;
+
+        Rewrite(File tmpIndex, Map<String, Long> dead, long rewrites) throws IOException {
+            this.dead = dead;
+            indexFile = new FileOutputStream(tmpIndex);
+            indexOut = new DataOutputStream(new BufferedOutputStream(indexFile));
+            indexOut.writeInt(INDEX_MAGIC);
+            indexOut.writeLong(rewrites);
+        }
+
+        // False (which stops the scan) at a line of a deleted account or with an old stamp
+        boolean isCurrent(byte[] buffer, int start, int end, long offset) {
+            return !(isDead(buffer, start, end, offset) || isLegacy(buffer, start, end));
+        }
+
+        private boolean isDead(byte[] buffer, int start, int end, long offset) {
+            Long deletedBefore = dead.get(user(buffer, start, end));
+            return deletedBefore != null && offset < deletedBefore;
+        }
+
+        private boolean isLegacy(byte[] buffer, int start, int end) {
+            for (int i = end - 1; i >= start; i--) {
+                if (buffer[i] == ',') {
+                    String stamp = stripCarriageReturn(new String(buffer, i + 1, end - i - 1)).trim();
+                    return !LogEntry.isEpoch(stamp) && timestamps.parse(stamp) >= 0;
+                }
+            }
+            return false;
+        }
+
+        // Indexes the live lines of a segment, writing them to tmp as a new
+        // sealed segment if given (at the offsets they get there)
+        void copy(LogSegment segment, File tmp, Compactor compactor) throws IOException {
+            this.segment = segment;
+            try {
+                if (tmp != null) out = new LogSegment.Writer(tmp, segment.start);
+                scan(segment, 0, segment.length, compactor, this::copyLine);
+                if (out != null) {
+                    out.finish(segment.end);
+                    BYTES_WRITTEN.add(out.written);
+                    dropped += segment.length - out.length;
+                }
+            } finally {
+                if (out != null) out.close();
+                out = null;
+            }
+        }
+
+        private boolean copyLine(byte[] buffer, int start, int end, long offset) throws IOException {
+            if (out == null) {
+                index(buffer, start, end, offset);
+                return true;
+            }
+            if (isDead(buffer, start, end, offset)) return true;
+            long newOffset = segment.start + out.length;
+            if (isLegacy(buffer, start, end)) {
+                // Old Date.toString() stamp: the same line with epoch millis
+                String line = stripCarriageReturn(new String(buffer, start, end - start));
+                int comma = line.lastIndexOf(',');
+                byte[] converted = (line.substring(0, comma + 1) + timestamps.parse(line.substring(comma + 1).trim()) + System.lineSeparator()).getBytes();
+                out.write(converted, 0, converted.length);
+                index(converted, 0, converted.length - System.lineSeparator().length(), newOffset);
+            } else {
+                out.write(buffer, start, end + 1 - start);
+                index(buffer, start, end, newOffset);
+            }
+            return true;
+        }
+
+        private void index(byte[] buffer, int start, int end, long offset) throws IOException {
+            String user = user(buffer, start, end);
+            if (user.isEmpty()) return;
+            LogEntry entry = LogEntry.parse(stripCarriageReturn(new String(buffer, start, end - start)));
+            byte kind = entry != null ? entry.kind() : LogEntry.OTHER;
+            long amount = entry != null ? entry.amount : 0;
+            long time = entry != null ? timestamps.parse(entry.timestamp) : -1;
+            if (isDead(buffer, start, end, offset)) return;
+            writeIndexEntry(indexOut, user, offset, kind, amount, time);
+        }
+
+        private String user(byte[] buffer, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (buffer[i] == ',') return new String(buffer, start, i - start).trim();
+            }
+            return "";
+        }
+
+        // Makes the index durable before it replaces the original
+        void finish() throws IOException {
+            indexOut.flush();
+            indexFile.getFD().sync();
+        }
+
+        @Override
+        public void close() throws IOException {
+            indexOut.close();
+        }
+    }
+
+    // Offset of the first line of every minute of the log. Lines can land a
+    // little out of time order, so minutes start at the latest time seen.
+    private static class TimeIndex {
+        long[] starts = new long[16];
+        long[] offsets = new long[16];
+        int size;
+        long maxTime = Long.MIN_VALUE;
+
+        void add(long offset, long time) {
+            if (time < 0 || time <= maxTime) return;
+            maxTime = time;
+            long bucket = Math.floorDiv(time, TIME_BUCKET_MILLIS) * TIME_BUCKET_MILLIS;
+            if (size > 0 && bucket <= starts[size - 1]) return;
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            starts[size] = bucket;
+            offsets[size] = offset;
+            size++;
+        }
+
+        // Where to start reading for lines stamped at or after time
+        long offsetBefore(long time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] <= time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low == 0 ? 0 : offsets[low - 1];
+        }
+
+        // Minute of the first line at or after offset, or -1
+        long timeAtOrAfter(long offset) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (offsets[mid] < offset) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low < size ? starts[low] : -1;
+        }
+
+        void clear() {
+            size = 0;
+            maxTime = Long.MIN_VALUE;
+        }
+    }
+
+    // One account's indexed lines (offset, kind, amount and time, in parallel
+    // arrays without boxing every entry) and its running totals
+    private static class History {
+        long[] offsets = new long[4];
+        byte[] kinds = new byte[4];
+        long[] amounts = new long[4];
+        // Never decreasing, so a date range is found by binary search: a line
+        // stamped earlier than the one before it (clock set back) sorts with it
+        long[] times = new long[4];
+        // Deposits and withdrawals of the lines before each one, so a
+        // statement page starts its running totals without summing them
+        long[] depositedBefore = new long[4];
+        long[] withdrawnBefore = new long[4];
+        int size;
+
+        long deposited;
+        long withdrawn;
+        long transferredIn;
+        long transferredOut;
+
+        void add(long offset, byte kind, long amount, long time) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                kinds = Arrays.copyOf(kinds, size * 2);
+                amounts = Arrays.copyOf(amounts, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+                depositedBefore = Arrays.copyOf(depositedBefore, size * 2);
+                withdrawnBefore = Arrays.copyOf(withdrawnBefore, size * 2);
+            }
+            offsets[size] = offset;
+            kinds[size] = kind;
+            amounts[size] = amount;
+            times[size] = size > 0 ? Math.max(time, times[size - 1]) : time;
+            depositedBefore[size] = deposited;
+            withdrawnBefore[size] = withdrawn;
+            size++;
+            count(kind, amount);
+        }
+
+        private void count(byte kind, long amount) {
+            switch (kind) {
+                case LogEntry.DEPOSIT: deposited += amount; break;
+                case LogEntry.WITHDRAW: withdrawn += amount; break;
+                case LogEntry.TRANSFER_IN: transferredIn += amount; break;
+                case LogEntry.TRANSFER_OUT: transferredOut += amount; break;
+                default: break;
+            }
+        }
+
+        long lastActivity() {
+            return size == 0 ? -1 : times[size - 1];
+        }
+
+        // First line stamped at or after time
+        int firstAtOrAfter(long time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Offsets are ascending, so the deleted ones are a prefix
+        void dropBefore(long offset) {
+            int keep = 0;
+            while (keep < size && offsets[keep] < offset) keep++;
+            if (keep == 0) return;
+            System.arraycopy(offsets, keep, offsets, 0, size - keep);
+            System.arraycopy(kinds, keep, kinds, 0, size - keep);
+            System.arraycopy(amounts, keep, amounts, 0, size - keep);
+            System.arraycopy(times, keep, times, 0, size - keep);
+            size -= keep;
+            deposited = withdrawn = transferredIn = transferredOut = 0;
+            for (int i = 0; i < size; i++) {
+                depositedBefore[i] = deposited;
+                withdrawnBefore[i] = withdrawn;
+                count(kinds[i], amounts[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package bank.bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// The application classes live in the default package, which a named package
+// cannot import (and JMH refuses benchmarks in the default package). This
+// bridge resolves the methods under test once, as method handles, so the
+// per-call overhead is a direct invocation with no boxing or varargs arrays.
+final class App {
+    private static final MethodHandle NEW_ACCOUNT_SERVICE;
+    private static final MethodHandle LOAD_CREDENTIALS;
+    private static final MethodHandle LOAD_BALANCES;
+    private static final MethodHandle RELOAD_USER_STATUS;
+    private static final MethodHandle DEPOSIT;
+    private static final MethodHandle LOGIN;
+
+    private static final MethodHandle NEW_BALANCE_JOURNAL;
+    private static final MethodHandle JOURNAL_LOAD;
+    private static final MethodHandle JOURNAL_PUT;
+    private static final MethodHandle JOURNAL_COMPACT;
+    private static final MethodHandle JOURNAL_CLOSE;
+
+    private static final MethodHandle NEW_TRANSACTION_LOG;
+    private static final MethodHandle LOG_APPEND;
+    private static final MethodHandle LOG_READ_ENTRIES;
+    private static final MethodHandle LOG_SUMMARY;
+    private static final MethodHandle LOG_STATEMENT;
+    private static final MethodHandle LOG_ACTIVITY_BETWEEN;
+    private static final MethodHandle LOG_CLOSE;
+
+    private static final MethodHandle OPEN_DEPOSITOR_STORE;
+    private static final MethodHandle STORE_IMPORT;
+    private static final MethodHandle STORE_CLOSE;
+
+    private static final MethodHandle NEW_TABLE_MODEL;
+    private static final MethodHandle TABLE_ROW_COUNT;
+    private static final MethodHandle TABLE_RECORD_AT;
+    private static final MethodHandle TABLE_SET_FILTER;
+    private static final MethodHandle TABLE_CLOSE;
+    private static final MethodHandle READ_PAGE;
+    private static final MethodHandle METRICS_TIMER;
+    private static final MethodHandle TIMER_START;
+    private static final MethodHandle TIMER_STOP;
+    private static final MethodHandle METRICS_COUNTER;
+    private static final MethodHandle COUNTER_ADD;
+    private static final MethodHandle NEW_ID_ALLOCATOR;
+    private static final MethodHandle ID_NEXT;
+
+    static {
+        try {
+            Class<?> service = Class.forName("AccountService");
+            Class<?> journal = Class.forName("BalanceJournal");
+            Class<?> log = Class.forName("TransactionLog");
+            Class<?> store = Class.forName("DepositorStore");
+
+            NEW_ACCOUNT_SERVICE = constructor(service, store, journal, log);
+            LOAD_CREDENTIALS = method(service, "loadCredentials");
+            LOAD_BALANCES = method(service, "loadBalances");
+            RELOAD_USER_STATUS = method(service, "reloadUserStatus", String.class);
+            DEPOSIT = method(service, "deposit", String.class, long.class);
+            LOGIN = method(service, "login", String.class, String.class);
+
+            NEW_BALANCE_JOURNAL = constructor(journal, File.class, File.class);
+            JOURNAL_LOAD = method(journal, "load");
+            JOURNAL_PUT = method(journal, "put", String.class, long.class);
+            JOURNAL_COMPACT = method(journal, "compact", Class.forName("Compactor"));
+            JOURNAL_CLOSE = method(journal, "close");
+
+            NEW_TRANSACTION_LOG = constructor(log, File.class, File.class);
+            LOG_APPEND = method(log, "append", String.class, String.class);
+            LOG_READ_ENTRIES = method(log, "readEntries", String.class);
+            LOG_SUMMARY = method(log, "summary", String.class);
+            LOG_STATEMENT = method(log, "statement", String.class, long.class, long.class, int.class, int.class);
+            LOG_ACTIVITY_BETWEEN = method(log, "activityBetween", long.class, long.class);
+            LOG_CLOSE = method(log, "close");
+
+            OPEN_DEPOSITOR_STORE = constructor(store, File.class);
+            STORE_IMPORT = method(store, "importText", File.class);
+            STORE_CLOSE = method(store, "close");
+
+            Class<?> table = Class.forName("DepositorTableModel");
+            NEW_TABLE_MODEL = constructor(table, store);
+            TABLE_ROW_COUNT = method(table, "getRowCount");
+            TABLE_RECORD_AT = method(table, "recordAt", int.class);
+            TABLE_SET_FILTER = method(table, "setNameFilter", String.class);
+            TABLE_CLOSE = method(table, "close");
+            READ_PAGE = method(table, "readPage", store, int[].class);
+            Class<?> ids = Class.forName("IdAllocator");
+            NEW_ID_ALLOCATOR = constructor(ids, File.class, store, int.class, int.class);
+            ID_NEXT = method(ids, "next");
+            Class<?> metrics = Class.forName("Metrics");
+            Class<?> timer = Class.forName("Metrics$Timer");
+            Class<?> counter = Class.forName("Metrics$Counter");
+            METRICS_TIMER = method(metrics, "timer", String.class);
+            TIMER_START = method(timer, "start");
+            TIMER_STOP = method(timer, "stop", long.class);
+            METRICS_COUNTER = method(metrics, "counter", String.class);
+            COUNTER_ADD = method(counter, "add", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private App() {
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... parameterTypes) throws ReflectiveOperationException {
+        Constructor<?> c = owner.getDeclaredConstructor(parameterTypes);
+        c.setAccessible(true);
+        return MethodHandles.lookup().unreflectConstructor(c);
+    }
+
+    private static MethodHandle method(Class<?> owner, String name, Class<?>... parameterTypes) throws ReflectiveOperationException {
+        Method m = owner.getDeclaredMethod(name, parameterTypes);
+        m.setAccessible(true);
+        return MethodHandles.lookup().unreflect(m);
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new IllegalStateException(t);
+    }
+
+    // AccountService (LoginPage's data layer)
+
+    static Object newAccountService(Object depositors, Object journal, Object log) {
+        try {
+            return (Object) NEW_ACCOUNT_SERVICE.invoke(depositors, journal, log);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void loadCredentials(Object service) {
+        try {
+            LOAD_CREDENTIALS.invoke(service);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void loadBalances(Object service) {
+        try {
+            LOAD_BALANCES.invoke(service);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void reloadUserStatus(Object service, String user) {
+        try {
+            RELOAD_USER_STATUS.invoke(service, user);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object deposit(Object service, String user, long amount) {
+        try {
+            return (Object) DEPOSIT.invoke(service, user, amount);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object login(Object service, String user, String pin) {
+        try {
+            return (Object) LOGIN.invoke(service, user, pin);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // BalanceJournal
+
+    static Object newBalanceJournal(File snapshot, File journal) {
+        try {
+            return (Object) NEW_BALANCE_JOURNAL.invoke(snapshot, journal);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void journalLoad(Object journal) {
+        try {
+            JOURNAL_LOAD.invoke(journal);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void journalPut(Object journal, String user, long balance) {
+        try {
+            JOURNAL_PUT.invoke(journal, user, balance);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // Writes a checkpoint on this thread, unthrottled
+    static void journalCompact(Object journal) {
+        try {
+            JOURNAL_COMPACT.invoke(journal, null);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void journalClose(Object journal) {
+        try {
+            JOURNAL_CLOSE.invoke(journal);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // TransactionLog
+
+    static Object newTransactionLog(File log, File index) {
+        try {
+            return (Object) NEW_TRANSACTION_LOG.invoke(log, index);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static CompletableFuture<?> logAppend(Object log, String user, String line) {
+        try {
+            return (CompletableFuture<?>) LOG_APPEND.invoke(log, user, line);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<String> logReadEntries(Object log, String user) {
+        try {
+            return (List<String>) LOG_READ_ENTRIES.invoke(log, user);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object logSummary(Object log, String user) {
+        try {
+            return (Object) LOG_SUMMARY.invoke(log, user);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object logStatement(Object log, String user, long from, long to, int skip, int limit) {
+        try {
+            return (Object) LOG_STATEMENT.invoke(log, user, from, to, skip, limit);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static List<?> logActivityBetween(Object log, long from, long to) {
+        try {
+            return (List<?>) LOG_ACTIVITY_BETWEEN.invoke(log, from, to);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void logClose(Object log) {
+        try {
+            LOG_CLOSE.invoke(log);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // DepositorStore
+
+    static Object openDepositorStore(File file) {
+        try {
+            return (Object) OPEN_DEPOSITOR_STORE.invoke(file);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void importDepositors(Object store, File text) {
+        try {
+            STORE_IMPORT.invoke(store, text);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void closeDepositorStore(Object store) {
+        try {
+            STORE_CLOSE.invoke(store);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // Admin table (DepositorTableModel) and IdAllocator (Depositor.generateUniqueId)
+
+    static Object newDepositorTableModel(Object store) {
+        try {
+            return (Object) NEW_TABLE_MODEL.invoke(store);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int tableRowCount(Object model) {
+        try {
+            return (int) TABLE_ROW_COUNT.invoke(model);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int tableRecordAt(Object model, int row) {
+        try {
+            return (int) TABLE_RECORD_AT.invoke(model, row);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void tableSetFilter(Object model, String prefix) {
+        try {
+            TABLE_SET_FILTER.invoke(model, prefix);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void closeTableModel(Object model) {
+        try {
+            TABLE_CLOSE.invoke(model);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String[][] readDepositorPage(Object store, int[] records) {
+        try {
+            return (String[][]) READ_PAGE.invoke(store, records);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newIdAllocator(File sequence, Object depositors, int digits, int blockSize) {
+        try {
+            return (Object) NEW_ID_ALLOCATOR.invoke(sequence, depositors, digits, blockSize);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String nextId(Object allocator) {
+        try {
+            return (String) ID_NEXT.invoke(allocator);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // Metrics
+
+    static Object metricsTimer(String name) {
+        try {
+            return (Object) METRICS_TIMER.invoke(name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static long timerStart(Object timer) {
+        try {
+            return (long) TIMER_START.invoke(timer);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void timerStop(Object timer, long start) {
+        try {
+            TIMER_STOP.invoke(timer, start);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object metricsCounter(String name) {
+        try {
+            return (Object) METRICS_COUNTER.invoke(name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void counterAdd(Object counter, long n) {
+        try {
+            COUNTER_ADD.invoke(counter, n);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+}
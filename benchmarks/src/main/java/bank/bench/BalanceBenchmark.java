@@ -0,0 +1,79 @@
+package bank.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Balance.txt: LoginPage.loadBalances and the per-transaction save
+// (saveAllBalances, replaced by a BalanceJournal append). loadBalances reads
+// the text snapshot; loadCheckpoint the binary checkpoint that replaces it.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BalanceBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    int depositors;
+
+    private DataSet data;
+    private File scratch;
+    private Object journal;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = DataSet.get(depositors);
+        scratch = DataSet.scratchDir();
+        // Start the writable journal from a copy of the full snapshot
+        File snapshot = new File(scratch, "Balance.txt");
+        Files.copy(data.balanceFile.toPath(), snapshot.toPath());
+        journal = App.newBalanceJournal(snapshot, new File(scratch, "Balance.journal"));
+        App.journalLoad(journal);
+        // One record so there is a journal to fold into scratch/Balance.ckpt
+        App.journalPut(journal, DataSet.name(0), 0);
+        App.journalCompact(journal);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        App.journalClose(journal);
+        Scratch.delete(scratch);
+    }
+
+    @Benchmark
+    public Object loadBalances() {
+        Object fresh = App.newBalanceJournal(data.balanceFile, new File(scratch, "missing.journal"));
+        App.journalLoad(fresh);
+        return fresh;
+    }
+
+    @Benchmark
+    public Object loadCheckpoint() {
+        Object fresh = App.newBalanceJournal(new File(scratch, "Balance.txt"), new File(scratch, "missing.journal"));
+        App.journalLoad(fresh);
+        return fresh;
+    }
+
+    @Benchmark
+    public void updateBalance() {
+        int i = next++ % depositors;
+        App.journalPut(journal, DataSet.name(i), i * 25L);
+    }
+}
@@ -0,0 +1,120 @@
+package bank.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+// Generated bank data for one depositor count, in the application's own file
+// formats. Generation is slow at 1M depositors, so each data set is written
+// once under target/bench-data and reused by later runs.
+final class DataSet {
+    // Log lines written per depositor
+    static final int TRANSACTIONS_PER_DEPOSITOR = 5;
+    // Epoch millis of the first log line (2025-01-06 09:30 +08:00); each
+    // line after it is stamped one second later
+    static final long FIRST_TIMESTAMP = 1736127000000L;
+    static final long TIMESTAMP_STEP = 1000L;
+    // Bumped when the generated files change, so older data sets are rewritten
+    private static final int FORMAT = 2;
+
+    final int depositors;
+    final File dir;
+    final File depositorFile;
+    final File depositorStore;
+    final File balanceFile;
+    final File transactionLog;
+    final File transactionIndex;
+
+    private DataSet(int depositors, File dir) {
+        this.depositors = depositors;
+        this.dir = dir;
+        this.depositorFile = new File(dir, "Depositor.txt");
+        this.depositorStore = new File(dir, "Depositor.dat");
+        this.balanceFile = new File(dir, "Balance.txt");
+        this.transactionLog = new File(dir, "TransactionLog.txt");
+        this.transactionIndex = new File(dir, "TransactionLog.idx");
+    }
+
+    static String name(int i) {
+        return "Depositor" + i;
+    }
+
+    private static final Map<Integer, DataSet> OPEN = new HashMap<>();
+
+    static synchronized DataSet get(int depositors) throws IOException {
+        DataSet open = OPEN.get(depositors);
+        if (open != null) return open;
+        Path root = Paths.get(System.getProperty("bench.data", "target/bench-data"));
+        DataSet data = new DataSet(depositors, root.resolve(String.valueOf(depositors)).toFile());
+        OPEN.put(depositors, data);
+        File done = new File(data.dir, ".complete-" + FORMAT);
+        if (!done.exists() || !data.depositorStore.exists()) {
+            Files.createDirectories(data.dir.toPath());
+            data.generate();
+            done.createNewFile();
+        }
+        return data;
+    }
+
+    // The open Depositor.dat store; one instance per process, since its file
+    // locks cannot overlap within a JVM
+    private Object store;
+
+    synchronized Object store() {
+        if (store == null) {
+            store = App.openDepositorStore(depositorStore);
+        }
+        return store;
+    }
+
+    // Creates an empty scratch directory for benchmarks that write
+    static File scratchDir() throws IOException {
+        Path root = Paths.get(System.getProperty("bench.data", "target/bench-data"));
+        Files.createDirectories(root);
+        return Files.createTempDirectory(root, "scratch").toFile();
+    }
+
+    private void generate() throws IOException {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(depositorFile)))) {
+            for (int i = 0; i < depositors; i++) {
+                out.printf("Name: %s, ID: %d, Gender: %s, Age: %d, PIN: %04d, Status: %s%n",
+                        name(i), i, i % 2 == 0 ? "Male" : "Female", 18 + i % 60, i % 10000,
+                        i % 50 == 0 ? "Disabled" : "Enabled");
+            }
+        }
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(balanceFile)))) {
+            for (int i = 0; i < depositors; i++) {
+                out.printf("Name: %s, Balance: %.2f%n", name(i), (i % 1000) * 10.0);
+            }
+        }
+        depositorStore.delete();
+        Object imported = App.openDepositorStore(depositorStore);
+        App.importDepositors(imported, depositorFile);
+        App.closeDepositorStore(imported);
+        // Interleave accounts the way real traffic does, instead of grouping by user
+        transactionIndex.delete();
+        long timestamp = FIRST_TIMESTAMP;
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(transactionLog)))) {
+            for (int round = 0; round < TRANSACTIONS_PER_DEPOSITOR; round++) {
+                for (int i = 0; i < depositors; i++) {
+                    if (round == TRANSACTIONS_PER_DEPOSITOR - 1 && i == depositors - 1) break;
+                    double balance = (round + 1) * 100.0;
+                    out.printf("%s,Deposit,%.2f,%.2f,%d%n", name(i), 100.0, balance, timestamp);
+                    timestamp += TIMESTAMP_STEP;
+                }
+            }
+        }
+        // The last line goes through the real appender, which builds TransactionLog.idx
+        Object log = App.newTransactionLog(transactionLog, transactionIndex);
+        App.logAppend(log, name(depositors - 1), String.format("%s,Deposit,%.2f,%.2f,%d",
+                name(depositors - 1), 100.0, TRANSACTIONS_PER_DEPOSITOR * 100.0, timestamp));
+        App.logClose(log);
+    }
+}
@@ -0,0 +1,109 @@
+package bank.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Depositor readers: LoginPage.loadCredentials and reloadUserStatus (now in
+// AccountService), the Admin table and Depositor.generateUniqueId (now an
+// IdAllocator lease). All of them read the mapped Depositor.dat store.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DepositorFileBenchmark {
+    // DepositorTableModel.PAGE_SIZE
+    private static final int PAGE_SIZE = 256;
+
+    @Param({"10000", "100000", "1000000"})
+    int depositors;
+
+    private DataSet data;
+    private File scratch;
+    private Object journal;
+    private Object log;
+    private Object service;
+    private String middleUser;
+    private Object idAllocator;
+    private Object table;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = DataSet.get(depositors);
+        scratch = DataSet.scratchDir();
+        journal = App.newBalanceJournal(new File(scratch, "Balance.txt"), new File(scratch, "Balance.journal"));
+        log = App.newTransactionLog(new File(scratch, "TransactionLog.txt"), new File(scratch, "TransactionLog.idx"));
+        service = App.newAccountService(data.store(), journal, log);
+        App.loadCredentials(service);
+        middleUser = DataSet.name(depositors / 2);
+        // Widest format so the sequence never runs out during a run
+        table = App.newDepositorTableModel(data.store());
+        idAllocator = App.newIdAllocator(new File(scratch, "DepositorId.seq"), data.store(), 18, 16);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        App.closeTableModel(table);
+        App.journalClose(journal);
+        App.logClose(log);
+        Scratch.delete(scratch);
+    }
+
+    @Benchmark
+    public Object loadCredentials() {
+        Object fresh = App.newAccountService(data.store(), journal, log);
+        App.loadCredentials(fresh);
+        return fresh;
+    }
+
+    @Benchmark
+    public void reloadUserStatus() {
+        App.reloadUserStatus(service, middleUser);
+    }
+
+    // Opening the Admin window: build the row index and decode the first page
+    @Benchmark
+    public String[][] adminOpenTable() {
+        Object model = App.newDepositorTableModel(data.store());
+        int[] records = new int[Math.min(PAGE_SIZE, App.tableRowCount(model))];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = App.tableRecordAt(model, i);
+        }
+        String[][] page = App.readDepositorPage(data.store(), records);
+        App.closeTableModel(model);
+        return page;
+    }
+
+    // Typing a name into the Admin search box, one keystroke at a time, then clearing it
+    @Benchmark
+    public int adminSearch() {
+        int rows = 0;
+        for (int i = 1; i <= middleUser.length(); i++) {
+            App.tableSetFilter(table, middleUser.substring(0, i));
+            rows += App.tableRowCount(table);
+        }
+        App.tableSetFilter(table, "");
+        return rows;
+    }
+
+    @Benchmark
+    public String generateUniqueId() {
+        return App.nextId(idAllocator);
+    }
+}
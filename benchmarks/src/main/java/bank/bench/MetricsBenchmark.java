@@ -0,0 +1,92 @@
+package bank.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of the Metrics instrumentation. login is the cheapest instrumented
+// operation (no I/O), so comparing it with metrics on and off bounds the
+// overhead everywhere else; each value of the param runs in its own fork,
+// since Metrics reads -Dbank.metrics once. The timer and counter benchmarks
+// measure one recording, alone and from four threads at once.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsBenchmark {
+    @Param({"true", "false"})
+    String metrics;
+
+    private File scratch;
+    private Object journal;
+    private Object log;
+    private Object service;
+    private Object timer;
+    private Object counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Before anything loads the application classes
+        System.setProperty("bank.metrics", metrics);
+        DataSet data = DataSet.get(10000);
+        scratch = DataSet.scratchDir();
+        journal = App.newBalanceJournal(new File(scratch, "Balance.txt"), new File(scratch, "Balance.journal"));
+        log = App.newTransactionLog(new File(scratch, "TransactionLog.txt"), new File(scratch, "TransactionLog.idx"));
+        service = App.newAccountService(data.store(), journal, log);
+        App.loadCredentials(service);
+        timer = App.metricsTimer("bench.timer");
+        counter = App.metricsCounter("bench.counter");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        App.journalClose(journal);
+        App.logClose(log);
+        Scratch.delete(scratch);
+    }
+
+    @Benchmark
+    public Object login() {
+        // DataSet gives Depositor1 the PIN 0001
+        return App.login(service, DataSet.name(1), "0001");
+    }
+
+    @Benchmark
+    public void timer() {
+        App.timerStop(timer, App.timerStart(timer));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void timerContended() {
+        App.timerStop(timer, App.timerStart(timer));
+    }
+
+    @Benchmark
+    public void counter() {
+        App.counterAdd(counter, 128);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void counterContended() {
+        App.counterAdd(counter, 128);
+    }
+}
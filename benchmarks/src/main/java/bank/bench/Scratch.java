@@ -0,0 +1,19 @@
+package bank.bench;
+
+import java.io.File;
+
+// Removes the scratch directories written by the persistence benchmarks
+final class Scratch {
+    private Scratch() {
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
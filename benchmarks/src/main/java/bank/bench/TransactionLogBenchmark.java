@@ -0,0 +1,166 @@
+package bank.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// TransactionLog.txt: recordTransaction, a full deposit through AccountService,
+// and the Admin MonitorWindow history lookup (indexed, and the original scan),
+// plus what the monitor window reads now: the totals and one statement page,
+// and one hour of activity across all accounts (time index, and a scan).
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionLogBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    int depositors;
+
+    private DataSet data;
+    private File scratch;
+    private Object writeLog;
+    private Object journal;
+    private Object service;
+    private Object readLog;
+    private String monitoredUser;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = DataSet.get(depositors);
+        scratch = DataSet.scratchDir();
+        writeLog = App.newTransactionLog(new File(scratch, "TransactionLog.txt"), new File(scratch, "TransactionLog.idx"));
+        journal = App.newBalanceJournal(new File(scratch, "Balance.txt"), new File(scratch, "Balance.journal"));
+        service = App.newAccountService(data.store(), journal, writeLog);
+        App.loadCredentials(service);
+        App.loadBalances(service);
+
+        readLog = App.newTransactionLog(data.transactionLog, data.transactionIndex);
+        monitoredUser = DataSet.name(depositors / 2);
+        App.logReadEntries(readLog, monitoredUser);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        App.logClose(writeLog);
+        App.logClose(readLog);
+        App.journalClose(journal);
+        Scratch.delete(scratch);
+    }
+
+    private String nextUser() {
+        // Skip the disabled accounts the generator creates every 50th depositor
+        int i = next++ % depositors;
+        return DataSet.name(i % 50 == 0 ? i + 1 : i);
+    }
+
+    // Append and wait until the entry is durable (default flush policy: group commit)
+    @Benchmark
+    public Object recordTransaction() {
+        String user = nextUser();
+        return App.logAppend(writeLog, user, String.format("%s,%s,%.2f,%.2f,%d", user, "Deposit", 10.0, 110.0, System.currentTimeMillis())).join();
+    }
+
+    // Queue only: the cost on the caller's thread; the ring buffer applies backpressure
+    @Benchmark
+    public Object recordTransactionQueued() {
+        String user = nextUser();
+        return App.logAppend(writeLog, user, String.format("%s,%s,%.2f,%.2f,%d", user, "Deposit", 10.0, 110.0, System.currentTimeMillis()));
+    }
+
+    @Benchmark
+    public Object deposit() {
+        return App.deposit(service, nextUser(), 1000L);
+    }
+
+    // Opening a monitor window in a fresh Admin process: load the index, then read
+    @Benchmark
+    public List<String> monitorOpenIndexed() {
+        Object log = App.newTransactionLog(data.transactionLog, data.transactionIndex);
+        List<String> entries = App.logReadEntries(log, monitoredUser);
+        App.logClose(log);
+        return entries;
+    }
+
+    // Opening another monitor window once the index is in memory
+    @Benchmark
+    public List<String> monitorReadIndexed() {
+        return App.logReadEntries(readLog, monitoredUser);
+    }
+
+    // The monitor window's totals line, kept up to date by the index
+    @Benchmark
+    public Object monitorSummary() {
+        return App.logSummary(readLog, monitoredUser);
+    }
+
+    // The monitor window's first statement page (all dates)
+    @Benchmark
+    public Object monitorStatementPage() {
+        return App.logStatement(readLog, monitoredUser, Long.MIN_VALUE, Long.MAX_VALUE, 0, 100);
+    }
+
+    // Every line stamped in one hour from the middle of the log, via the time index
+    @Benchmark
+    public Object activityHour() {
+        long from = hourStart();
+        return App.logActivityBetween(readLog, from, from + 3_600_000L);
+    }
+
+    // The same hour by reading the whole log
+    @Benchmark
+    public int activityHourFullScan() throws IOException {
+        long from = hourStart();
+        long to = from + 3_600_000L;
+        int count = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(data.transactionLog))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                long time = Long.parseLong(line.substring(line.lastIndexOf(',') + 1));
+                if (time >= from && time < to) count++;
+            }
+        }
+        return count;
+    }
+
+    private long hourStart() {
+        long lines = (long) depositors * DataSet.TRANSACTIONS_PER_DEPOSITOR;
+        return DataSet.FIRST_TIMESTAMP + lines / 2 * DataSet.TIMESTAMP_STEP;
+    }
+
+    // The MonitorWindow loop before the index existed: read and split every line
+    @Benchmark
+    public List<String[]> monitorFullScan() throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(data.transactionLog))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(",", 5);
+                if (parts.length < 5) continue;
+                if (!parts[0].trim().equals(monitoredUser)) continue;
+                rows.add(parts);
+            }
+        }
+        return rows;
+    }
+}
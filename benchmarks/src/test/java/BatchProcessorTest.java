@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+// An operation that throws must end the run with its failure, not hang it
+class BatchProcessorTest {
+    // More lines than the workers' queues hold, so the reader would block
+    // on a worker that stopped taking
+    private static final int LINES = 50_000;
+
+    // Applies nothing; "broken" throws on every operation
+    private static final class FailingAccounts extends AccountService {
+        FailingAccounts() {
+            super(null, (Shards) null);
+        }
+
+        @Override
+        public Result deposit(String user, long amount) {
+            return check(user);
+        }
+
+        @Override
+        public Result withdraw(String user, long amount) {
+            return check(user);
+        }
+
+        @Override
+        public Result transfer(String sender, String recipient, long amount) {
+            check(recipient);
+            return check(sender);
+        }
+
+        private static Result check(String user) {
+            if (user.equals("broken")) throw new IllegalStateException("journal is gone");
+            return Result.OK;
+        }
+    }
+
+    @Test
+    void failingOperationEndsTheRun() {
+        StringBuilder input = new StringBuilder();
+        // Transfers to the broken account are shared with its worker
+        input.append("transfer,user0,broken,1.00\n");
+        for (int i = 0; i < LINES; i++) {
+            input.append(i % 3 == 0 ? "transfer,user" + i % 7 + ",broken,1.00\n" : "deposit,user" + i % 7 + ",1.00\n");
+        }
+        BatchProcessor batch = new BatchProcessor(new FailingAccounts(), 4);
+        IOException e = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertThrows(IOException.class,
+                () -> batch.run(new BufferedReader(new StringReader(input.toString())))));
+        assertEquals("journal is gone", e.getCause().getMessage());
+    }
+
+    @Test
+    void runsEveryOperationOtherwise() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            input.append(i % 3 == 0 ? "transfer,user" + i % 7 + ",user" + (i + 1) % 7 + ",1.00\n" : "deposit,user" + i % 7 + ",1.00\n");
+        }
+        BatchProcessor batch = new BatchProcessor(new FailingAccounts(), 4);
+        assertEquals(LINES, batch.run(new BufferedReader(new StringReader(input.toString()))));
+        assertEquals(LINES, batch.count(AccountService.Result.OK));
+    }
+}
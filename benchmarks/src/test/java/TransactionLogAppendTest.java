@@ -0,0 +1,87 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Two processes appending to the same log must not index each other's bytes
+class TransactionLogAppendTest {
+    private static final int LINES = 2000;
+
+    @TempDir
+    File dir;
+
+    // Run in the second process: says it is ready, waits for the go file,
+    // then appends its lines
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args[0]);
+        TransactionLog log = open(dir);
+        new File(dir, "ready").createNewFile();
+        while (!new File(dir, "go").exists()) {
+            Thread.sleep(1);
+        }
+        appendLines(log, args[1]);
+        System.exit(0);
+    }
+
+    private static TransactionLog open(File dir) {
+        return new TransactionLog(new File(dir, "TransactionLog.txt"), new File(dir, "TransactionLog.idx"));
+    }
+
+    // LINES lines for accounts <prefix>0..9, in small batches so the two
+    // processes' appends interleave
+    private static void appendLines(TransactionLog log, String prefix) {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        for (int i = 0; i < LINES; i++) {
+            String user = prefix + (i % 10);
+            pending.add(log.append(user, user + ",Deposit,1.00," + (i + 1) + ".00," + LogEntry.now()));
+            if (i % 4 == 3) CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+        log.close();
+    }
+
+    @Test
+    void twoProcessesIndexTheirOwnLines() throws Exception {
+        Process other = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), "TransactionLogAppendTest", dir.getPath(), "b")
+                .inheritIO()
+                .start();
+        TransactionLog writer = open(dir);
+        while (!new File(dir, "ready").exists()) {
+            assertTrue(other.isAlive(), "second process died");
+            Thread.sleep(1);
+        }
+        new File(dir, "go").createNewFile();
+        appendLines(writer, "a");
+        assertTrue(other.waitFor(60, TimeUnit.SECONDS), "second process timed out");
+        assertEquals(0, other.exitValue());
+
+        List<String> file = Files.readAllLines(new File(dir, "TransactionLog.txt").toPath());
+        assertEquals(2 * LINES, file.size());
+
+        // A fresh instance loads the index both processes wrote
+        TransactionLog log = open(dir);
+        try {
+            for (String prefix : new String[]{"a", "b"}) {
+                for (int u = 0; u < 10; u++) {
+                    String user = prefix + u;
+                    List<String> expected = new ArrayList<>();
+                    for (String line : file) {
+                        if (line.startsWith(user + ",")) expected.add(line);
+                    }
+                    assertEquals(expected, log.readEntries(user), user);
+                }
+            }
+        } finally {
+            log.close();
+        }
+    }
+}